@@ -0,0 +1,65 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encrypts and decrypts saved content of the given number of variables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AESCryptBenchmark {
+  @Param({"10", "1000"})
+  public int variables;
+
+  private AESCrypt aesCrypt;
+  private String plaintext;
+  private String cipherText;
+
+  @Setup
+  public void setUp() {
+    BenchmarkContext.install();
+    aesCrypt = new AESCrypt("app_benchmark", "token_benchmark");
+    plaintext = JsonConverter.toJson(JsonConverterBenchmark.createVariables(variables));
+    cipherText = aesCrypt.encrypt(plaintext);
+  }
+
+  @Benchmark
+  public String encrypt() {
+    return aesCrypt.encrypt(plaintext);
+  }
+
+  @Benchmark
+  public String decrypt() {
+    return aesCrypt.decrypt(cipherText);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import com.leanplum.internal.ActionManager.MessageMatchResult;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Matches an event against the triggers and limits of all messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ActionManagerBenchmark {
+  @Param({"10", "500"})
+  public int messages;
+
+  private final Map<String, Map<String, Object>> messageConfigs = new HashMap<>();
+
+  @Setup
+  public void setUp() {
+    BenchmarkContext.install();
+    for (int i = 0; i < messages; i++) {
+      Map<String, Object> config = new HashMap<>();
+      config.put("whenTriggers", children(trigger("event", "event" + (i % 20))));
+      config.put("whenLimits", children(limit("times", "5", "limitSession")));
+      messageConfigs.put(Integer.toString(i), config);
+    }
+  }
+
+  private static Map<String, Object> children(Map<String, Object> child) {
+    List<Object> children = new ArrayList<>();
+    children.add(child);
+    Map<String, Object> result = new HashMap<>();
+    result.put("children", children);
+    return result;
+  }
+
+  private static Map<String, Object> trigger(String subject, String noun) {
+    Map<String, Object> trigger = new HashMap<>();
+    trigger.put("subject", subject);
+    trigger.put("noun", noun);
+    trigger.put("objects", new ArrayList<>());
+    return trigger;
+  }
+
+  private static Map<String, Object> limit(String subject, String noun, String verb) {
+    Map<String, Object> limit = new HashMap<>();
+    limit.put("subject", subject);
+    limit.put("noun", noun);
+    limit.put("verb", verb);
+    limit.put("objects", new ArrayList<>());
+    return limit;
+  }
+
+  @Benchmark
+  public int shouldShowMessage() {
+    ActionManager actionManager = ActionManager.getInstance();
+    int matched = 0;
+    for (Map.Entry<String, Map<String, Object>> entry : messageConfigs.entrySet()) {
+      MessageMatchResult result = actionManager.shouldShowMessage(
+          entry.getKey(), entry.getValue(), "event", "event7", null);
+      if (result.matchedTrigger && result.matchedLimit) {
+        matched++;
+      }
+    }
+    return matched;
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import com.leanplum.Leanplum;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.Security;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Context stub with in-memory shared preferences, so SDK code that reads preferences can run on
+ * the JVM.
+ */
+final class BenchmarkContext extends ContextWrapper {
+  private final Map<String, MemorySharedPreferences> preferences = new HashMap<>();
+  private File filesDir;
+
+  private BenchmarkContext() {
+    super(null);
+  }
+
+  /**
+   * Sets up the SDK to run without a device: logging is disabled, the SDK runs in test mode, the
+   * application context is a new {@link BenchmarkContext} and the cipher used by {@link AESCrypt}
+   * is provided by Bouncy Castle, as it is on Android.
+   */
+  static void install() {
+    if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+    Log.setLogLevel(Log.Level.OFF);
+    Constants.isTestMode = true;
+    Leanplum.setApplicationContext(new BenchmarkContext());
+  }
+
+  @Override
+  public Context getApplicationContext() {
+    return this;
+  }
+
+  @Override
+  public synchronized File getFilesDir() {
+    if (filesDir == null) {
+      try {
+        filesDir = Files.createTempDirectory("leanplum-benchmark").toFile();
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      filesDir.deleteOnExit();
+    }
+    return filesDir;
+  }
+
+  @Override
+  public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+    MemorySharedPreferences result = preferences.get(name);
+    if (result == null) {
+      result = new MemorySharedPreferences();
+      preferences.put(name, result);
+    }
+    return result;
+  }
+
+  private static final class MemorySharedPreferences implements SharedPreferences {
+    private final Map<String, Object> values = new HashMap<>();
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+      return new HashMap<>(values);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+      return (String) get(key, defValue);
+    }
+
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+      return CollectionUtil.uncheckedCast(get(key, defValues));
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+      return (Integer) get(key, defValue);
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+      return (Long) get(key, defValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+      return (Float) get(key, defValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+      return (Boolean) get(key, defValue);
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+      return values.containsKey(key);
+    }
+
+    private synchronized Object get(String key, Object defValue) {
+      return values.containsKey(key) ? values.get(key) : defValue;
+    }
+
+    @Override
+    public Editor edit() {
+      return new MemoryEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(
+        OnSharedPreferenceChangeListener listener) {
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(
+        OnSharedPreferenceChangeListener listener) {
+    }
+
+    private final class MemoryEditor implements Editor {
+      private final Map<String, Object> changes = new HashMap<>();
+      private boolean clear;
+
+      @Override
+      public Editor putString(String key, String value) {
+        changes.put(key, value);
+        return this;
+      }
+
+      @Override
+      public Editor putStringSet(String key, Set<String> values) {
+        changes.put(key, values);
+        return this;
+      }
+
+      @Override
+      public Editor putInt(String key, int value) {
+        changes.put(key, value);
+        return this;
+      }
+
+      @Override
+      public Editor putLong(String key, long value) {
+        changes.put(key, value);
+        return this;
+      }
+
+      @Override
+      public Editor putFloat(String key, float value) {
+        changes.put(key, value);
+        return this;
+      }
+
+      @Override
+      public Editor putBoolean(String key, boolean value) {
+        changes.put(key, value);
+        return this;
+      }
+
+      @Override
+      public Editor remove(String key) {
+        changes.put(key, null);
+        return this;
+      }
+
+      @Override
+      public Editor clear() {
+        clear = true;
+        return this;
+      }
+
+      @Override
+      public boolean commit() {
+        synchronized (MemorySharedPreferences.this) {
+          if (clear) {
+            values.clear();
+          }
+          for (Map.Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+              values.remove(change.getKey());
+            } else {
+              values.put(change.getKey(), change.getValue());
+            }
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public void apply() {
+        commit();
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Finds the responses of a multi response for the given number of callbacks, when the response
+ * array is scanned for every callback as before, and when it is indexed by request id once as in
+ * {@link LeanplumEventCallbackManager#invokeCallbacks}. Multi response has twice as many entries
+ * as there are callbacks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CallbackDispatchBenchmark {
+  @Param({"100", "5000"})
+  public int callbacks;
+
+  private final List<String> requestIds = new ArrayList<>();
+  private JSONObject body;
+
+  @Setup
+  public void setUp() throws JSONException {
+    BenchmarkContext.install();
+    List<JSONObject> responses = new ArrayList<>();
+    for (int i = 0; i < 2 * callbacks; i++) {
+      String reqId = "other" + i;
+      if (i < callbacks) {
+        reqId = "request" + i;
+        requestIds.add(reqId);
+      }
+      JSONObject response = new JSONObject();
+      response.put(Constants.Params.REQUEST_ID, reqId);
+      response.put("success", true);
+      responses.add(response);
+    }
+    Collections.shuffle(responses, new Random(1));
+    body = new JSONObject();
+    body.put(Constants.Params.RESPONSE, new JSONArray(responses));
+  }
+
+  @Benchmark
+  public int scanResponses() {
+    int found = 0;
+    for (String reqId : requestIds) {
+      if (RequestUtil.getResponseForId(body, reqId) != null) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  @Benchmark
+  public int indexResponses() {
+    Map<String, JSONObject> responses = RequestUtil.getResponsesById(body);
+    int found = 0;
+    for (String reqId : requestIds) {
+      if (responses.get(reqId.toLowerCase(Locale.US)) != null) {
+        found++;
+      }
+    }
+    return found;
+  }
+}
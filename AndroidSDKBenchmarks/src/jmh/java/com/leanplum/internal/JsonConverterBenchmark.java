@@ -0,0 +1,101 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Converts a start response with the given number of variables to and from JSON. toJson writes
+ * the JSON directly, toJsonObjectTree converts the map to a JSONObject tree first as before.
+ * Allocations are reported with -PjmhProfilers=gc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonConverterBenchmark {
+  @Param({"10", "1000"})
+  public int variables;
+
+  private Map<String, Object> map;
+  private String json;
+  private JSONObject jsonObject;
+
+  @Setup
+  public void setUp() throws JSONException {
+    BenchmarkContext.install();
+    map = createVariables(variables);
+    json = JsonConverter.toJson(map);
+    jsonObject = new JSONObject(json);
+  }
+
+  static Map<String, Object> createVariables(int count) {
+    Map<String, Object> vars = new HashMap<>();
+    for (int i = 0; i < count; i++) {
+      Map<String, Object> group = new HashMap<>();
+      group.put("title", "Title of variable " + i + " with \"quotes\" and unicode é");
+      group.put("count", i);
+      group.put("ratio", i / 3.0);
+      group.put("enabled", i % 2 == 0);
+      List<Object> items = new ArrayList<>();
+      for (int j = 0; j < 5; j++) {
+        items.add("item" + j);
+      }
+      group.put("items", items);
+      vars.put("group" + i, group);
+    }
+    return vars;
+  }
+
+  @Benchmark
+  public String toJson() {
+    return JsonConverter.toJson(map);
+  }
+
+  @Benchmark
+  public String toJsonObjectTree() throws JSONException {
+    return JsonConverter.mapToJsonObject(map).toString();
+  }
+
+  @Benchmark
+  public Map<String, Object> fromJson() {
+    return JsonConverter.fromJson(json);
+  }
+
+  @Benchmark
+  public Map<String, Object> mapFromJson() {
+    return JsonConverter.mapFromJson(jsonObject);
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.leanplum.Leanplum;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Loads saved content on cold start, from the encrypted preferences where older SDK versions saved
+ * it and from the binary snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoadDiffsBenchmark {
+  @Param({"10", "500"})
+  public int messages;
+
+  private Context context;
+  private SharedPreferences defaults;
+  private AESCrypt aesContext;
+
+  @Setup
+  public void setUp() throws Exception {
+    BenchmarkContext.install();
+    APIConfig.getInstance().setAppId("app_benchmark", "dev_benchmark");
+    APIConfig.getInstance().setToken("token_benchmark");
+    VarCache.reset();
+    VarCache.setSilent(true);
+
+    Map<String, Object> messageMap = new HashMap<>();
+    for (int i = 0; i < messages; i++) {
+      Map<String, Object> vars = new HashMap<>();
+      vars.put("__name__", "Center Popup");
+      vars.put("Title", CollectionUtil.newHashMap("Text", "Title " + i, "Color", -16777216));
+      vars.put("Message", CollectionUtil.newHashMap("Text", "Message " + i, "Color", -16777216));
+      vars.put("Accept button", CollectionUtil.newHashMap("Text", "OK", "Background color", -1));
+      vars.put("Layout", CollectionUtil.newHashMap("Width", 300, "Height", 250.5));
+      Map<String, Object> message = new HashMap<>();
+      message.put("action", "Center Popup");
+      message.put("priority", i);
+      message.put("countdown", 86400);
+      message.put("hasImpressionCriteria", false);
+      message.put("vars", vars);
+      messageMap.put(String.valueOf(1000000 + i), message);
+    }
+    List<Map<String, Object>> variants = new ArrayList<>();
+    for (int i = 0; i < messages; i++) {
+      variants.add(CollectionUtil.<String, Object>newHashMap("id", 2000000L + i));
+    }
+    VarCache.applyVariableDiffs(
+        JsonConverterBenchmark.createVariables(messages),
+        messageMap,
+        new HashMap<>(),
+        variants,
+        new ArrayList<>(),
+        new HashMap<>(),
+        "{}",
+        "signature");
+    // Content is not saved in test mode.
+    Constants.isTestMode = false;
+    VarCache.saveDiffs();
+    Constants.isTestMode = true;
+
+    context = Leanplum.getContext();
+    defaults = context.getSharedPreferences(Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE);
+    aesContext = new AESCrypt(APIConfig.getInstance().appId(), APIConfig.getInstance().token());
+    // Same content as saved to the preferences by older SDK versions.
+    defaults.edit()
+        .putString(Constants.Defaults.VARIABLES_KEY,
+            aesContext.encrypt(JsonConverter.toJson(VarCache.getDiffs())))
+        .putString(Constants.Defaults.MESSAGES_KEY,
+            aesContext.encrypt(JsonConverter.toJson(VarCache.messages())))
+        .putString(Constants.Keys.VARIANTS,
+            aesContext.encrypt(JsonConverter.listToJson(variants)))
+        .apply();
+  }
+
+  @TearDown
+  public void tearDown() {
+    VarCache.reset();
+  }
+
+  @Benchmark
+  public Object fromPreferences() throws Exception {
+    VarCache.loadContentFromPreferences(defaults, aesContext);
+    return VarCache.messages();
+  }
+
+  @Benchmark
+  public Object fromSnapshot() {
+    if (!VarCache.loadContentSnapshot(context, defaults, aesContext)) {
+      throw new IllegalStateException("Content snapshot was not written");
+    }
+    return VarCache.messages();
+  }
+}
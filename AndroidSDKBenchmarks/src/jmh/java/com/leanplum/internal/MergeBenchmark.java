@@ -0,0 +1,107 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import com.leanplum.Var;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Merges diffs of a few variables into the values of an app with many variables. Run with
+ * {@code -PjmhProfilers=gc} to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MergeBenchmark {
+  private static final int VARIABLES = 5000;
+
+  @Param({"10", "500"})
+  public int changedVariables;
+
+  private Var<?>[] vars;
+  private final Map<String, Object>[] diffs = CollectionUtil.uncheckedCast(new Map[2]);
+  private int nextDiffs;
+  private int nextVar;
+
+  @Setup
+  public void setUp() {
+    BenchmarkContext.install();
+    VarCache.reset();
+    VarCache.setSilent(true);
+    vars = new Var<?>[VARIABLES];
+    for (int i = 0; i < VARIABLES; i++) {
+      vars[i] = Var.define("group" + i + ".title", "title " + i);
+      Var.define("group" + i + ".count", i);
+    }
+    for (int i = 0; i < diffs.length; i++) {
+      diffs[i] = new HashMap<>();
+      for (int j = 0; j < changedVariables; j++) {
+        int variable = j * (VARIABLES / changedVariables);
+        diffs[i].put("group" + variable, CollectionUtil.newHashMap("title", "changed " + i));
+      }
+    }
+    VarCache.applyVariableDiffs(diffs[0], null, null, null, null, null, null, null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    VarCache.reset();
+  }
+
+  /**
+   * Merges the diffs the way all values were merged before, copying every map with a diff.
+   */
+  @Benchmark
+  public Object mergeHelper() {
+    nextDiffs = (nextDiffs + 1) % diffs.length;
+    return VarCache.mergeHelper(VarCache.valuesFromClient, diffs[nextDiffs]);
+  }
+
+  /**
+   * Applies the diffs, merging them into the persistent client values.
+   */
+  @Benchmark
+  public void applyVariableDiffs() {
+    nextDiffs = (nextDiffs + 1) % diffs.length;
+    VarCache.applyVariableDiffs(diffs[nextDiffs], null, null, null, null, null, null, null);
+  }
+
+  /**
+   * Registers a variable again, merging only its path.
+   */
+  @Benchmark
+  public void registerVariable() {
+    nextVar = (nextVar + 1) % VARIABLES;
+    VarCache.registerVariable(vars[nextVar]);
+  }
+}
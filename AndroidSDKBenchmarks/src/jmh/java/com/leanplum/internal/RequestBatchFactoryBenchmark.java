@@ -0,0 +1,73 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Filters background start requests out of a batch of saved requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestBatchFactoryBenchmark {
+  @Param({"100", "10000"})
+  public int requests;
+
+  private RequestBatchFactory factory;
+  private List<Map<String, Object>> requestData;
+
+  @Setup
+  public void setUp() {
+    BenchmarkContext.install();
+    factory = new RequestBatchFactory();
+    requestData = new ArrayList<>(requests);
+    for (int i = 0; i < requests; i++) {
+      Map<String, Object> request = new HashMap<>();
+      if (i % 10 < 2) {
+        request.put(Constants.Params.ACTION, RequestBuilder.ACTION_START);
+        request.put(Constants.Params.BACKGROUND, Boolean.TRUE.toString());
+      } else {
+        request.put(Constants.Params.ACTION, RequestBuilder.ACTION_TRACK);
+        request.put(Constants.Params.EVENT, "event" + i);
+      }
+      requestData.add(request);
+    }
+  }
+
+  @Benchmark
+  public List<Map<String, Object>> removeIrrelevantBackgroundStartRequests() {
+    return factory.removeIrrelevantBackgroundStartRequests(requestData);
+  }
+}
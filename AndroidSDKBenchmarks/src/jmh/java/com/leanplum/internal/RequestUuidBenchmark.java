@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.leanplum.Leanplum;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Attaches the uuid to request arguments with the uuid kept in memory, and with the uuid read from
+ * shared prefs for every request as before. The event count query of the previous implementation
+ * is not included, because SQLite doesn't run on the JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestUuidBenchmark {
+  private final RequestUuidHelper uuidHelper = new RequestUuidHelper();
+
+  @Setup
+  public void setUp() throws ReflectiveOperationException {
+    BenchmarkContext.install();
+    RequestUuidHelper.clearCache();
+    // Count of stored events that doesn't start a new batch.
+    Field eventsCount = LeanplumEventDataManager.class.getDeclaredField("eventsCount");
+    eventsCount.setAccessible(true);
+    eventsCount.setLong(LeanplumEventDataManager.sharedInstance(), 1);
+    uuidHelper.saveNewUuid(Leanplum.getContext());
+  }
+
+  @Benchmark
+  public Map<String, Object> attachUuid() {
+    Map<String, Object> args = new HashMap<>();
+    uuidHelper.attachUuid(args);
+    return args;
+  }
+
+  @Benchmark
+  public Map<String, Object> attachUuidFromPreferences() {
+    Map<String, Object> args = new HashMap<>();
+    SharedPreferences prefs = Leanplum.getContext().getSharedPreferences(
+        Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE);
+    args.put(Constants.Params.UUID, prefs.getString(Constants.Defaults.UUID_KEY, null));
+    return args;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Saves content when nothing changed and when only the diffs changed. Only changed sections are
+ * written, see {@link VarCache#getLastSaveBytesWritten()}. Applying the diffs is included in the
+ * time of {@link #diffsChanged()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SaveDiffsBenchmark {
+  @Param({"10", "500"})
+  public int messages;
+
+  private Map<String, Object> diffs;
+  private int changes;
+
+  @Setup
+  public void setUp() {
+    BenchmarkContext.install();
+    APIConfig.getInstance().setAppId("app_benchmark", "dev_benchmark");
+    APIConfig.getInstance().setToken("token_benchmark");
+    VarCache.reset();
+    VarCache.setSilent(true);
+
+    Map<String, Object> messageMap = new HashMap<>();
+    for (int i = 0; i < messages; i++) {
+      Map<String, Object> message = new HashMap<>();
+      message.put("action", "Center Popup");
+      message.put("priority", i);
+      message.put("vars", CollectionUtil.newHashMap(
+          "Title", CollectionUtil.newHashMap("Text", "Title " + i, "Color", -16777216),
+          "Message", CollectionUtil.newHashMap("Text", "Message " + i, "Color", -16777216)));
+      messageMap.put(String.valueOf(1000000 + i), message);
+    }
+    diffs = JsonConverterBenchmark.createVariables(messages);
+    VarCache.applyVariableDiffs(diffs, messageMap, new HashMap<>(), new ArrayList<>(),
+        new ArrayList<>(), new HashMap<>(), "{}", "signature");
+    // Content is not saved in test mode.
+    Constants.isTestMode = false;
+    VarCache.saveDiffs();
+  }
+
+  @TearDown
+  public void tearDown() {
+    Constants.isTestMode = true;
+    VarCache.reset();
+  }
+
+  @Benchmark
+  public long unchanged() {
+    VarCache.saveDiffs();
+    return VarCache.getLastSaveBytesWritten();
+  }
+
+  @Benchmark
+  public long diffsChanged() {
+    diffs.put("changed", changes++);
+    VarCache.applyVariableDiffs(diffs, null, null, null, null, null, null, null);
+    VarCache.saveDiffs();
+    return VarCache.getLastSaveBytesWritten();
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Merges server diffs into client defaults and looks up variables by their names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VarCacheBenchmark {
+  private static final String[] NAMES = {
+      "simple",
+      "group.subgroup.name",
+      "list[3].title",
+      "group.with\\.escaped\\.dots.name",
+      "a.b.c.d.e.f.g.h",
+  };
+
+  @Param({"10", "1000"})
+  public int variables;
+
+  private Map<String, Object> defaults;
+  private Map<String, Object> diffs;
+
+  @Setup
+  public void setUp() {
+    BenchmarkContext.install();
+    defaults = JsonConverterBenchmark.createVariables(variables);
+    diffs = new HashMap<>();
+    // Server overrides every tenth variable.
+    for (int i = 0; i < variables; i += 10) {
+      Map<String, Object> group = new HashMap<>();
+      group.put("title", "Changed title " + i);
+      group.put("count", -i);
+      diffs.put("group" + i, group);
+    }
+  }
+
+  @Benchmark
+  public Object mergeHelper() {
+    return VarCache.mergeHelper(defaults, diffs);
+  }
+
+  @Benchmark
+  public int getNameComponents() {
+    int count = 0;
+    for (String name : NAMES) {
+      count += VarCache.getNameComponents(name).length;
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int varPathGet() {
+    int count = 0;
+    for (String name : NAMES) {
+      if (VarPath.of(name).get(defaults) != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import com.leanplum.Var;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Reads merged variable values, as UI thread does when resolving resources, while content
+ * updates are applied on another thread.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VarCacheContentionBenchmark {
+  private static final int VARIABLES = 1000;
+
+  private VarPath[] paths;
+  private final Map<String, Object>[] diffs = CollectionUtil.uncheckedCast(new Map[2]);
+  private int nextDiffs;
+
+  @Setup
+  public void setUp() {
+    BenchmarkContext.install();
+    VarCache.reset();
+    VarCache.setSilent(true);
+    paths = new VarPath[VARIABLES];
+    for (int i = 0; i < VARIABLES; i++) {
+      Var.define("group" + i + ".title", "title " + i);
+      paths[i] = VarPath.of("group" + i + ".title");
+    }
+    for (int i = 0; i < diffs.length; i++) {
+      diffs[i] = new HashMap<>();
+      for (int j = 0; j < VARIABLES; j += 10) {
+        diffs[i].put("group" + j, CollectionUtil.newHashMap("title", "changed " + i));
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    VarCache.reset();
+  }
+
+  @Benchmark
+  @Group("contention")
+  @GroupThreads(3)
+  public Object read() {
+    return VarCache.getMergedValue(paths[ThreadLocalRandom.current().nextInt(VARIABLES)]);
+  }
+
+  @Benchmark
+  @Group("contention")
+  @GroupThreads(1)
+  public void update() {
+    nextDiffs = (nextDiffs + 1) % diffs.length;
+    VarCache.applyVariableDiffs(diffs[nextDiffs], null, null, null, null, null, null, null);
+  }
+}
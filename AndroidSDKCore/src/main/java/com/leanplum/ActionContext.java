@@ -40,6 +40,7 @@ import com.leanplum.internal.LeanplumInternal;
 import com.leanplum.internal.Log;
 import com.leanplum.internal.OperationQueue;
 import com.leanplum.internal.VarCache;
+import com.leanplum.internal.VarPath;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -205,8 +206,7 @@ public class ActionContext extends BaseActionContext implements Comparable<Actio
           }
         }
       }
-      return VarCache.getMergedValueFromComponentArray(
-          VarCache.getNameComponents(name), args);
+      return VarPath.of(name).get(args);
     } catch (Throwable t) {
       Log.exception(t);
       return null;
@@ -61,6 +61,7 @@ import com.leanplum.internal.RequestUtil;
 import com.leanplum.internal.Util;
 import com.leanplum.internal.Util.DeviceIdInfo;
 import com.leanplum.internal.VarCache;
+import com.leanplum.internal.http.NetworkOperation;
 import com.leanplum.messagetemplates.MessageTemplates;
 import com.leanplum.migration.MigrationManager;
 import com.leanplum.migration.model.MigrationConfig;
@@ -79,6 +80,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 import androidx.annotation.VisibleForTesting;
 
@@ -238,6 +240,7 @@ public class Leanplum {
     Constants.isDevelopmentModeEnabled = true;
     APIConfig.getInstance().setAppId(appId, accessKey);
     MigrationConfig.setAppId(appId);
+    VarCache.preloadDiffs(context);
   }
 
   /**
@@ -260,6 +263,7 @@ public class Leanplum {
     Constants.isDevelopmentModeEnabled = false;
     APIConfig.getInstance().setAppId(appId, accessKey);
     MigrationConfig.setAppId(appId);
+    VarCache.preloadDiffs(context);
   }
 
   /**
@@ -411,6 +415,7 @@ public class Leanplum {
     }
     Leanplum.context = context;
     MigrationManager.updateWrapper(); // init with StaticMethodsWrapper if migrating
+    VarCache.preloadDiffs(context);
   }
 
   /**
@@ -638,9 +643,10 @@ public class Leanplum {
       }
 
       APIConfig.getInstance(); // load prefs
-      VarCache.setSilent(true);
-      VarCache.loadDiffs();
-      VarCache.setSilent(false);
+      final boolean loadContentAsync = VarCache.isAsyncLoadEnabled();
+      if (!loadContentAsync) {
+        loadSavedContent();
+      }
       LeanplumInbox.getInstance().load();
 
       // Setup class members.
@@ -668,6 +674,9 @@ public class Leanplum {
         @Override
         public void run() {
           try {
+            if (loadContentAsync) {
+              loadSavedContent();
+            }
             startHelper(userId, validAttributes, actuallyInBackground);
           } catch (Throwable t) {
             Log.exception(t);
@@ -680,6 +689,15 @@ public class Leanplum {
     }
   }
 
+  /**
+   * Loads variables and messages saved on the device, without triggering callbacks.
+   */
+  private static void loadSavedContent() {
+    VarCache.setSilent(true);
+    VarCache.loadDiffs();
+    VarCache.setSilent(false);
+  }
+
   /**
    * Checks for leanplum notifications modules and if someone present - invoke onStart method.
    */
@@ -1027,7 +1045,7 @@ public class Leanplum {
   private static void applyContentInResponse(JSONObject response) {
     Map<String, Object> values = JsonConverter.mapFromJson(
         response.optJSONObject(Constants.Keys.VARS));
-    Map<String, Object> messages = JsonConverter.mapFromJsonOrDefault(
+    Map<String, Object> messages = VarCache.messagesFromJson(
         response.optJSONObject(Constants.Keys.MESSAGES));
     Map<String, Object> regions = JsonConverter.mapFromJsonOrDefault(
         response.optJSONObject(Constants.Keys.REGIONS));
@@ -1095,6 +1113,13 @@ public class Leanplum {
         .andType(RequestType.IMMEDIATE)
         .create();
     RequestSender.getInstance().send(request);
+    // Persist buffered events in case the app process is killed while in background.
+    OperationQueue.sharedInstance().addOperation(new Runnable() {
+      @Override
+      public void run() {
+        LeanplumEventDataManager.sharedInstance().flush();
+      }
+    });
     stopRequestTimer();
     LeanplumInternal.setIsPaused(true);
   }
@@ -1287,6 +1312,53 @@ public class Leanplum {
     }
   }
 
+  /**
+   * Optional. Loads variables and messages saved on the device on a background thread, instead of
+   * the thread calling {@link #start}. Reading starts once both the application context and the
+   * app id are set, so this must be called before {@link #setApplicationContext} and before
+   * {@link #setAppIdForProductionMode} or {@link #setAppIdForDevelopmentMode}, in either order,
+   * and before {@code super.onCreate()} of {@link LeanplumApplication}. Until saved content is
+   * loaded, variables have their default values. Use {@link #addOnceContentLoadedHandler} or
+   * {@link #awaitContentLoaded} to wait for it. Default is disabled.
+   */
+  public static void setAsyncContentLoadingEnabled(boolean enabled) {
+    VarCache.setAsyncLoadEnabled(enabled);
+  }
+
+  /**
+   * Adds a callback for when variables and messages saved on the device are loaded. Callback is
+   * called immediately if they are already loaded.
+   */
+  public static void addOnceContentLoadedHandler(VariablesChangedCallback handler) {
+    if (handler == null) {
+      Log.e("addOnceContentLoadedHandler - Invalid handler parameter provided.");
+      return;
+    }
+    VarCache.addContentLoadedHandler(handler);
+  }
+
+  /**
+   * Removes a once content loaded callback.
+   */
+  public static void removeOnceContentLoadedHandler(VariablesChangedCallback handler) {
+    if (handler == null) {
+      Log.e("removeOnceContentLoadedHandler - Invalid handler parameter provided.");
+      return;
+    }
+    VarCache.removeContentLoadedHandler(handler);
+  }
+
+  /**
+   * Blocks until variables and messages saved on the device are loaded, so {@link Var#value()}
+   * returns the saved values. Must not be called on the main thread.
+   *
+   * @return True if content is loaded, false if the timeout elapsed first.
+   */
+  public static boolean awaitContentLoaded(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    return VarCache.awaitContentLoaded(timeout, unit);
+  }
+
   /**
    * Removes a variables changed callback.
    */
@@ -2202,7 +2274,7 @@ public class Leanplum {
    */
   public static Object objectForKeyPathComponents(Object[] pathComponents) {
     try {
-      return VarCache.getMergedValueFromComponentArray(pathComponents);
+      return VarCache.toHashMaps(VarCache.getMergedValueFromComponentArray(pathComponents));
     } catch (Throwable t) {
       Log.exception(t);
     }
@@ -2375,6 +2447,59 @@ public class Leanplum {
     }
   }
 
+  /**
+   * Optional. Sets how tracked events are buffered before they are written to disk. Events are
+   * written in a single transaction once maxEvents are buffered or maxDelayMillis have passed,
+   * and always before events are uploaded or the app is paused.
+   * Default is 50 events or 1000 milliseconds.
+   *
+   * @param maxEvents Maximum number of buffered events, 1 disables buffering.
+   * @param maxDelayMillis Maximum time in milliseconds an event stays in memory.
+   */
+  public static void setEventsBufferPolicy(int maxEvents, long maxDelayMillis) {
+    if (maxEvents < 1) {
+      Log.i("setEventsBufferPolicy - Invalid maxEvents parameter provided.");
+      return;
+    }
+    if (maxDelayMillis < 0) {
+      Log.i("setEventsBufferPolicy - Invalid maxDelayMillis parameter provided.");
+      return;
+    }
+    LeanplumEventDataManager.setWriteBufferPolicy(maxEvents, maxDelayMillis);
+  }
+
+  /**
+   * Optional. Sets how many batches of saved events can be uploaded at the same time, when there
+   * are more events than fit in one API call, e.g. after the device was offline. Batches are
+   * still acknowledged in order, and uploading falls back to one batch at a time when the server
+   * is overloaded. Default is 1.
+   *
+   * @param maxBatchesInFlight Maximum number of concurrent uploads, 1 disables pipelining.
+   */
+  public static void setEventsUploadConcurrency(int maxBatchesInFlight) {
+    if (maxBatchesInFlight < 1) {
+      Log.i("setEventsUploadConcurrency - Invalid maxBatchesInFlight parameter provided.");
+      return;
+    }
+    RequestSender.getInstance().setMaxBatchesInFlight(maxBatchesInFlight);
+  }
+
+  /**
+   * Optional. Enables gzip compression of uploaded events. Only uploads with a body of at least
+   * minBodyBytes are compressed, so small requests are not slowed down. Disabled by default.
+   *
+   * @param enabled Whether to compress uploaded events.
+   * @param minBodyBytes Minimal size of the uncompressed body in bytes.
+   */
+  public static void setEventsUploadCompression(boolean enabled, int minBodyBytes) {
+    if (minBodyBytes < 0) {
+      Log.i("setEventsUploadCompression - Invalid minBodyBytes parameter provided.");
+      return;
+    }
+    RequestSender.getInstance().setGzipThreshold(
+        enabled ? minBodyBytes : NetworkOperation.NO_COMPRESSION);
+  }
+
   /**
    * Enable or disable push delivery tracking. It is enabled by default.
    */
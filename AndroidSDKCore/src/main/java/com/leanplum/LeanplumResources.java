@@ -58,33 +58,35 @@ public class LeanplumResources extends Resources {
       if (FileManager.resources == null) {
         return null;
       }
-      HashMap<String, Object> resourceValues = CollectionUtil.uncheckedCast(FileManager.resources
-          .objectForKeyPath());
+      // Merged values are persistent maps, so they are only read as maps.
+      Map<String, Object> resourceValues = VarCache.getMergedValueFromComponentArray(
+          new Object[] {Constants.Values.RESOURCES_VARIABLE});
+      if (resourceValues == null) {
+        return null;
+      }
       Map<String, String> eligibleFolders = new HashMap<>();
-      synchronized (VarCache.valuesFromClient) {
-        for (String folder : resourceValues.keySet()) {
-          if (!folder.toLowerCase().startsWith(type)) {
-            continue;
+      for (String folder : resourceValues.keySet()) {
+        if (!folder.toLowerCase().startsWith(type)) {
+          continue;
+        }
+        Map<String, Object> files = CollectionUtil.uncheckedCast(resourceValues.get(folder));
+        String eligibleFile = null;
+        for (String filename : files.keySet()) {
+          String currentName = filename.replace("\\.", ".");
+          // Get filename without extension.
+          int dotPos = currentName.lastIndexOf('.');
+          if (dotPos >= 0) {
+            currentName = currentName.substring(0, dotPos);
           }
-          HashMap<String, Object> files = CollectionUtil.uncheckedCast(resourceValues.get(folder));
-          String eligibleFile = null;
-          for (String filename : files.keySet()) {
-            String currentName = filename.replace("\\.", ".");
-            // Get filename without extension.
-            int dotPos = currentName.lastIndexOf('.');
-            if (dotPos >= 0) {
-              currentName = currentName.substring(0, dotPos);
-            }
 
-            if (currentName.equals(name)) {
-              eligibleFile = filename;
-            }
+          if (currentName.equals(name)) {
+            eligibleFile = filename;
           }
-          if (eligibleFile == null) {
-            continue;
-          }
-          eligibleFolders.put(folder, eligibleFile);
         }
+        if (eligibleFile == null) {
+          continue;
+        }
+        eligibleFolders.put(folder, eligibleFile);
       }
 
       Map<String, ResourceQualifiers> folderQualifiers = new HashMap<>();
@@ -130,10 +132,8 @@ public class LeanplumResources extends Resources {
       }
 
       // Return result.
-      if (!eligibleFolders.isEmpty()) {
-        String folder = eligibleFolders.entrySet().iterator().next().getValue();
-        String varName = Constants.Values.RESOURCES_VARIABLE + "." + folder
-            + "." + eligibleFolders.get(folder);
+      String varName = overrideResourceName(eligibleFolders);
+      if (varName != null) {
         return VarCache.getVariable(varName);
       }
     } catch (Exception e) {
@@ -142,6 +142,19 @@ public class LeanplumResources extends Resources {
     return null;
   }
 
+  /**
+   * @param eligibleFolders File name of the resource, by folder.
+   * @return Name of the resource variable in the first folder, or null if there is no folder.
+   */
+  /* internal */
+  static String overrideResourceName(Map<String, String> eligibleFolders) {
+    if (eligibleFolders.isEmpty()) {
+      return null;
+    }
+    Map.Entry<String, String> entry = eligibleFolders.entrySet().iterator().next();
+    return Constants.Values.RESOURCES_VARIABLE + "." + entry.getKey() + "." + entry.getValue();
+  }
+
   @Override
   public Drawable getDrawable(int id) throws NotFoundException {
     try {
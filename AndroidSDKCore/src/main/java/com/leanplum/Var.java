@@ -24,6 +24,7 @@ package com.leanplum;
 import android.text.TextUtils;
 
 import com.leanplum.callbacks.VariableCallback;
+import com.leanplum.internal.CollectionUtil;
 import com.leanplum.internal.Constants;
 import com.leanplum.internal.FileManager;
 import com.leanplum.internal.FileManager.DownloadFileResult;
@@ -32,6 +33,7 @@ import com.leanplum.internal.Log;
 import com.leanplum.internal.OperationQueue;
 import com.leanplum.internal.Util;
 import com.leanplum.internal.VarCache;
+import com.leanplum.internal.VarPath;
 
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -48,11 +50,13 @@ import java.util.Map;
  */
 public class Var<T> {
   private String name;
+  private VarPath path;
   private String[] nameComponents;
   public String stringValue;
   private Double numberValue;
   private T defaultValue;
   private T value;
+  private Object mergedValue;
   private String kind;
   private final List<VariableCallback<T>> fileReadyHandlers = new ArrayList<>();
   private final List<VariableCallback<T>> valueChangedHandlers = new ArrayList<>();
@@ -98,7 +102,8 @@ public class Var<T> {
     Var<T> var = new Var<>();
     try {
       var.name = name;
-      var.nameComponents = VarCache.getNameComponents(name);
+      var.path = VarPath.of(name);
+      var.nameComponents = var.path.components();
       var.defaultValue = defaultValue;
       var.value = defaultValue;
       var.kind = kind;
@@ -365,7 +370,12 @@ public class Var<T> {
     //data = null;
 
     T oldValue = value;
-    value = VarCache.getMergedValueFromComponentArray(nameComponents);
+    // Merged values share unchanged subtrees, so only copy a dictionary when it was replaced.
+    Object merged = VarCache.getMergedValue(path);
+    if (merged == null || merged != mergedValue) {
+      value = CollectionUtil.uncheckedCast(VarCache.toHashMaps(merged));
+      mergedValue = merged;
+    }
     if (value == null && oldValue == null) {
       return;
     }
@@ -529,8 +539,8 @@ public class Var<T> {
       if (keys != null && keys.length > 0) {
         Collections.addAll(components, keys);
       }
-      return VarCache.getMergedValueFromComponentArray(
-          components.toArray(new Object[components.size()]));
+      return VarCache.toHashMaps(VarCache.getMergedValueFromComponentArray(
+          components.toArray(new Object[components.size()])));
     } catch (Throwable t) {
       Log.exception(t);
       return null;
@@ -545,7 +555,7 @@ public class Var<T> {
   public int count() {
     try {
       warnIfNotStarted();
-      Object result = VarCache.getMergedValueFromComponentArray(nameComponents);
+      Object result = VarCache.getMergedValue(path);
       if (result instanceof List) {
         return ((List<?>) result).size();
       }
@@ -101,6 +101,7 @@ fun ActionManager.getActionDefinitionMap(actionName: String?): Map<String, Any?>
 
 fun ActionManager.defineAction(definition: ActionDefinition) {
   definitions.addDefinition(definition)
+  VarCache.onActionDefined(definition.name, definition.definitionMap)
 }
 
 fun ActionManager.setDevModeActionDefinitionsFromServer(serverDefs: Map<String, Any?>?) {
@@ -25,6 +25,7 @@ import android.content.SharedPreferences;
 import android.util.Pair;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -38,6 +39,7 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -114,6 +116,7 @@ public class AESCrypt {
 
   private final String appId;
   private final String token;
+  private SecretKey appIdKey;
 
   /**
    * Creates an AESCrypt encryption context.
@@ -129,6 +132,17 @@ public class AESCrypt {
     return APP_ID_KEY_PREFIX + appId + APP_ID_KEY_SUFFIX;
   }
 
+  /**
+   * Derives the key of the app id once, since the key derivation takes much longer than
+   * encrypting the content with it.
+   */
+  private synchronized SecretKey appIdKey() {
+    if (appIdKey == null) {
+      appIdKey = deriveKey(appIdKeyPassword());
+    }
+    return appIdKey;
+  }
+
   /**
    * Creates a ciphertext using a password based on current context parameters.
    *
@@ -144,7 +158,7 @@ public class AESCrypt {
       Log.e("Encrypt called with null appId.");
       return null;
     }
-    String cipherText = encryptInternal(appIdKeyPassword(), plaintext);
+    String cipherText = encryptInternal(appIdKey(), plaintext);
     if (cipherText == null) {
       Log.d("Failed to encrypt.");
       return null;
@@ -156,6 +170,60 @@ public class AESCrypt {
     return EncryptionType.APP_ID_KEY.prefix + cipherText;
   }
 
+  /**
+   * Encrypts bytes with the same password as {@link #encrypt(String)}, without encoding the result
+   * as text.
+   *
+   * @return Encrypted bytes, or null if encryption fails.
+   */
+  public byte[] encryptBytes(byte[] plaintext) {
+    if (appId == null || appId.isEmpty()) {
+      Log.e("Encrypt called with null appId.");
+      return null;
+    }
+    return performCryptOperation(Cipher.ENCRYPT_MODE, appIdKey(), plaintext);
+  }
+
+  /**
+   * Decrypts bytes encrypted with {@link #encryptBytes(byte[])}.
+   *
+   * @return Decrypted bytes, or null if the bytes can't be decrypted.
+   */
+  public byte[] decryptBytes(byte[] cipherText) {
+    if (appId == null || appId.isEmpty()) {
+      Log.e("Decrypt called with null appId.");
+      return null;
+    }
+    return performCryptOperation(Cipher.DECRYPT_MODE, appIdKey(), cipherText);
+  }
+
+  /**
+   * Decrypts the remaining bytes of the buffer, encrypted with {@link #encryptBytes(byte[])},
+   * without copying them to an array first.
+   *
+   * @return Decrypted bytes, or null if the bytes can't be decrypted.
+   */
+  public ByteBuffer decryptBytes(ByteBuffer cipherText) {
+    if (appId == null || appId.isEmpty()) {
+      Log.e("Decrypt called with null appId.");
+      return null;
+    }
+    Cipher cipher = createCipher(Cipher.DECRYPT_MODE, appIdKey());
+    if (cipher == null) {
+      return null;
+    }
+    try {
+      ByteBuffer result = ByteBuffer.allocate(cipher.getOutputSize(cipherText.remaining()));
+      cipher.doFinal(cipherText, result);
+      result.flip();
+      return result;
+    } catch (ShortBufferException e) {
+    } catch (IllegalBlockSizeException e) {
+    } catch (BadPaddingException e) {
+    }
+    return null;
+  }
+
   public String decodePreference(SharedPreferences preferences, String key, String defaultValue) {
     String cipherText = preferences.getString(key, null);
     if (cipherText == null) {
@@ -201,7 +269,7 @@ public class AESCrypt {
           if (appId == null || appId.isEmpty()) {
             Log.e("Decrypt called with null appId.");
           } else {
-            result = decryptInternal(appIdKeyPassword(), encryptionSpec.second);
+            result = decryptInternal(appIdKey(), encryptionSpec.second);
           }
           break;
       }
@@ -217,8 +285,12 @@ public class AESCrypt {
    */
   // VisibleForTesting
   public static String encryptInternal(String password, String plaintext) {
+    return encryptInternal(deriveKey(password), plaintext);
+  }
+
+  private static String encryptInternal(SecretKey key, String plaintext) {
     try {
-      return Arrays.toString(performCryptOperation(Cipher.ENCRYPT_MODE, password,
+      return Arrays.toString(performCryptOperation(Cipher.ENCRYPT_MODE, key,
           plaintext.getBytes("UTF-8")));
     } catch (UnsupportedEncodingException e) {
       Log.d("Unable to encrypt " + plaintext, e);
@@ -254,13 +326,17 @@ public class AESCrypt {
    * Arrays.toString().
    */
   private static String decryptInternal(String password, String ciphertext) {
+    return decryptInternal(deriveKey(password), ciphertext);
+  }
+
+  private static String decryptInternal(SecretKey key, String ciphertext) {
     try {
       byte[] bytes = parseCiphertextInternal(ciphertext);
       if (bytes == null) {
         Log.d("Invalid ciphertext: " + ciphertext);
         return null;
       }
-      byte[] byteResult = performCryptOperation(Cipher.DECRYPT_MODE, password, bytes);
+      byte[] byteResult = performCryptOperation(Cipher.DECRYPT_MODE, key, bytes);
       if (byteResult != null) {
         return new String(byteResult, "UTF-8");
       }
@@ -276,36 +352,62 @@ public class AESCrypt {
    * null.
    *
    * @param mode Should be either Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
-   * @param password The password to crypt.
+   * @param key The key from {@link #deriveKey(String)}.
    * @param text The text to crypt.
    * @return The result of the crypt.
    */
-  private static byte[] performCryptOperation(int mode, String password, byte[] text) {
+  private static byte[] performCryptOperation(int mode, SecretKey key, byte[] text) {
+    Cipher cipher = createCipher(mode, key);
+    if (cipher == null) {
+      return null;
+    }
     byte[] result = null;
+    try {
+      result = cipher.doFinal(text);
+    } catch (IllegalBlockSizeException e) {
+      // Don't log exceptions; we have more useful warning logs when this returns null.
+    } catch (BadPaddingException e) {
+    }
+    return result;
+  }
+
+  /**
+   * Derives the AES key of the password. In case of exception, returns null.
+   */
+  private static SecretKey deriveKey(String password) {
     try {
       byte[] SALT = Constants.Crypt.SALT.getBytes("UTF-8");
-      byte[] IV = Constants.Crypt.IV.getBytes("UTF-8");
       KeySpec keySpec = new PBEKeySpec(password.toCharArray(), SALT, Constants.Crypt.ITER_COUNT,
           Constants.Crypt.KEY_LENGTH);
       SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithMD5And128BitAES-CBC-OpenSSL");
       byte[] keyBytes = keyFactory.generateSecret(keySpec).getEncoded();
-      SecretKey key = new SecretKeySpec(keyBytes, "AES");
+      return new SecretKeySpec(keyBytes, "AES");
+    } catch (NoSuchAlgorithmException e) {
+    } catch (UnsupportedEncodingException e) {
+    } catch (InvalidKeySpecException e) {
+    }
+    return null;
+  }
 
+  /**
+   * Creates a cipher initialized with the key. In case of exception, returns null.
+   */
+  private static Cipher createCipher(int mode, SecretKey key) {
+    if (key == null) {
+      return null;
+    }
+    try {
+      byte[] IV = Constants.Crypt.IV.getBytes("UTF-8");
       Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
       IvParameterSpec ivParams = new IvParameterSpec(IV);
       cipher.init(mode, key, ivParams);
-
-      result = cipher.doFinal(text);
+      return cipher;
     } catch (InvalidKeyException e) {
-      // Don't log exceptions; we have more useful warning logs when this returns null.
     } catch (NoSuchAlgorithmException e) {
     } catch (NoSuchPaddingException e) {
     } catch (InvalidAlgorithmParameterException e) {
-    } catch (IllegalBlockSizeException e) {
-    } catch (BadPaddingException e) {
     } catch (UnsupportedEncodingException e) {
-    } catch (InvalidKeySpecException e) {
     }
-    return result;
+    return null;
   }
 }
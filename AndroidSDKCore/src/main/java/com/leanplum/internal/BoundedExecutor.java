@@ -0,0 +1,129 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import androidx.annotation.NonNull;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor with a fixed number of named threads. Operations beyond the thread count wait in an
+ * unbounded queue instead of starting new threads, so the thread count does not grow under load.
+ * Operations are started in the order they are added, but with more than one thread they may run
+ * concurrently.
+ */
+public class BoundedExecutor {
+  private final ThreadPoolExecutor executor;
+  private final int threadCount;
+
+  public BoundedExecutor(@NonNull String name, int threadCount) {
+    this.threadCount = threadCount;
+    this.executor = new ThreadPoolExecutor(
+        threadCount,
+        threadCount,
+        30,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new NamedThreadFactory(name));
+    // Idle threads are stopped, they are started again up to threadCount when needed.
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  public void execute(Runnable operation) {
+    if (operation != null) {
+      executor.execute(operation);
+    }
+  }
+
+  public <T> Future<T> submit(@NonNull Callable<T> operation) {
+    return executor.submit(operation);
+  }
+
+  /**
+   * Lets the added operations finish and stops the threads. Operations added later are rejected.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * Runs all operations one after another in a single task, in list order. An exception thrown by
+   * one operation is logged and does not stop the rest.
+   */
+  public void executeAll(final List<Runnable> operations) {
+    if (operations == null || operations.isEmpty()) {
+      return;
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        for (Runnable operation : operations) {
+          try {
+            operation.run();
+          } catch (Throwable t) {
+            Log.exception(t);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * @return Number of tasks waiting for a free thread.
+   */
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * @return Number of tasks currently running.
+   */
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    NamedThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(@NonNull Runnable runnable) {
+      Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
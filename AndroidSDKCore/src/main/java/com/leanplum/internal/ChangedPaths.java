@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Key paths that differ between two merged variable dictionaries, kept as a tree of path
+ * components. Subtrees that are the same instance in both dictionaries are not compared, so the
+ * work is proportional to the parts that were merged again rather than to all variables.
+ */
+final class ChangedPaths {
+  private final Map<Object, ChangedPaths> children = new HashMap<>();
+  private boolean changed;
+
+  private ChangedPaths() {
+  }
+
+  /**
+   * Compares two merged dictionaries.
+   *
+   * @param oldValues Dictionary before the merge.
+   * @param newValues Dictionary after the merge.
+   * @return Paths whose values differ.
+   */
+  static ChangedPaths between(Object oldValues, Object newValues) {
+    ChangedPaths root = new ChangedPaths();
+    root.compare(oldValues, newValues);
+    return root;
+  }
+
+  private void compare(Object oldValue, Object newValue) {
+    if (oldValue == newValue) {
+      return;
+    }
+    if (oldValue instanceof Map && newValue instanceof Map) {
+      Map<?, ?> oldMap = (Map<?, ?>) oldValue;
+      Map<?, ?> newMap = (Map<?, ?>) newValue;
+      for (Map.Entry<?, ?> entry : newMap.entrySet()) {
+        compareChild(entry.getKey(), oldMap.get(entry.getKey()), entry.getValue());
+      }
+      for (Map.Entry<?, ?> entry : oldMap.entrySet()) {
+        if (!newMap.containsKey(entry.getKey())) {
+          compareChild(entry.getKey(), entry.getValue(), null);
+        }
+      }
+    } else if (oldValue == null || !oldValue.equals(newValue)) {
+      changed = true;
+    }
+  }
+
+  private void compareChild(Object key, Object oldValue, Object newValue) {
+    if (oldValue == newValue) {
+      return;
+    }
+    ChangedPaths child = new ChangedPaths();
+    child.compare(oldValue, newValue);
+    if (child.changed || !child.children.isEmpty()) {
+      children.put(key, child);
+    }
+  }
+
+  /**
+   * @return Whether no values differ.
+   */
+  boolean isEmpty() {
+    return !changed && children.isEmpty();
+  }
+
+  /**
+   * Checks whether value at the given path may have changed, that is whether the path itself, one
+   * of its ancestors or one of its descendants changed.
+   *
+   * @param components Components of the path.
+   * @return Whether value at the path may have changed.
+   */
+  boolean affects(Object[] components) {
+    ChangedPaths node = this;
+    for (Object component : components) {
+      if (node.changed) {
+        return true;
+      }
+      node = node.children.get(component);
+      if (node == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -66,9 +66,12 @@ public class Constants {
     public static final String COUNT_KEY = "__leanplum_unsynced";
     public static final String ITEM_KEY = "__leanplum_unsynced_%d";
     public static final String UUID_KEY = "__leanplum_uuid";
+    public static final String RETRY_ATTEMPTS_KEY = "__leanplum_retry_attempts";
+    public static final String NEXT_RETRY_KEY = "__leanplum_next_retry";
     public static final String VARIABLES_KEY = "__leanplum_variables";
     public static final String VARIABLES_JSON_KEY = "__leanplum_variables_json";
     public static final String VARIABLES_SIGN_KEY = "__leanplum_variables_signature";
+    public static final String CONTENT_SECTION_HASH_KEY = "__leanplum_content_%s_hash";
     public static final String ATTRIBUTES_KEY = "__leanplum_attributes";
     public static final String TOKEN_KEY = "__leanplum_token";
     public static final String API_HOST_KEY = "__leanplum_api_host";
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash of named content that doesn't depend on the order of the entries. Putting an entry updates
+ * the hash without hashing the other entries again.
+ */
+final class ContentHash {
+  private final Map<String, Long> entries = new HashMap<>();
+  private long value;
+
+  /**
+   * Sets the hash of the entry, replacing the previous hash of an entry with the same key.
+   */
+  synchronized void put(String key, int contentHash) {
+    long entry = mix(((long) String.valueOf(key).hashCode() << 32) ^ (contentHash & 0xFFFFFFFFL));
+    Long previous = entries.put(key, entry);
+    if (previous != null) {
+      value -= previous;
+    }
+    value += entry;
+  }
+
+  synchronized long value() {
+    return value;
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    value = 0;
+  }
+
+  /**
+   * Spreads the bits of the entry, so that sums of different entries rarely collide.
+   */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB53FE1A85EC3L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Content saved by {@link VarCache#saveDiffs()}. It is read with memory mapped buffers, without
+ * parsing JSON, which makes loading content on cold start much faster. The content is still saved
+ * to the encrypted preferences too, for older SDK versions and for when the snapshot is missing or
+ * can't be read. The preferences keep the hashes of the saved sections, so sections of another
+ * save are not used.
+ * <p>
+ * Each section of the content, for example the diffs or the messages, is saved to its own file,
+ * so a save only writes the sections that changed. A section file starts with a header with the
+ * format version, hash of the app id and hash of the section value, followed by the value
+ * encrypted with {@link AESCrypt#encryptBytes}, the same way as the preferences. Values are
+ * written as a type tag and the value, maps and lists as the number of entries and the
+ * entries. Maps that were not parsed yet, see {@link LazyMap}, are written as their JSON text and
+ * are read back without parsing it.
+ */
+final class ContentSnapshot {
+  static final String DIRECTORY_NAME = "__leanplum_content";
+
+  static final String DIFFS = "diffs";
+  static final String MESSAGES = "messages";
+  static final String REGIONS = "regions";
+  static final String VARIANTS = "variants";
+  static final String LOCAL_CAPS = "localCaps";
+  static final String VARIANT_DEBUG_INFO = "variantDebugInfo";
+  static final String VARS_JSON = "varsJson";
+  static final String VARS_SIGNATURE = "varsSignature";
+  static final String[] SECTIONS = {
+      DIFFS, MESSAGES, REGIONS, VARIANTS, LOCAL_CAPS, VARIANT_DEBUG_INFO, VARS_JSON, VARS_SIGNATURE
+  };
+
+  private static final String FILE_EXTENSION = ".bin";
+  private static final int MAGIC = 0x4c50434e;
+  private static final int VERSION = 4;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final byte TYPE_NULL = 0;
+  private static final byte TYPE_FALSE = 1;
+  private static final byte TYPE_TRUE = 2;
+  private static final byte TYPE_INT = 3;
+  private static final byte TYPE_LONG = 4;
+  private static final byte TYPE_DOUBLE = 5;
+  private static final byte TYPE_STRING = 6;
+  private static final byte TYPE_MAP = 7;
+  private static final byte TYPE_LIST = 8;
+  private static final byte TYPE_JSON = 9;
+
+  /**
+   * Encoded value of a section. Sections with the same hash have the same value.
+   */
+  static final class Section {
+    final byte[] bytes;
+    final String hash;
+
+    private Section(byte[] bytes) {
+      this.bytes = bytes;
+      this.hash = sha256(bytes);
+    }
+
+    /**
+     * Encodes the value so it is read back the same as if it was written to JSON and parsed
+     * again.
+     */
+    static Section encode(@Nullable Object value) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      writeValue(out, value);
+      out.flush();
+      return new Section(bytes.toByteArray());
+    }
+  }
+
+  /**
+   * Content saved in the snapshot, by section name.
+   */
+  static final class Content {
+    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, String> hashes = new HashMap<>();
+    private String appIdHash;
+
+    /**
+     * @return Value of the section, in the same form as {@link VarCache#applyVariableDiffs} takes
+     * it.
+     */
+    <T> T get(String section) {
+      return CollectionUtil.uncheckedCast(values.get(section));
+    }
+
+    /**
+     * @return Hashes of the section values, by section name.
+     */
+    Map<String, String> getHashes() {
+      return hashes;
+    }
+
+    /**
+     * @return True if the sections have the given hashes and were written for the app id.
+     */
+    boolean belongsTo(@NonNull Map<String, String> sectionHashes, @Nullable String appId) {
+      return hashes.equals(sectionHashes) && appIdHash(appId).equals(appIdHash);
+    }
+  }
+
+  private ContentSnapshot() {
+  }
+
+  private static File sectionFile(File directory, String name) {
+    return new File(directory, name + FILE_EXTENSION);
+  }
+
+  /**
+   * Writes the section to a temporary file and renames it, so a section is never partially
+   * written.
+   *
+   * @param directory Directory of the snapshot.
+   * @param name Name of the section.
+   * @param appId App id the content belongs to.
+   * @param aesContext Encryption of the app id.
+   * @param section Section to write.
+   * @return Number of bytes written.
+   */
+  static long writeSection(@NonNull File directory, @NonNull String name, @Nullable String appId,
+      @NonNull AESCrypt aesContext, @NonNull Section section) throws IOException {
+    byte[] encrypted = aesContext.encryptBytes(section.bytes);
+    if (encrypted == null) {
+      throw new IOException("Could not encrypt content section " + name);
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create " + directory);
+    }
+    File file = sectionFile(directory, name);
+    File temp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(temp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, appIdHash(appId));
+      writeString(out, section.hash);
+      out.write(encrypted);
+    } catch (IOException | RuntimeException e) {
+      out.close();
+      temp.delete();
+      throw e;
+    }
+    out.close();
+    if (!temp.renameTo(file)) {
+      temp.delete();
+      throw new IOException("Could not rename " + temp + " to " + file);
+    }
+    return file.length();
+  }
+
+  /**
+   * Reads all sections of the snapshot, without checking which preferences they belong to. Use
+   * {@link Content#belongsTo} before using the content.
+   *
+   * @param directory Directory of the snapshot.
+   * @param aesContext Encryption the snapshot was written with. Its key is derived once and used
+   * for all sections.
+   * @return Content or null if a section file does not exist, has a different format version or
+   * can't be decrypted.
+   */
+  @Nullable
+  static Content read(@NonNull File directory, @NonNull AESCrypt aesContext) throws IOException {
+    Content content = new Content();
+    for (String name : SECTIONS) {
+      if (!readSection(sectionFile(directory, name), name, aesContext, content)) {
+        return null;
+      }
+    }
+    return content;
+  }
+
+  private static boolean readSection(File file, String name, AESCrypt aesContext,
+      Content content) throws IOException {
+    if (!file.exists()) {
+      return false;
+    }
+    ByteBuffer buffer;
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      randomAccessFile.close();
+    }
+    try {
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        return false;
+      }
+      String appIdHash = readString(buffer);
+      if (content.appIdHash == null) {
+        content.appIdHash = appIdHash;
+      } else if (!content.appIdHash.equals(appIdHash)) {
+        return false;
+      }
+      String hash = readString(buffer);
+      // Decrypts straight from the mapped file.
+      ByteBuffer decrypted = aesContext.decryptBytes(buffer);
+      if (decrypted == null) {
+        return false;
+      }
+      content.hashes.put(name, hash);
+      content.values.put(name, readValue(decrypted));
+      return true;
+    } catch (RuntimeException e) {
+      throw new IOException("Invalid content snapshot " + file, e);
+    }
+  }
+
+  private static String appIdHash(String appId) {
+    return sha256(String.valueOf(appId).getBytes(UTF_8));
+  }
+
+  private static String sha256(byte[] bytes) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = digest.digest(bytes);
+      StringBuilder result = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        result.append(Character.forDigit((b >> 4) & 0xF, 16));
+        result.append(Character.forDigit(b & 0xF, 16));
+      }
+      return result.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Sections are then never considered unchanged.
+      return UUID.randomUUID().toString();
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null || value == JSONObject.NULL) {
+      out.writeByte(TYPE_NULL);
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+    } else if (value instanceof Integer) {
+      out.writeByte(TYPE_INT);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Number) {
+      // Numbers are converted the same way as JSON converts them, for example 2.0 is read as 2.
+      Object number;
+      try {
+        number = JsonStreamReader.parseNumber(JsonStringWriter.numberToString((Number) value));
+      } catch (JSONException e) {
+        throw new IOException(e);
+      }
+      if (number instanceof Long) {
+        out.writeByte(TYPE_LONG);
+        out.writeLong((Long) number);
+      } else if (number instanceof Double) {
+        out.writeByte(TYPE_DOUBLE);
+        out.writeDouble((Double) number);
+      } else {
+        writeValue(out, number);
+      }
+    } else if (value instanceof String) {
+      out.writeByte(TYPE_STRING);
+      writeString(out, (String) value);
+    } else if (value instanceof LazyMap && ((LazyMap) value).getUnloadedJson() != null) {
+      out.writeByte(TYPE_JSON);
+      writeString(out, ((LazyMap) value).getUnloadedJson());
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      out.writeByte(TYPE_MAP);
+      out.writeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeString(out, String.valueOf(entry.getKey()));
+        writeValue(out, entry.getValue());
+      }
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      out.writeByte(TYPE_LIST);
+      out.writeInt(list.size());
+      for (Object item : list) {
+        writeValue(out, item);
+      }
+    } else if (value instanceof JSONObject) {
+      JSONObject json = (JSONObject) value;
+      out.writeByte(TYPE_MAP);
+      out.writeInt(json.length());
+      Iterator<?> keys = json.keys();
+      while (keys.hasNext()) {
+        String key = (String) keys.next();
+        writeString(out, key);
+        writeValue(out, json.opt(key));
+      }
+    } else if (value instanceof JSONArray) {
+      JSONArray json = (JSONArray) value;
+      out.writeByte(TYPE_LIST);
+      out.writeInt(json.length());
+      for (int i = 0; i < json.length(); i++) {
+        writeValue(out, json.opt(i));
+      }
+    } else {
+      throw new IOException("Unsupported content value " + value.getClass().getName());
+    }
+  }
+
+  private static Object readValue(ByteBuffer buffer) {
+    byte type = buffer.get();
+    switch (type) {
+      case TYPE_NULL:
+        return null;
+      case TYPE_FALSE:
+        return false;
+      case TYPE_TRUE:
+        return true;
+      case TYPE_INT:
+        return buffer.getInt();
+      case TYPE_LONG:
+        return buffer.getLong();
+      case TYPE_DOUBLE:
+        return buffer.getDouble();
+      case TYPE_STRING:
+        return readString(buffer);
+      case TYPE_MAP: {
+        int size = buffer.getInt();
+        Map<String, Object> map = new HashMap<>(Math.max(2 * size, 16));
+        for (int i = 0; i < size; i++) {
+          String key = readString(buffer);
+          map.put(key, readValue(buffer));
+        }
+        return map;
+      }
+      case TYPE_LIST: {
+        int size = buffer.getInt();
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(buffer));
+        }
+        return list;
+      }
+      case TYPE_JSON:
+        return LazyMap.fromJson(readString(buffer));
+      default:
+        throw new IllegalStateException("Unknown value type " + type);
+    }
+  }
+}
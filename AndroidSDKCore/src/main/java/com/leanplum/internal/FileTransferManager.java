@@ -95,7 +95,7 @@ public class FileTransferManager {
       return;
     }
 
-    OperationQueue.sharedInstance().addParallelOperation(new Runnable() {
+    OperationQueue.sharedInstance().addFileTransferOperation(new Runnable() {
       @Override
       public void run() {
         try {
@@ -256,7 +256,7 @@ public class FileTransferManager {
 
     printUploadProgress();
 
-    OperationQueue.sharedInstance().addParallelOperation(new Runnable() {
+    OperationQueue.sharedInstance().addFileTransferOperation(new Runnable() {
       @Override
       public void run() {
         synchronized (uploadFileLock) {  // Don't overload app and server with many upload tasks
@@ -27,6 +27,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -39,25 +41,44 @@ import java.util.Map;
  * @author Andrew First
  */
 public class JsonConverter {
+  /**
+   * Converts the map to JSON without building a {@link JSONObject} first. Output is the same as
+   * of {@code mapToJsonObject(map).toString()}.
+   */
   public static String toJson(Map<String, ?> map) {
     if (map == null) {
       return null;
     }
     try {
-      return mapToJsonObject(map).toString();
+      return JsonStringWriter.toJson(map);
     } catch (JSONException e) {
       Log.e("Error converting " + map + " to JSON", e);
       return null;
     }
   }
 
+  /**
+   * Converts the list to JSON without building a {@link JSONArray} first. Output is the same as
+   * of {@code listToJsonArray(list).toString()}.
+   */
+  public static String listToJson(Iterable<?> list) throws JSONException {
+    if (list == null) {
+      return null;
+    }
+    return JsonStringWriter.toJson(list);
+  }
+
+  /**
+   * Parses the JSON object directly into maps and lists, without building a {@link JSONObject}
+   * first. Result is the same as of {@code mapFromJson(new JSONObject(json))}.
+   */
   public static Map<String, Object> fromJson(String json) {
     if (json == null) {
       return null;
     }
     try {
-      return mapFromJson(new JSONObject(json));
-    } catch (JSONException e) {
+      return JsonStreamReader.readMap(new StringReader(json));
+    } catch (JSONException | IOException e) {
       Log.e("Error converting " + json + " from JSON", e);
       return null;
     }
@@ -114,22 +135,29 @@ public class JsonConverter {
     Iterator<?> keysIterator = object.keys();
     while (keysIterator.hasNext()) {
       String key = (String) keysIterator.next();
-      Object value = object.opt(key);
-      if (value == null || value == JSONObject.NULL) {
-        value = null;
-      } else if (value instanceof JSONObject) {
-        value = mapFromJson((JSONObject) value);
-      } else if (value instanceof JSONArray) {
-        value = listFromJson((JSONArray) value);
-      } else if (JSONObject.NULL.equals(value)) {
-        value = null;
-      }
-      T castedValue = CollectionUtil.uncheckedCast(value);
+      T castedValue = CollectionUtil.uncheckedCast(valueFromJson(object.opt(key)));
       result.put(key, castedValue);
     }
     return result;
   }
 
+  /**
+   * Converts value of a JSON object or array, with nested objects and arrays converted to maps
+   * and lists.
+   */
+  static Object valueFromJson(Object value) {
+    if (value == null || value == JSONObject.NULL) {
+      return null;
+    } else if (value instanceof JSONObject) {
+      return mapFromJson((JSONObject) value);
+    } else if (value instanceof JSONArray) {
+      return listFromJson((JSONArray) value);
+    } else if (JSONObject.NULL.equals(value)) {
+      return null;
+    }
+    return value;
+  }
+
   public static <T> Map<String, T> mapFromJsonOrDefault(JSONObject object) {
     if (object == null) {
       return new HashMap<>();
@@ -143,17 +171,7 @@ public class JsonConverter {
     }
     List<Object> result = new ArrayList<>(json.length());
     for (int i = 0; i < json.length(); i++) {
-      Object value = json.opt(i);
-      if (value == null || value == JSONObject.NULL) {
-        value = null;
-      } else if (value instanceof JSONObject) {
-        value = mapFromJson((JSONObject) value);
-      } else if (value instanceof JSONArray) {
-        value = listFromJson((JSONArray) value);
-      } else if (JSONObject.NULL.equals(value)) {
-        value = null;
-      }
-      result.add(value);
+      result.add(valueFromJson(json.opt(i)));
     }
     return CollectionUtil.uncheckedCast(result);
   }
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses JSON while it is read, without reading the whole text into a String first. Parsed values
+ * are the same as with org.json: integral numbers are Integer or Long, other numbers are Double.
+ * Malformed or truncated JSON throws {@link JSONException}, errors of the underlying reader throw
+ * {@link IOException}.
+ */
+public final class JsonStreamReader {
+  private JsonStreamReader() {
+  }
+
+  /**
+   * Reads JSON object into the same maps and lists as {@link JsonConverter#mapFromJson}.
+   */
+  public static Map<String, Object> readMap(Reader reader) throws JSONException, IOException {
+    try {
+      return readMap(createJsonReader(reader));
+    } catch (MalformedJsonException | EOFException | IllegalStateException e) {
+      throw parseError(e);
+    }
+  }
+
+  /**
+   * Reads JSON object into the same tree as {@code new JSONObject(new JSONTokener(json))}.
+   */
+  public static JSONObject readJsonObject(Reader reader) throws JSONException, IOException {
+    try {
+      return readJsonObject(createJsonReader(reader));
+    } catch (MalformedJsonException | EOFException | IllegalStateException e) {
+      throw parseError(e);
+    }
+  }
+
+  private static JsonReader createJsonReader(Reader reader) {
+    JsonReader jsonReader = new JsonReader(reader);
+    // org.json accepts the same relaxed syntax.
+    jsonReader.setLenient(true);
+    return jsonReader;
+  }
+
+  private static JSONException parseError(Exception e) {
+    JSONException exception = new JSONException("Unable to parse JSON: " + e.getMessage());
+    exception.initCause(e);
+    return exception;
+  }
+
+  private static Map<String, Object> readMap(JsonReader reader) throws IOException {
+    Map<String, Object> map = new HashMap<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      map.put(name, readValue(reader));
+    }
+    reader.endObject();
+    return map;
+  }
+
+  private static List<Object> readList(JsonReader reader) throws IOException {
+    List<Object> list = new ArrayList<>();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      list.add(readValue(reader));
+    }
+    reader.endArray();
+    return list;
+  }
+
+  private static Object readValue(JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        return readMap(reader);
+      case BEGIN_ARRAY:
+        return readList(reader);
+      case NULL:
+        reader.nextNull();
+        return null;
+      default:
+        return readPrimitive(reader);
+    }
+  }
+
+  private static JSONObject readJsonObject(JsonReader reader) throws IOException, JSONException {
+    JSONObject object = new JSONObject();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      object.put(name, readJsonValue(reader));
+    }
+    reader.endObject();
+    return object;
+  }
+
+  private static JSONArray readJsonArray(JsonReader reader) throws IOException, JSONException {
+    JSONArray array = new JSONArray();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      array.put(readJsonValue(reader));
+    }
+    reader.endArray();
+    return array;
+  }
+
+  private static Object readJsonValue(JsonReader reader) throws IOException, JSONException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        return readJsonObject(reader);
+      case BEGIN_ARRAY:
+        return readJsonArray(reader);
+      case NULL:
+        reader.nextNull();
+        return JSONObject.NULL;
+      default:
+        return readPrimitive(reader);
+    }
+  }
+
+  private static Object readPrimitive(JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case STRING:
+        return reader.nextString();
+      case NUMBER:
+        return parseNumber(reader.nextString());
+      case BOOLEAN:
+        return reader.nextBoolean();
+      default:
+        throw new IllegalStateException("Unexpected " + reader.peek());
+    }
+  }
+
+  /**
+   * Parses number literal the same way as org.json's JSONTokener.
+   */
+  static Object parseNumber(String literal) {
+    if (literal.indexOf('.') == -1) {
+      int base = 10;
+      String number = literal;
+      if (number.startsWith("0x") || number.startsWith("0X")) {
+        number = number.substring(2);
+        base = 16;
+      } else if (number.startsWith("0") && number.length() > 1) {
+        number = number.substring(1);
+        base = 8;
+      }
+      try {
+        long longValue = Long.parseLong(number, base);
+        if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+          return (int) longValue;
+        }
+        return longValue;
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    try {
+      return Double.valueOf(literal);
+    } catch (NumberFormatException ignored) {
+    }
+    return literal;
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+
+/**
+ * Writes maps and lists as JSON directly into a StringBuilder, without building a
+ * {@link JSONObject} tree first. Output is the same as {@link JSONObject#toString()} of
+ * {@link JsonConverter#mapToJsonObject(Map)}, including the escaping and number formatting of
+ * org.json. The StringBuilder is reused by the next call on the same thread.
+ */
+final class JsonStringWriter {
+  private static final int INITIAL_CAPACITY = 256;
+  private static final int MAX_REUSED_CAPACITY = 64 * 1024;
+  private static final Double NEGATIVE_ZERO = -0d;
+
+  private static final ThreadLocal<StringBuilder> builders = new ThreadLocal<>();
+
+  private JsonStringWriter() {
+  }
+
+  static String toJson(Map<String, ?> map) throws JSONException {
+    StringBuilder builder = obtainBuilder();
+    try {
+      writeMap(builder, map);
+      return builder.toString();
+    } finally {
+      recycleBuilder(builder);
+    }
+  }
+
+  static String toJson(Iterable<?> list) throws JSONException {
+    StringBuilder builder = obtainBuilder();
+    try {
+      writeIterable(builder, list);
+      return builder.toString();
+    } finally {
+      recycleBuilder(builder);
+    }
+  }
+
+  private static StringBuilder obtainBuilder() {
+    StringBuilder builder = builders.get();
+    if (builder == null) {
+      return new StringBuilder(INITIAL_CAPACITY);
+    }
+    // A nested call, e.g. from toString() of a value, gets its own builder.
+    builders.set(null);
+    return builder;
+  }
+
+  private static void recycleBuilder(StringBuilder builder) {
+    if (builder.capacity() <= MAX_REUSED_CAPACITY) {
+      builder.setLength(0);
+      builders.set(builder);
+    }
+  }
+
+  private static void writeMap(StringBuilder out, Map<String, ?> map) throws JSONException {
+    out.append('{');
+    boolean first = true;
+    for (Map.Entry<String, ?> entry : map.entrySet()) {
+      String key = entry.getKey();
+      if (key == null) {
+        throw new JSONException("Names must be non-null");
+      }
+      Object value = entry.getValue();
+      if (value instanceof Number) {
+        // JSONObject.put rejects these before writing.
+        checkDouble(((Number) value).doubleValue());
+      }
+      if (!first) {
+        out.append(',');
+      }
+      first = false;
+      writeString(out, key);
+      out.append(':');
+      writeValue(out, value);
+    }
+    out.append('}');
+  }
+
+  private static void writeIterable(StringBuilder out, Iterable<?> list) throws JSONException {
+    out.append('[');
+    boolean first = true;
+    for (Object value : list) {
+      if (!first) {
+        out.append(',');
+      }
+      first = false;
+      writeValue(out, value);
+    }
+    out.append(']');
+  }
+
+  private static void writeValue(StringBuilder out, Object value) throws JSONException {
+    if (value instanceof LazyMap) {
+      String json = ((LazyMap) value).getUnloadedJson();
+      if (json != null) {
+        // Written as it was received, without creating the map.
+        out.append(json);
+        return;
+      }
+    }
+    if (value instanceof Map) {
+      Map<String, ?> mappedValue = CollectionUtil.uncheckedCast(value);
+      writeMap(out, mappedValue);
+    } else if (value instanceof Iterable) {
+      writeIterable(out, (Iterable<?>) value);
+    } else if (value == null || value == JSONObject.NULL || value instanceof Boolean) {
+      out.append(value == null ? "null" : value.toString());
+    } else if (value instanceof Number) {
+      out.append(numberToString((Number) value));
+    } else if (value instanceof JSONObject || value instanceof JSONArray) {
+      String json = value.toString();
+      if (json == null) {
+        throw new JSONException("Unable to convert " + value.getClass().getName());
+      }
+      out.append(json);
+    } else {
+      writeString(out, value.toString());
+    }
+  }
+
+  /**
+   * Same as {@link JSONObject#numberToString(Number)}.
+   */
+  static String numberToString(Number number) throws JSONException {
+    double doubleValue = number.doubleValue();
+    checkDouble(doubleValue);
+    if (number.equals(NEGATIVE_ZERO)) {
+      return "-0";
+    }
+    long longValue = number.longValue();
+    if (doubleValue == (double) longValue) {
+      return Long.toString(longValue);
+    }
+    return number.toString();
+  }
+
+  private static void checkDouble(double value) throws JSONException {
+    if (Double.isInfinite(value) || Double.isNaN(value)) {
+      throw new JSONException("Forbidden numeric value: " + value);
+    }
+  }
+
+  /**
+   * Writes quoted string with the same escaping as org.json, which escapes '/' too.
+   */
+  private static void writeString(StringBuilder out, String value) {
+    out.append('"');
+    int start = 0;
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c > 0x1F && c != '"' && c != '\\' && c != '/') {
+        continue;
+      }
+      out.append(value, start, i);
+      start = i + 1;
+      switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+          out.append('\\').append(c);
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        case '\b':
+          out.append("\\b");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        case '\f':
+          out.append("\\f");
+          break;
+        default:
+          out.append("\\u00");
+          out.append(Character.forDigit(c >> 4, 16));
+          out.append(Character.forDigit(c & 0xF, 16));
+          break;
+      }
+    }
+    out.append(value, start, length);
+    out.append('"');
+  }
+}
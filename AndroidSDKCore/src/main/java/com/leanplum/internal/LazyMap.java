@@ -0,0 +1,163 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Map that is created only when it is first used. Until then it keeps only what is needed to
+ * create it, for example the JSON text of the map, so maps that are never read are never parsed
+ * and take only the memory of their text. Once created, the map is a {@link HashMap} and all calls are delegated to it.
+ */
+final class LazyMap extends AbstractMap<String, Object> {
+  interface Loader {
+    Map<String, Object> load();
+  }
+
+  private Loader loader;
+  private String json;
+  private Map<String, Object> map;
+
+  private LazyMap(Loader loader, String json) {
+    this.loader = loader;
+    this.json = json;
+  }
+
+  /**
+   * Creates map that is parsed from the JSON text with {@link JsonConverter#mapFromJson} when it
+   * is first used. Invalid JSON is logged and results in an empty map.
+   */
+  static LazyMap fromJson(@NonNull final String json) {
+    return new LazyMap(new Loader() {
+      @Override
+      public Map<String, Object> load() {
+        try {
+          return JsonConverter.mapFromJson(new JSONObject(json));
+        } catch (JSONException e) {
+          Log.e("Error converting " + json + " from JSON", e);
+          return null;
+        }
+      }
+    }, json);
+  }
+
+  /**
+   * Creates map that is loaded when it is first used.
+   */
+  static LazyMap of(@NonNull Loader loader) {
+    return new LazyMap(loader, null);
+  }
+
+  synchronized boolean isLoaded() {
+    return map != null;
+  }
+
+  /**
+   * @return JSON text the map will be parsed from, or null if the map was already created or does
+   * not come from JSON.
+   */
+  synchronized String getUnloadedJson() {
+    return map == null ? json : null;
+  }
+
+  private synchronized Map<String, Object> map() {
+    if (map == null) {
+      Map<String, Object> loaded = loader.load();
+      map = loaded != null ? loaded : new HashMap<String, Object>();
+      loader = null;
+      json = null;
+    }
+    return map;
+  }
+
+  @NonNull
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return map().entrySet();
+  }
+
+  @Override
+  public int size() {
+    return map().size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return map().isEmpty();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return map().containsKey(key);
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    return map().containsValue(value);
+  }
+
+  @Override
+  public Object get(Object key) {
+    return map().get(key);
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    return map().put(key, value);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    return map().remove(key);
+  }
+
+  @Override
+  public void putAll(@NonNull Map<? extends String, ?> map) {
+    map().putAll(map);
+  }
+
+  @Override
+  public void clear() {
+    map().clear();
+  }
+
+  @NonNull
+  @Override
+  public Set<String> keySet() {
+    return map().keySet();
+  }
+
+  @NonNull
+  @Override
+  public Collection<Object> values() {
+    return map().values();
+  }
+}
@@ -25,6 +25,8 @@ import com.leanplum.Leanplum;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -33,11 +35,30 @@ import androidx.annotation.NonNull;
 /**
  * LeanplumEventCallbackManager class to handle event callbacks.
  *
+ * <p>Each request gets at most one invocation, either its response or its error callback, after
+ * which its callbacks are removed. By default every callback runs as its own task on the callback
+ * executor of {@link OperationQueue}, so a slow callback does not hold back the others unless it
+ * occupies all executor threads. Callbacks may run concurrently with each other and their order is
+ * not specified.
+ *
+ * <p>With {@link #setBatchCallbacks(boolean)}, all callbacks invoked for one response body, or for
+ * one error, run one after another as a single task instead. They never run concurrently with
+ * each other then, and their order within that task is not specified. Callbacks of different
+ * response bodies may still run concurrently.
+ *
  * @author Anna Orlova
  */
 class LeanplumEventCallbackManager {
 
   private final ConcurrentHashMap<String, LeanplumEventCallbacks> callbacks = new ConcurrentHashMap<>();
+  private volatile boolean batchCallbacks;
+
+  /**
+   * Sets whether the callbacks of one response body are dispatched as a single task.
+   */
+  void setBatchCallbacks(boolean batchCallbacks) {
+    this.batchCallbacks = batchCallbacks;
+  }
 
   /**
    * Add callbacks to the event callbacks Map.
@@ -75,6 +96,9 @@ class LeanplumEventCallbackManager {
     }
 
     ArrayList<String> keys = new ArrayList<>();
+    List<Runnable> operations = new ArrayList<>();
+    // index responses once instead of searching the response array for every callback
+    Map<String, JSONObject> responses = RequestUtil.getResponsesById(body);
 
     for (Map.Entry<String, LeanplumEventCallbacks> pair : callbacks.entrySet()) {
       final String reqId = pair.getKey();
@@ -82,14 +106,14 @@ class LeanplumEventCallbackManager {
 
       if (reqId != null && callbacks != null) {
         // get the response for specified reqId
-        final JSONObject response = RequestUtil.getResponseForId(body, reqId);
+        final JSONObject response = responses.get(reqId.toLowerCase(Locale.US));
         if (response != null) {
           boolean isSuccess = RequestUtil.isResponseSuccess(response);
 
           // if response for event is successful, execute success callback
           if (isSuccess) {
 
-            OperationQueue.sharedInstance().addParallelOperation(new Runnable() {
+            operations.add(new Runnable() {
               @Override
               public void run() {
                 if (callbacks.responseCallback != null) {
@@ -102,7 +126,7 @@ class LeanplumEventCallbackManager {
             final String responseError = RequestUtil.getResponseError(response);
             final String msg = RequestUtil.getReadableErrorMessage(responseError);
 
-            OperationQueue.sharedInstance().addParallelOperation(new Runnable() {
+            operations.add(new Runnable() {
               @Override
               public void run() {
                 if (callbacks.errorCallback != null) {
@@ -122,6 +146,8 @@ class LeanplumEventCallbackManager {
     for (String key : keys) {
       callbacks.remove(key);
     }
+
+    dispatch(operations);
   }
 
   /**
@@ -135,13 +161,13 @@ class LeanplumEventCallbackManager {
     }
 
     ArrayList<String> keys = new ArrayList<>();
+    List<Runnable> operations = new ArrayList<>();
 
     for (Map.Entry<String, LeanplumEventCallbacks> pair : callbacks.entrySet()) {
       String reqId = pair.getKey();
       final LeanplumEventCallbacks callbacks = pair.getValue();
       if (callbacks != null) {
-        // executed all error callbacks in parallel
-        OperationQueue.sharedInstance().addParallelOperation(new Runnable() {
+        operations.add(new Runnable() {
           @Override
           public void run() {
             if (callbacks.errorCallback != null) {
@@ -159,6 +185,18 @@ class LeanplumEventCallbackManager {
     for (String key : keys) {
       callbacks.remove(key);
     }
+
+    dispatch(operations);
+  }
+
+  private void dispatch(List<Runnable> operations) {
+    if (batchCallbacks) {
+      OperationQueue.sharedInstance().addCallbackOperations(operations);
+      return;
+    }
+    for (Runnable operation : operations) {
+      OperationQueue.sharedInstance().addCallbackOperation(operation);
+    }
   }
 
   private static class LeanplumEventCallbacks {
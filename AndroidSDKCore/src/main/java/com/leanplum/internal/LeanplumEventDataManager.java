@@ -30,11 +30,15 @@ import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.leanplum.Leanplum;
 
 import org.json.JSONObject;
 
+import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -48,15 +52,57 @@ public class LeanplumEventDataManager {
   private static LeanplumEventDataManager instance;
 
   private static final String DATABASE_NAME = "__leanplum.db";
-  private static final int DATABASE_VERSION = 1;
+  private static final int DATABASE_VERSION = 5;
   private static final String EVENT_TABLE_NAME = "event";
+  private static final String CONTEXT_TABLE_NAME = "context";
   private static final String COLUMN_DATA = "data";
+  private static final String COLUMN_ACTION = "action";
+  private static final String COLUMN_UUID = "uuid";
+  private static final String COLUMN_TIME = "time";
+  private static final String COLUMN_SIZE = "size";
+  private static final String COLUMN_PRIORITY = "priority";
+  private static final String COLUMN_BACKGROUND = "background";
+  private static final String COLUMN_CONTEXT = "context";
   private static final String KEY_ROWID = "rowid";
 
+  static final int CRITICAL_PRIORITY = 0;
+  static final int DEFAULT_PRIORITY = 1;
+  static final int LOW_PRIORITY = 2;
+
+  static final int DEFAULT_MAX_BUFFERED_EVENTS = 50;
+  static final long DEFAULT_MAX_BUFFER_DELAY_MILLIS = 1000;
+  static final int MAX_FLUSH_ATTEMPTS = 3;
+
+  private static int maxBufferedEvents = DEFAULT_MAX_BUFFERED_EVENTS;
+  private static long maxBufferDelayMillis = DEFAULT_MAX_BUFFER_DELAY_MILLIS;
+
   private SQLiteDatabase database;
   private LeanplumDataBaseManager databaseManager;
-  private ContentValues contentValues = new ContentValues();
   private boolean hasDatabaseError = false;
+  // Number of stored and buffered events, counted once when database is opened.
+  private long eventsCount;
+  // Rows of the context table by json and by rowid.
+  private final Map<String, Long> contextIds = new HashMap<>();
+  private final Map<Long, String> contexts = new HashMap<>();
+
+  // Events that are not yet written to the database, see insertEvent.
+  private final List<ContentValues> bufferedEvents = new ArrayList<>();
+  private long oldestBufferedEventMillis;
+  private boolean flushScheduled;
+  private int failedFlushes;
+  private long diskWriteCount;
+  private long lastFlushLatencyMillis;
+  private long maxFlushLatencyMillis;
+
+  private final Runnable flushOperation = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (LeanplumEventDataManager.this) {
+        flushScheduled = false;
+      }
+      flush();
+    }
+  };
 
   private LeanplumEventDataManager() {
     try {
@@ -70,6 +116,8 @@ public class LeanplumEventDataManager {
         databaseManager = new LeanplumDataBaseManager(Leanplum.getContext());
       }
       database = databaseManager.getWritableDatabase();
+      eventsCount = countEventsInDatabase();
+      loadContexts();
 
     } catch (Throwable t) {
       handleSQLiteError("Cannot create database.", t);
@@ -84,44 +132,403 @@ public class LeanplumEventDataManager {
   }
 
   /**
-   * Inserts event to event table.
+   * Sets how events are buffered in memory before they are written to the database. Buffered
+   * events are written in a single transaction when maxEvents are collected or maxDelayMillis
+   * elapsed after the first buffered event, whichever comes first.
+   *
+   * @param maxEvents Maximum number of buffered events, 1 writes every event immediately.
+   * @param maxDelayMillis Maximum time an event can stay in the buffer.
+   */
+  public static void setWriteBufferPolicy(int maxEvents, long maxDelayMillis) {
+    maxBufferedEvents = maxEvents;
+    maxBufferDelayMillis = maxDelayMillis;
+  }
+
+  /**
+   * Buffers event and writes it to the event table together with other buffered events.
    *
    * @param event String with json of event.
    */
   void insertEvent(String event) {
+    insertEvent(event, null, null);
+  }
+
+  /**
+   * Buffers event and writes it to the event table together with other buffered events. Request
+   * arguments are used to fill the typed columns, so the event can be queried without parsing
+   * the json. Batch uuid is stored only in its own column and is added to the json when the event
+   * is read, so it can be changed without rewriting the json, see {@link #replaceUuid}.
+   *
+   * @param event String with json of event, without the batch uuid.
+   * @param args Request arguments the json was created from, including the batch uuid.
+   */
+  void insertEvent(String event, Map<String, Object> args) {
+    insertEvent(event, args, null);
+  }
+
+  /**
+   * Same as {@link #insertEvent(String, Map)}, but fields shared by many events are stored once in
+   * the context table and the event only references them. Events are read with their context
+   * fields, unless they are sent in the same batch as the context, see
+   * {@link StreamingRequestBatch}.
+   *
+   * @param event String with json of event, without the batch uuid and the context fields.
+   * @param args Request arguments the json was created from, including the batch uuid.
+   * @param context Fields removed from the event, or null if the event has all its fields.
+   */
+  synchronized void insertEvent(String event, Map<String, Object> args,
+      Map<String, Object> context) {
     if (database == null) {
       return;
     }
-    contentValues.put(COLUMN_DATA, event);
+    long contextId = -1;
+    if (context != null) {
+      String contextJson = JsonConverter.toJson(context);
+      contextId = getContextId(contextJson);
+      if (contextId < 0) {
+        event = mergeJsonObjects(contextJson, event);
+      }
+    }
+    ContentValues values = createEventValues(event, args);
+    if (contextId >= 0) {
+      values.put(COLUMN_CONTEXT, contextId);
+    }
+    if (bufferedEvents.isEmpty()) {
+      oldestBufferedEventMillis = Clock.getInstance().currentTimeMillis();
+    }
+    bufferedEvents.add(values);
+    eventsCount++;
+
+    if (bufferedEvents.size() >= maxBufferedEvents) {
+      flush();
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      OperationQueue.sharedInstance().addOperationAfterDelay(flushOperation, maxBufferDelayMillis);
+    }
+  }
+
+  /**
+   * Writes all buffered events to the event table in a single transaction. If the transaction
+   * fails, events are written one by one and the events that still fail are kept in the buffer
+   * for the next flush, at most {@link #MAX_FLUSH_ATTEMPTS} times.
+   */
+  public synchronized void flush() {
+    if (database == null || bufferedEvents.isEmpty()) {
+      return;
+    }
     try {
-      database.insert(EVENT_TABLE_NAME, null, contentValues);
+      database.beginTransaction();
+      try {
+        for (ContentValues values : bufferedEvents) {
+          database.insertOrThrow(EVENT_TABLE_NAME, null, values);
+        }
+        database.setTransactionSuccessful();
+      } finally {
+        database.endTransaction();
+      }
+      bufferedEvents.clear();
+    } catch (Throwable t) {
+      handleSQLiteError("Unable to insert events to database.", t);
+      insertEventsOneByOne();
+    }
+    if (bufferedEvents.isEmpty()) {
+      failedFlushes = 0;
       hasDatabaseError = false;
+    } else if (++failedFlushes >= MAX_FLUSH_ATTEMPTS) {
+      Log.e("Dropping " + bufferedEvents.size() + " events that could not be stored.");
+      eventsCount -= bufferedEvents.size();
+      bufferedEvents.clear();
+      failedFlushes = 0;
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      OperationQueue.sharedInstance().addOperationAfterDelay(flushOperation, maxBufferDelayMillis);
+    }
+    diskWriteCount++;
+    lastFlushLatencyMillis =
+        Clock.getInstance().currentTimeMillis() - oldestBufferedEventMillis;
+    maxFlushLatencyMillis = Math.max(maxFlushLatencyMillis, lastFlushLatencyMillis);
+  }
+
+  /**
+   * Inserts buffered events without a transaction, keeping the events that fail in the buffer.
+   */
+  private void insertEventsOneByOne() {
+    List<ContentValues> failedEvents = new ArrayList<>();
+    for (ContentValues values : bufferedEvents) {
+      try {
+        database.insertOrThrow(EVENT_TABLE_NAME, null, values);
+      } catch (Throwable t) {
+        Log.e("Unable to insert event to database.", t);
+        failedEvents.add(values);
+      }
+    }
+    bufferedEvents.clear();
+    bufferedEvents.addAll(failedEvents);
+  }
+
+  /**
+   * Gets the rowid of the context, and stores the context if it is new. Only a few contexts are
+   * stored at a time, because they change only when user or token changes.
+   *
+   * @param contextJson Json of the context fields.
+   * @return Rowid of the context, or -1 on error.
+   */
+  private long getContextId(String contextJson) {
+    Long contextId = contextIds.get(contextJson);
+    if (contextId != null) {
+      return contextId;
+    }
+    try {
+      ContentValues values = new ContentValues();
+      values.put(COLUMN_DATA, contextJson);
+      long rowId = database.insert(CONTEXT_TABLE_NAME, null, values);
+      if (rowId < 0) {
+        return -1;
+      }
+      contextIds.put(contextJson, rowId);
+      contexts.put(rowId, contextJson);
+      return rowId;
     } catch (Throwable t) {
-      handleSQLiteError("Unable to insert event to database.", t);
+      handleSQLiteError("Unable to insert context to database.", t);
+    }
+    return -1;
+  }
+
+  private void loadContexts() {
+    contextIds.clear();
+    contexts.clear();
+    Cursor cursor = null;
+    try {
+      cursor = database.query(CONTEXT_TABLE_NAME, new String[] {KEY_ROWID, COLUMN_DATA}, null,
+          null, null, null, null);
+      while (cursor.moveToNext()) {
+        contextIds.put(cursor.getString(1), cursor.getLong(0));
+        contexts.put(cursor.getLong(0), cursor.getString(1));
+      }
+    } catch (Throwable t) {
+      handleSQLiteError("Unable to get contexts from the table.", t);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
     }
-    contentValues.clear();
   }
 
   /**
-   * Gets first count events from event table.
+   * Deletes contexts that are not referenced by any event.
+   */
+  private void deleteUnusedContexts() {
+    try {
+      database.delete(CONTEXT_TABLE_NAME, KEY_ROWID + " NOT IN (SELECT " + COLUMN_CONTEXT
+          + " FROM " + EVENT_TABLE_NAME + " WHERE " + COLUMN_CONTEXT + " IS NOT NULL)", null);
+    } catch (Throwable t) {
+      handleSQLiteError("Unable to delete contexts from the table.", t);
+    }
+    loadContexts();
+  }
+
+  /**
+   * Gets the json of a context.
+   *
+   * @param contextId Rowid of the context.
+   * @return Json of the context fields, or null if there is no such context.
+   */
+  synchronized String getContextJson(long contextId) {
+    return contexts.get(contextId);
+  }
+
+  /**
+   * Gets the context of a stored event.
+   *
+   * @param rowId Rowid of the event.
+   * @return Rowid of the context, or -1 if event has all its fields or on error.
+   */
+  synchronized long getEventContextId(long rowId) {
+    if (database == null) {
+      return -1;
+    }
+    Cursor cursor = null;
+    try {
+      cursor = database.query(EVENT_TABLE_NAME, new String[] {COLUMN_CONTEXT},
+          KEY_ROWID + " = ?", new String[] {Long.toString(rowId)}, null, null, null);
+      if (cursor.moveToFirst() && !cursor.isNull(0)) {
+        return cursor.getLong(0);
+      }
+    } catch (Throwable t) {
+      handleSQLiteError("Unable to get events from the table.", t);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Adds the fields of one json object to another, without parsing them.
+   *
+   * @param fields Json object with fields to add.
+   * @param json Json object to add the fields to.
+   * @return Json object with fields of both objects.
+   */
+  static String mergeJsonObjects(String fields, String json) {
+    String fieldsContent = fields.substring(1, fields.length() - 1).trim();
+    if (fieldsContent.isEmpty()) {
+      return json;
+    }
+    String jsonContent = json.substring(1, json.length() - 1).trim();
+    if (jsonContent.isEmpty()) {
+      return fields;
+    }
+    return "{" + fieldsContent + "," + jsonContent + "}";
+  }
+
+  /**
+   * Adds the batch uuid stored in its own column to the json of an event.
+   *
+   * @param json Json of the event, without the batch uuid.
+   * @param uuid Batch uuid, or null if the event has none or has it in its json.
+   * @return Json of the event with the batch uuid.
+   */
+  static String addUuid(String json, String uuid) {
+    if (uuid == null) {
+      return json;
+    }
+    return mergeJsonObjects(uuidJson(uuid), json);
+  }
+
+  private static String uuidJson(String uuid) {
+    return "{\"" + Constants.Params.UUID + "\":" + JSONObject.quote(uuid) + "}";
+  }
+
+  /**
+   * Creates the row of the event table for an event.
+   *
+   * @param event String with json of event, without the batch uuid of args.
+   * @param args Request arguments the json was created from, or null if not available.
+   */
+  private static ContentValues createEventValues(String event, Map<String, Object> args) {
+    ContentValues values = new ContentValues();
+    values.put(COLUMN_DATA, event);
+    values.put(COLUMN_SIZE, utf8Length(event));
+    values.put(COLUMN_PRIORITY, DEFAULT_PRIORITY);
+    if (args == null) {
+      return values;
+    }
+    Object action = args.get(Constants.Params.ACTION);
+    if (action != null) {
+      values.put(COLUMN_ACTION, action.toString());
+      values.put(COLUMN_PRIORITY, getPriority(action.toString()));
+    }
+    Object uuid = args.get(Constants.Params.UUID);
+    if (uuid != null) {
+      values.put(COLUMN_UUID, uuid.toString());
+      // Size of the event as it is sent, with the uuid field and its comma.
+      values.put(COLUMN_SIZE, utf8Length(event) + utf8Length(uuidJson(uuid.toString())) - 1);
+    }
+    Object time = args.get(Constants.Params.TIME);
+    if (time != null) {
+      try {
+        values.put(COLUMN_TIME, Double.parseDouble(time.toString()));
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    boolean background = Boolean.TRUE.toString().equals(args.get(Constants.Params.BACKGROUND));
+    values.put(COLUMN_BACKGROUND, background ? 1 : 0);
+    return values;
+  }
+
+  /**
+   * Gets the priority lane of the request. Start and getVars are critical, because variables and
+   * messages wait for their response. Logs, which include counts, are low.
+   *
+   * @param action Api action of the request.
+   * @return One of {@link #CRITICAL_PRIORITY}, {@link #DEFAULT_PRIORITY} or {@link #LOW_PRIORITY}.
+   */
+  static int getPriority(String action) {
+    if (RequestBuilder.ACTION_START.equals(action)
+        || RequestBuilder.ACTION_GET_VARS.equals(action)) {
+      return CRITICAL_PRIORITY;
+    }
+    if (RequestBuilder.ACTION_LOG.equals(action)) {
+      return LOW_PRIORITY;
+    }
+    return DEFAULT_PRIORITY;
+  }
+
+  /**
+   * Counts the bytes of the string encoded in UTF-8 without encoding it.
+   */
+  static int utf8Length(String string) {
+    if (string == null) {
+      return 0;
+    }
+    int length = 0;
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+          && Character.isLowSurrogate(string.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Number of write transactions made to the event table.
+   */
+  public synchronized long getDiskWriteCount() {
+    return diskWriteCount;
+  }
+
+  /**
+   * Time the oldest event of the last flush spent in the buffer before it was written.
+   */
+  public synchronized long getLastFlushLatencyMillis() {
+    return lastFlushLatencyMillis;
+  }
+
+  /**
+   * Longest time an event spent in the buffer before it was written.
+   */
+  public synchronized long getMaxFlushLatencyMillis() {
+    return maxFlushLatencyMillis;
+  }
+
+  /**
+   * Gets first count events from event table. Buffered events are written before reading.
    *
    * @param count Number of events.
    * @return List of events.
    */
-  List<Map<String, Object>> getEvents(int count) {
+  synchronized List<Map<String, Object>> getEvents(int count) {
     List<Map<String, Object>> events = new ArrayList<>();
     if (database == null) {
       return events;
     }
+    flush();
     Cursor cursor = null;
     try {
-      cursor = database.query(EVENT_TABLE_NAME, new String[] {COLUMN_DATA}, null, null, null,
-          null, KEY_ROWID + " ASC", "" + count);
+      cursor = database.query(EVENT_TABLE_NAME,
+          new String[] {COLUMN_DATA, COLUMN_CONTEXT, COLUMN_UUID},
+          null, null, null, null, KEY_ROWID + " ASC", "" + count);
       hasDatabaseError = false;
       while (cursor.moveToNext()) {
         @SuppressLint("Range")
-        Map<String, Object> requestArgs = JsonConverter.mapFromJson(new JSONObject(
-            cursor.getString(cursor.getColumnIndex(COLUMN_DATA))));
+        String event = addUuid(cursor.getString(cursor.getColumnIndex(COLUMN_DATA)),
+            cursor.getString(2));
+        String context = cursor.isNull(1) ? null : contexts.get(cursor.getLong(1));
+        if (context != null) {
+          event = mergeJsonObjects(context, event);
+        }
+        Map<String, Object> requestArgs = JsonConverter.mapFromJson(new JSONObject(event));
         events.add(requestArgs);
       }
     } catch (Throwable t) {
@@ -135,17 +542,243 @@ public class LeanplumEventDataManager {
   }
 
   /**
-   * Deletes first count elements from event table.
+   * Gets the number of the first count events in the event table and the rowids of the first and
+   * the last one. Buffered events are written before reading.
+   *
+   * @param count Maximum number of events.
+   * @return Array with number of events, rowid of the first and rowid of the last event, or null
+   * on error.
+   */
+  long[] getEventsRange(int count) {
+    return getEventsRange(0, count);
+  }
+
+  /**
+   * Same as {@link #getEventsRange(int)}, but only for events with rowid greater than afterRowId.
+   *
+   * @param afterRowId Rowid of the last event not to include.
+   * @param count Maximum number of events.
+   * @return Array with number of events, rowid of the first and rowid of the last event, or null
+   * on error.
+   */
+  synchronized long[] getEventsRange(long afterRowId, int count) {
+    if (database == null) {
+      return null;
+    }
+    flush();
+    Cursor cursor = null;
+    try {
+      cursor = database.rawQuery("SELECT COUNT(*), MIN(" + KEY_ROWID + "), MAX(" + KEY_ROWID
+          + ") FROM (SELECT " + KEY_ROWID + " FROM " + EVENT_TABLE_NAME + " WHERE " + KEY_ROWID
+          + " > ? ORDER BY " + KEY_ROWID + " ASC LIMIT " + count + ")",
+          new String[] {Long.toString(afterRowId)});
+      hasDatabaseError = false;
+      if (cursor.moveToFirst()) {
+        return new long[] {cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)};
+      }
+    } catch (Throwable t) {
+      handleSQLiteError("Unable to get events from the table.", t);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Same as {@link #getEventsRange(long, int)}, but the events are limited by their total size
+   * too. The first event is always included, even if it is larger than maxBytes.
+   *
+   * @param afterRowId Rowid of the last event not to include.
+   * @param count Maximum number of events.
+   * @param maxBytes Maximum total size of the events in bytes, see {@link #utf8Length}.
+   * @return Array with number of events, rowid of the first event, rowid of the last event, total
+   * size of the events, 1 if there are more events or 0 otherwise, and 1 if the event after the
+   * last one has the same batch uuid or 0 otherwise. Null on error.
+   */
+  synchronized long[] getEventsRange(long afterRowId, int count, long maxBytes) {
+    if (database == null) {
+      return null;
+    }
+    flush();
+    Cursor cursor = null;
+    try {
+      // One more event is read to know if the range splits a batch uuid.
+      cursor = database.query(EVENT_TABLE_NAME,
+          new String[] {KEY_ROWID, COLUMN_SIZE, COLUMN_UUID}, KEY_ROWID + " > ?",
+          new String[] {Long.toString(afterRowId)}, null, null, KEY_ROWID + " ASC",
+          Integer.toString(count + 1));
+      hasDatabaseError = false;
+      long[] range = new long[] {0, 0, -1, 0, 0, 0};
+      String lastUuid = null;
+      while (cursor.moveToNext()) {
+        long size = cursor.getLong(1);
+        String uuid = cursor.getString(2);
+        if (range[0] == count || (range[0] > 0 && range[3] + size > maxBytes)) {
+          range[4] = 1;
+          range[5] = uuid != null && uuid.equals(lastUuid) ? 1 : 0;
+          break;
+        }
+        if (range[0] == 0) {
+          range[1] = cursor.getLong(0);
+        }
+        range[0]++;
+        range[2] = cursor.getLong(0);
+        range[3] += size;
+        lastUuid = uuid;
+      }
+      return range;
+    } catch (Throwable t) {
+      handleSQLiteError("Unable to get events from the table.", t);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the range of the critical events saved after all other events, so they can be sent ahead
+   * of them. Critical events saved before other events are not included and are sent in order
+   * with them, like the start of a session that has events saved after it.
+   *
+   * @param count Maximum number of events.
+   * @return Array like {@link #getEventsRange(long, int, long)}. Number of events is 0 if the last
+   * saved event is not critical or if there are no other events to send ahead of. Events share
+   * the batch uuid with the events before them, so the range always reports a split uuid. Null on
+   * error.
+   */
+  long[] getCriticalEventsRange(int count) {
+    return getCriticalEventsRange(count, false);
+  }
+
+  /**
+   * Same as {@link #getCriticalEventsRange(int)}, but can include the critical events also when
+   * all saved events are critical.
+   *
+   * @param count Maximum number of events.
+   * @param includeOnlyCritical Whether to return the range when there are no other events. The
+   * range does not split a batch uuid then.
+   */
+  synchronized long[] getCriticalEventsRange(int count, boolean includeOnlyCritical) {
+    if (database == null) {
+      return null;
+    }
+    flush();
+    Cursor cursor = null;
+    try {
+      // Walks back from the last event by rowid, reading only the critical events at the end and
+      // one event before them.
+      cursor = database.query(EVENT_TABLE_NAME,
+          new String[] {KEY_ROWID, COLUMN_SIZE, COLUMN_PRIORITY}, null, null, null, null,
+          KEY_ROWID + " DESC", Integer.toString(count + 1));
+      hasDatabaseError = false;
+      long[] range = new long[] {0, 0, -1, 0, 0, 1};
+      boolean hasOtherEvents = false;
+      while (cursor.moveToNext()) {
+        if (range[0] == count || cursor.getInt(2) != CRITICAL_PRIORITY) {
+          hasOtherEvents = true;
+          break;
+        }
+        if (range[0] == 0) {
+          range[2] = cursor.getLong(0);
+        }
+        range[0]++;
+        range[1] = cursor.getLong(0);
+        range[3] += cursor.getLong(1);
+      }
+      if (!hasOtherEvents) {
+        if (includeOnlyCritical && range[0] > 0) {
+          range[5] = 0;
+          return range;
+        }
+        return new long[] {0, 0, -1, 0, 0, 0};
+      }
+      return range;
+    } catch (Throwable t) {
+      handleSQLiteError("Unable to get events from the table.", t);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Changes the batch uuid of the stored events with rowid from firstRowId to lastRowId, so they
+   * are not treated by the server as the same batch as the events after them.
+   *
+   * @param firstRowId Rowid of the first event.
+   * @param lastRowId Rowid of the last event.
+   * @param uuid New batch uuid.
+   */
+  synchronized void replaceUuid(long firstRowId, long lastRowId, String uuid) {
+    if (database == null) {
+      return;
+    }
+    try {
+      // Events without a uuid column have no batch uuid or have it in their json.
+      ContentValues values = new ContentValues();
+      values.put(COLUMN_UUID, uuid);
+      database.update(EVENT_TABLE_NAME, values, KEY_ROWID + " BETWEEN ? AND ? AND "
+              + COLUMN_UUID + " IS NOT NULL",
+          new String[] {Long.toString(firstRowId), Long.toString(lastRowId)});
+      hasDatabaseError = false;
+    } catch (Throwable t) {
+      handleSQLiteError("Unable to update events in the table.", t);
+    }
+  }
+
+  /**
+   * Opens a reader over the events with rowid from firstRowId to lastRowId, in order of
+   * insertion. Events are read from the database one by one, so reader needs to be closed when
+   * done.
+   *
+   * @param firstRowId Rowid of the first event to read.
+   * @param lastRowId Rowid of the last event to read.
+   * @return Event reader, or null on error.
+   */
+  EventReader openEvents(long firstRowId, long lastRowId) {
+    if (database == null) {
+      return null;
+    }
+    try {
+      Cursor cursor = database.query(EVENT_TABLE_NAME,
+          new String[] {
+              KEY_ROWID, COLUMN_ACTION, COLUMN_BACKGROUND, COLUMN_DATA, COLUMN_CONTEXT,
+              COLUMN_UUID},
+          KEY_ROWID + " BETWEEN ? AND ?",
+          new String[] {Long.toString(firstRowId), Long.toString(lastRowId)}, null, null,
+          KEY_ROWID + " ASC");
+      hasDatabaseError = false;
+      return new EventReader(cursor);
+    } catch (Throwable t) {
+      handleSQLiteError("Unable to get events from the table.", t);
+    }
+    return null;
+  }
+
+  /**
+   * Deletes first count elements from event table. Buffered events are written before deleting.
    *
    * @param count Number of event that need to be deleted.
    */
-  void deleteEvents(int count) {
+  synchronized void deleteEvents(int count) {
     if (database == null) {
       return;
     }
+    flush();
     try {
-      database.delete(EVENT_TABLE_NAME, KEY_ROWID + " in (select " + KEY_ROWID + " from " +
-          EVENT_TABLE_NAME + " ORDER BY " + KEY_ROWID + " ASC LIMIT " + count + ")", null);
+      int deleted = database.delete(EVENT_TABLE_NAME, KEY_ROWID + " in (select " + KEY_ROWID
+          + " from " + EVENT_TABLE_NAME + " ORDER BY " + KEY_ROWID + " ASC LIMIT " + count + ")",
+          null);
+      eventsCount = Math.max(0, eventsCount - deleted);
+      if (eventsCount == 0 && bufferedEvents.isEmpty()) {
+        deleteUnusedContexts();
+      }
       hasDatabaseError = false;
     } catch (Throwable t) {
       handleSQLiteError("Unable to delete events from the table.", t);
@@ -153,11 +786,46 @@ public class LeanplumEventDataManager {
   }
 
   /**
-   * Gets number of rows in the event table.
+   * Deletes events with rowid from firstRowId to lastRowId from event table. Events inserted
+   * after the range was read are not affected.
+   *
+   * @param firstRowId Rowid of the first event to delete.
+   * @param lastRowId Rowid of the last event to delete.
+   */
+  synchronized void deleteEvents(long firstRowId, long lastRowId) {
+    if (database == null) {
+      return;
+    }
+    try {
+      int deleted = database.delete(EVENT_TABLE_NAME, KEY_ROWID + " BETWEEN ? AND ?",
+          new String[] {Long.toString(firstRowId), Long.toString(lastRowId)});
+      eventsCount = Math.max(0, eventsCount - deleted);
+      if (eventsCount == 0 && bufferedEvents.isEmpty()) {
+        deleteUnusedContexts();
+      }
+      hasDatabaseError = false;
+    } catch (Throwable t) {
+      handleSQLiteError("Unable to delete events from the table.", t);
+    }
+  }
+
+  /**
+   * Gets number of rows in the event table, including buffered events. The number is kept in
+   * memory and does not query the database.
    *
    * @return Number of rows in the event table.
    */
-  long getEventsCount() {
+  synchronized long getEventsCount() {
+    return eventsCount;
+  }
+
+  /**
+   * Counts rows in the event table.
+   *
+   * @return Number of rows in the event table.
+   */
+  @VisibleForTesting
+  synchronized long countEventsInDatabase() {
     long count = 0;
     if (database == null) {
       return count;
@@ -190,6 +858,57 @@ public class LeanplumEventDataManager {
     }
   }
 
+  /**
+   * Reads stored events row by row without parsing their json.
+   */
+  static class EventReader implements Closeable {
+    private final Cursor cursor;
+
+    private EventReader(Cursor cursor) {
+      this.cursor = cursor;
+    }
+
+    /**
+     * Moves to the next event.
+     *
+     * @return False if there are no more events.
+     */
+    boolean next() {
+      return cursor.moveToNext();
+    }
+
+    long getRowId() {
+      return cursor.getLong(0);
+    }
+
+    String getAction() {
+      return cursor.getString(1);
+    }
+
+    boolean isBackground() {
+      return cursor.getInt(2) != 0;
+    }
+
+    /**
+     * @return Json of the event with its batch uuid, without the context fields.
+     */
+    String getData() {
+      return addUuid(cursor.getString(3), cursor.getString(5));
+    }
+
+    /**
+     * @return Rowid of the context of the event, or -1 if event has all its fields.
+     */
+    long getContextId() {
+      return cursor.isNull(4) ? -1 : cursor.getLong(4);
+    }
+
+    @Override
+    public void close() {
+      cursor.close();
+    }
+  }
+
   private static class LeanplumDataBaseManager extends SQLiteOpenHelper {
 
     LeanplumDataBaseManager(Context context) {
@@ -199,14 +918,126 @@ public class LeanplumEventDataManager {
     @Override
     public void onCreate(SQLiteDatabase db) {
       // Create event table.
-      db.execSQL("CREATE TABLE IF NOT EXISTS " + EVENT_TABLE_NAME + "(" + COLUMN_DATA +
-          " TEXT)");
+      db.execSQL("CREATE TABLE IF NOT EXISTS " + EVENT_TABLE_NAME + "("
+          + COLUMN_DATA + " TEXT, "
+          + COLUMN_ACTION + " TEXT, "
+          + COLUMN_UUID + " TEXT, "
+          + COLUMN_TIME + " REAL, "
+          + COLUMN_SIZE + " INTEGER NOT NULL DEFAULT 0, "
+          + COLUMN_PRIORITY + " INTEGER NOT NULL DEFAULT " + DEFAULT_PRIORITY + ", "
+          + COLUMN_BACKGROUND + " INTEGER NOT NULL DEFAULT 0, "
+          + COLUMN_CONTEXT + " INTEGER)");
+      createContextTable(db);
+      createIndices(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-      // No used for now.
+      if (oldVersion < 2) {
+        upgradeToVersion2(db);
+      }
+      if (oldVersion < 3) {
+        upgradeToVersion3(db);
+      }
+      if (oldVersion < 4) {
+        upgradeToVersion4(db);
+      }
+      if (oldVersion < 5) {
+        createIndices(db);
+      }
+    }
+
+    /**
+     * Version 1 stored only the json of the event. Adds the typed columns and fills them from the
+     * json of already stored events. Runs inside the upgrade transaction.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+      db.execSQL("ALTER TABLE " + EVENT_TABLE_NAME + " ADD COLUMN " + COLUMN_ACTION + " TEXT");
+      db.execSQL("ALTER TABLE " + EVENT_TABLE_NAME + " ADD COLUMN " + COLUMN_UUID + " TEXT");
+      db.execSQL("ALTER TABLE " + EVENT_TABLE_NAME + " ADD COLUMN " + COLUMN_TIME + " REAL");
+      db.execSQL("ALTER TABLE " + EVENT_TABLE_NAME + " ADD COLUMN " + COLUMN_SIZE
+          + " INTEGER NOT NULL DEFAULT 0");
+      db.execSQL("ALTER TABLE " + EVENT_TABLE_NAME + " ADD COLUMN " + COLUMN_PRIORITY
+          + " INTEGER NOT NULL DEFAULT " + DEFAULT_PRIORITY);
+      db.execSQL("ALTER TABLE " + EVENT_TABLE_NAME + " ADD COLUMN " + COLUMN_BACKGROUND
+          + " INTEGER NOT NULL DEFAULT 0");
+
+      Cursor cursor = db.query(EVENT_TABLE_NAME, new String[] {KEY_ROWID, COLUMN_DATA}, null,
+          null, null, null, null);
+      try {
+        String[] whereArgs = new String[1];
+        while (cursor.moveToNext()) {
+          String event = cursor.getString(1);
+          Map<String, Object> args = null;
+          try {
+            args = JsonConverter.mapFromJson(new JSONObject(event));
+          } catch (Throwable t) {
+            // Keep the event, it will be sent as before.
+          }
+          ContentValues values = createEventValues(event, args);
+          values.remove(COLUMN_DATA);
+          // Json still has the uuid, it is removed in upgradeToVersion4.
+          values.put(COLUMN_SIZE, utf8Length(event));
+          whereArgs[0] = Long.toString(cursor.getLong(0));
+          db.update(EVENT_TABLE_NAME, values, KEY_ROWID + " = ?", whereArgs);
+        }
+      } finally {
+        cursor.close();
+      }
     }
 
+    /**
+     * Adds the context table. Already stored events keep all their fields.
+     */
+    private void upgradeToVersion3(SQLiteDatabase db) {
+      db.execSQL("ALTER TABLE " + EVENT_TABLE_NAME + " ADD COLUMN " + COLUMN_CONTEXT
+          + " INTEGER");
+      createContextTable(db);
+    }
+
+    /**
+     * Removes the batch uuid from the json of the events that have it in the uuid column, so it is
+     * stored only there. Size of the events is not changed, as it includes the uuid.
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+      Cursor cursor = db.query(EVENT_TABLE_NAME, new String[] {KEY_ROWID, COLUMN_DATA},
+          COLUMN_UUID + " IS NOT NULL", null, null, null, null);
+      try {
+        ContentValues values = new ContentValues();
+        String[] whereArgs = new String[1];
+        while (cursor.moveToNext()) {
+          JSONObject event;
+          try {
+            event = new JSONObject(cursor.getString(1));
+          } catch (Throwable t) {
+            continue;
+          }
+          event.remove(Constants.Params.UUID);
+          values.put(COLUMN_DATA, event.toString());
+          whereArgs[0] = Long.toString(cursor.getLong(0));
+          db.update(EVENT_TABLE_NAME, values, KEY_ROWID + " = ?", whereArgs);
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+
+    /**
+     * Creates the indices of the event table. Version 5 adds them to existing databases.
+     */
+    private void createIndices(SQLiteDatabase db) {
+      // Used to find the events of a priority lane.
+      db.execSQL("CREATE INDEX IF NOT EXISTS " + EVENT_TABLE_NAME + "_" + COLUMN_PRIORITY
+          + "_index ON " + EVENT_TABLE_NAME + "(" + COLUMN_PRIORITY + ")");
+      // Used to find the events of a batch.
+      db.execSQL("CREATE INDEX IF NOT EXISTS " + EVENT_TABLE_NAME + "_" + COLUMN_UUID
+          + "_index ON " + EVENT_TABLE_NAME + "(" + COLUMN_UUID + ")");
+    }
+
+    private void createContextTable(SQLiteDatabase db) {
+      // Fields shared by events, e.g. device id and user id, see insertEvent.
+      db.execSQL("CREATE TABLE IF NOT EXISTS " + CONTEXT_TABLE_NAME + "("
+          + COLUMN_DATA + " TEXT NOT NULL UNIQUE)");
+    }
   }
 }
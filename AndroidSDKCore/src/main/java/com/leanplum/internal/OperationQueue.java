@@ -26,6 +26,7 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Process;
 
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -36,12 +37,20 @@ public class OperationQueue {
     private static final String OPERATION_QUEUE_NAME = "com.leanplum.operation_queue";
     private static final String ACTION_QUEUE_NAME = "com.leanplum.action_queue";
     private static final int OPERATION_QUEUE_PRIORITY = Process.THREAD_PRIORITY_DEFAULT;
+    private static final String CALLBACK_EXECUTOR_NAME = "com.leanplum.callbacks";
+    private static final String FILE_TRANSFER_EXECUTOR_NAME = "com.leanplum.file_transfers";
+    private static final int CALLBACK_THREADS = 2;
+    private static final int FILE_TRANSFER_THREADS = 4;
 
     private HandlerThread handlerThread;
     private Handler handler;
     private Handler uiHandler = new Handler(Looper.getMainLooper());
 
     private Executor executor = Executors.newCachedThreadPool();
+    private final BoundedExecutor callbackExecutor =
+            new BoundedExecutor(CALLBACK_EXECUTOR_NAME, CALLBACK_THREADS);
+    private final BoundedExecutor fileTransferExecutor =
+            new BoundedExecutor(FILE_TRANSFER_EXECUTOR_NAME, FILE_TRANSFER_THREADS);
 
     private Handler actionsHandler;
     private HandlerThread actionsThread;
@@ -89,6 +98,46 @@ public class OperationQueue {
         }
     }
 
+    /**
+     * Add request callback operation to the callback executor, which has a fixed number of threads.
+     * @param operation The operation that will be executed.
+     */
+    public void addCallbackOperation(Runnable operation) {
+        callbackExecutor.execute(operation);
+    }
+
+    /**
+     * Add request callback operations to be run one after another, in list order, as a single task
+     * of the callback executor.
+     * @param operations The operations that will be executed.
+     */
+    public void addCallbackOperations(List<Runnable> operations) {
+        callbackExecutor.executeAll(operations);
+    }
+
+    /**
+     * @return Number of callback tasks waiting for a free callback thread.
+     */
+    public int getCallbackQueueDepth() {
+        return callbackExecutor.getQueueDepth();
+    }
+
+    /**
+     * Add file download or upload operation to the file transfer executor, which has a fixed number
+     * of threads.
+     * @param operation The operation that will be executed.
+     */
+    public void addFileTransferOperation(Runnable operation) {
+        fileTransferExecutor.execute(operation);
+    }
+
+    /**
+     * @return Number of file transfers waiting for a free file transfer thread.
+     */
+    public int getFileTransferQueueDepth() {
+        return fileTransferExecutor.getQueueDepth();
+    }
+
     /**
      * Add operation to UI Handler to be run on main thread
      * @param operation The operation that will be executed.
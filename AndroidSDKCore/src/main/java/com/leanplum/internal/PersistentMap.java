@@ -0,0 +1,332 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import androidx.annotation.NonNull;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map stored as a hash array mapped trie. {@link #plus} returns a new map that shares
+ * all nodes with this map except the ones on the path to the changed key, so changing one key of
+ * a large map copies only a few small arrays instead of the whole map.
+ * <p>
+ * Each trie level uses 5 bits of the key hash. A node has a bitmap of used slots and an array of
+ * key and value pairs of the used slots. A slot with a {@link #NODE} key holds a child node. Keys
+ * with the same hash are kept in a collision node.
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> {
+  private static final PersistentMap<Object, Object> EMPTY = new PersistentMap<>(null, 0);
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  private static final int MAX_DEPTH = 32 / BITS + 2;
+
+  /** Key of a slot that holds a child node. */
+  private static final Object NODE = new Object();
+  /** Returned by node lookups when the key is not in the map. */
+  private static final Object NOT_FOUND = new Object();
+
+  private final Node root;
+  private final int size;
+  private Set<Entry<K, V>> entrySet;
+
+  private PersistentMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  public static <K, V> PersistentMap<K, V> empty() {
+    return CollectionUtil.uncheckedCast(EMPTY);
+  }
+
+  /**
+   * @return The map itself if it is a persistent map, otherwise a persistent copy of it.
+   */
+  public static <K, V> PersistentMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+    if (map instanceof PersistentMap) {
+      return CollectionUtil.uncheckedCast(map);
+    }
+    PersistentMap<K, V> result = empty();
+    for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
+      result = result.plus(entry.getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * @return Map with the key set to the value. This map is returned if it already has the same
+   * value instance for the key.
+   */
+  public PersistentMap<K, V> plus(K key, V value) {
+    boolean[] added = new boolean[1];
+    Node newRoot = (root == null ? BitmapNode.EMPTY : root).plus(key, hash(key), value, 0, added);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+  }
+
+  private Object find(Object key) {
+    return root == null ? NOT_FOUND : root.find(key, hash(key), 0);
+  }
+
+  @Override
+  public V get(Object key) {
+    Object value = find(key);
+    return value == NOT_FOUND ? null : CollectionUtil.<V>uncheckedCast(value);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return find(key) != NOT_FOUND;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @NonNull
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Entry<K, V>>() {
+        @NonNull
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+          return new EntryIterator<>(root);
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+    return entrySet;
+  }
+
+  private static int hash(Object key) {
+    int hash = key == null ? 0 : key.hashCode();
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean equal(Object a, Object b) {
+    return a == b || (a != null && a.equals(b));
+  }
+
+  /**
+   * @return Copy of the array with the value at the index replaced.
+   */
+  private static Object[] replaced(Object[] array, int index, Object value) {
+    Object[] result = array.clone();
+    result[index] = value;
+    return result;
+  }
+
+  private abstract static class Node {
+    /** Pairs of keys and values. */
+    final Object[] array;
+
+    Node(Object[] array) {
+      this.array = array;
+    }
+
+    abstract Object find(Object key, int hash, int shift);
+
+    abstract Node plus(Object key, int hash, Object value, int shift, boolean[] added);
+  }
+
+  private static final class BitmapNode extends Node {
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    final int bitmap;
+
+    BitmapNode(int bitmap, Object[] array) {
+      super(array);
+      this.bitmap = bitmap;
+    }
+
+    private int index(int bit) {
+      return 2 * Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    Object find(Object key, int hash, int shift) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((bitmap & bit) == 0) {
+        return NOT_FOUND;
+      }
+      int index = index(bit);
+      Object slotKey = array[index];
+      if (slotKey == NODE) {
+        return ((Node) array[index + 1]).find(key, hash, shift + BITS);
+      }
+      return equal(key, slotKey) ? array[index + 1] : NOT_FOUND;
+    }
+
+    @Override
+    Node plus(Object key, int hash, Object value, int shift, boolean[] added) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      int index = index(bit);
+      if ((bitmap & bit) == 0) {
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, index);
+        newArray[index] = key;
+        newArray[index + 1] = value;
+        System.arraycopy(array, index, newArray, index + 2, array.length - index);
+        added[0] = true;
+        return new BitmapNode(bitmap | bit, newArray);
+      }
+      Object slotKey = array[index];
+      Object slotValue = array[index + 1];
+      if (slotKey == NODE) {
+        Node child = (Node) slotValue;
+        Node newChild = child.plus(key, hash, value, shift + BITS, added);
+        return newChild == child ? this
+            : new BitmapNode(bitmap, replaced(array, index + 1, newChild));
+      }
+      if (equal(key, slotKey)) {
+        return slotValue == value ? this
+            : new BitmapNode(bitmap, replaced(array, index + 1, value));
+      }
+      added[0] = true;
+      Node child = createNode(slotKey, slotValue, key, hash, value, shift + BITS);
+      Object[] newArray = replaced(array, index, NODE);
+      newArray[index + 1] = child;
+      return new BitmapNode(bitmap, newArray);
+    }
+
+    private static Node createNode(Object key1, Object value1, Object key2, int hash2,
+        Object value2, int shift) {
+      int hash1 = hash(key1);
+      if (hash1 == hash2) {
+        return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+      }
+      boolean[] added = new boolean[1];
+      return EMPTY.plus(key1, hash1, value1, shift, added)
+          .plus(key2, hash2, value2, shift, added);
+    }
+  }
+
+  private static final class CollisionNode extends Node {
+    final int hash;
+
+    CollisionNode(int hash, Object[] array) {
+      super(array);
+      this.hash = hash;
+    }
+
+    @Override
+    Object find(Object key, int hash, int shift) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (equal(key, array[i])) {
+          return array[i + 1];
+        }
+      }
+      return NOT_FOUND;
+    }
+
+    @Override
+    Node plus(Object key, int hash, Object value, int shift, boolean[] added) {
+      if (hash != this.hash) {
+        // Keys differ at this level, so this node moves one level down.
+        int bit = 1 << ((this.hash >>> shift) & MASK);
+        return new BitmapNode(bit, new Object[] {NODE, this})
+            .plus(key, hash, value, shift, added);
+      }
+      for (int i = 0; i < array.length; i += 2) {
+        if (equal(key, array[i])) {
+          return array[i + 1] == value ? this
+              : new CollisionNode(hash, replaced(array, i + 1, value));
+        }
+      }
+      Object[] newArray = new Object[array.length + 2];
+      System.arraycopy(array, 0, newArray, 0, array.length);
+      newArray[array.length] = key;
+      newArray[array.length + 1] = value;
+      added[0] = true;
+      return new CollisionNode(hash, newArray);
+    }
+  }
+
+  /**
+   * Iterates entries depth first, keeping the arrays of the nodes on the current path.
+   */
+  private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+    private final Object[][] arrays = new Object[MAX_DEPTH + 1][];
+    private final int[] positions = new int[MAX_DEPTH + 1];
+    private int depth;
+    private Entry<K, V> next;
+
+    EntryIterator(Node root) {
+      if (root == null) {
+        depth = -1;
+      } else {
+        arrays[0] = root.array;
+      }
+      advance();
+    }
+
+    private void advance() {
+      next = null;
+      while (depth >= 0) {
+        Object[] array = arrays[depth];
+        int position = positions[depth];
+        if (position >= array.length) {
+          depth--;
+          continue;
+        }
+        positions[depth] = position + 2;
+        if (array[position] == NODE) {
+          depth++;
+          arrays[depth] = ((Node) array[position + 1]).array;
+          positions[depth] = 0;
+          continue;
+        }
+        next = new SimpleImmutableEntry<>(
+            CollectionUtil.<K>uncheckedCast(array[position]),
+            CollectionUtil.<V>uncheckedCast(array[position + 1]));
+        return;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Entry<K, V> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Entry<K, V> result = next;
+      advance();
+      return result;
+    }
+  }
+}
@@ -37,14 +37,46 @@ public class RequestBatch {
   // filtered requests that will be sent
   List<Map<String, Object>> requestsToSend;
   String jsonEncoded;
+  // rowids of the first and the last persisted request, firstRowId is greater than lastRowId
+  // when the range is not known
+  final long firstRowId;
+  final long lastRowId;
 
   public RequestBatch(
       @NonNull List<Map<String, Object>> requests,
       @NonNull List<Map<String, Object>> requestsToSend,
       @NonNull String jsonEncoded) {
+    this(requests, requestsToSend, jsonEncoded, 0, -1);
+  }
+
+  public RequestBatch(
+      @NonNull List<Map<String, Object>> requests,
+      @NonNull List<Map<String, Object>> requestsToSend,
+      @NonNull String jsonEncoded,
+      long firstRowId,
+      long lastRowId) {
     this.requests = requests;
     this.requestsToSend = requestsToSend;
     this.jsonEncoded = jsonEncoded;
+    this.firstRowId = firstRowId;
+    this.lastRowId = lastRowId;
+  }
+
+  /**
+   * Fields that are not included in the requests of the batch, because they are the same for all
+   * of them. They are sent once with the batch.
+   *
+   * @return Shared fields or null if requests have all their fields.
+   */
+  public Map<String, Object> getSharedParams() {
+    return null;
+  }
+
+  /**
+   * Whether the batch knows the rowids of the persisted requests it contains.
+   */
+  public boolean hasRowIdRange() {
+    return firstRowId <= lastRowId;
   }
 
   public int getEventsCount() {
@@ -59,7 +91,21 @@ public class RequestBatch {
     return getEventsCount() == RequestBatchFactory.MAX_EVENTS_PER_API_CALL;
   }
 
+  /**
+   * @return Size of the stored events of the batch in bytes, or 0 if it is not known.
+   */
+  public long getStoredBytes() {
+    return 0;
+  }
+
   public String getJson() {
     return jsonEncoded;
   }
+
+  /**
+   * Gets the value of the data parameter of the multi request.
+   */
+  public Object getData() {
+    return getJson();
+  }
 }
@@ -27,12 +27,43 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 public class RequestBatchFactory {
 
   static final int MAX_EVENTS_PER_API_CALL = 10000;
 
   private final RequestUuidHelper uuidHelper = new RequestUuidHelper();
+  private final UploadByteBudget byteBudget = new UploadByteBudget();
+
+  private boolean streamingEnabled = true;
+  private volatile boolean sharedParamsEnabled;
+
+  /**
+   * Whether batches are written to the request body directly from the database, instead of being
+   * loaded in memory and encoded to a String. Enabled by default.
+   */
+  public void setStreamingEnabled(boolean streamingEnabled) {
+    this.streamingEnabled = streamingEnabled;
+  }
+
+  /**
+   * Whether the fields shared by the requests of a streamed batch, like userId or token, are sent
+   * once in the multi request instead of in every request. The server must apply the multi request
+   * fields to every request without them. Disabled by default, requests have all their fields.
+   */
+  public void setSharedParamsEnabled(boolean sharedParamsEnabled) {
+    this.sharedParamsEnabled = sharedParamsEnabled;
+  }
+
+  /**
+   * Budget that limits the size of streamed batches, see {@link UploadByteBudget}.
+   */
+  UploadByteBudget getByteBudget() {
+    return byteBudget;
+  }
 
   /**
    * In the presence of errors we do not send any events but only the errors.
@@ -52,9 +83,152 @@ public class RequestBatchFactory {
    * Creates batch with all saved events with count of up to {@link #MAX_EVENTS_PER_API_CALL}.
    */
   public RequestBatch createNextBatch() {
+    if (streamingEnabled) {
+      RequestBatch batch = createStreamingBatch();
+      if (batch != null) {
+        return batch;
+      }
+    }
     return createNextBatch(1.0);
   }
 
+  /**
+   * Creates up to maxBatches batches with consecutive saved events, so they can be uploaded at the
+   * same time. Every batch, except the last one, has {@link #MAX_EVENTS_PER_API_CALL} events or
+   * the events that fit in the byte budget. Falls back to a single batch if events cannot be
+   * streamed from the database.
+   *
+   * @param maxBatches Maximum number of batches to create.
+   * @return Batches in order of the saved events, or an empty list if there are no events.
+   */
+  public List<RequestBatch> createNextBatches(int maxBatches) {
+    List<RequestBatch> batches = new ArrayList<>();
+    if (streamingEnabled) {
+      LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+      long maxBytes = byteBudget.getBudget();
+      long lastRowId = 0;
+      while (batches.size() < maxBatches) {
+        long[] range = dataManager.getEventsRange(lastRowId, MAX_EVENTS_PER_API_CALL, maxBytes);
+        if (range == null) {
+          break;
+        }
+        if (batches.isEmpty()) {
+          // start new batch id for subsequent requests
+          uuidHelper.deleteUuid();
+        }
+        if (range[0] == 0) {
+          return batches;
+        }
+        RequestBatch batch = createStreamingBatch(range);
+        batches.add(batch);
+        if (!batch.isFull()) {
+          return batches;
+        }
+        lastRowId = range[2];
+      }
+      if (!batches.isEmpty()) {
+        return batches;
+      }
+    }
+    RequestBatch batch = createNextBatch(1.0);
+    if (!batch.isEmpty()) {
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  /**
+   * Creates batch that reads the saved events from the database only when it is written, see
+   * {@link StreamingRequestBatch}. Batch has up to {@link #MAX_EVENTS_PER_API_CALL} events, and
+   * only as many as fit in the byte budget.
+   *
+   * @return The batch or null if events could not be read.
+   */
+  @VisibleForTesting
+  protected RequestBatch createStreamingBatch() {
+    long[] range = LeanplumEventDataManager.sharedInstance().getEventsRange(
+        0, MAX_EVENTS_PER_API_CALL, byteBudget.getBudget());
+    if (range == null) {
+      return null;
+    }
+
+    // start new batch id for subsequent requests
+    uuidHelper.deleteUuid();
+
+    if (range[0] == 0) {
+      return new StreamingRequestBatch(0, 0, -1);
+    }
+    return createStreamingBatch(range);
+  }
+
+  /**
+   * Creates batch for the range of events. If shared params are enabled, the context of the first
+   * event is sent once with the batch, and the events with the same context are sent without it.
+   * Otherwise every event is sent with its context.
+   *
+   * If the batch ends in the middle of the events with the same batch uuid, its events get a
+   * new batch uuid. Like for partial batches in {@link #getUnsentRequests}, server must not take
+   * the remaining events for already received ones.
+   *
+   * @param range Events range, see {@link LeanplumEventDataManager#getEventsRange(long, int,
+   * long)}.
+   */
+  private RequestBatch createStreamingBatch(long[] range) {
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    if (range[5] == 1) {
+      dataManager.replaceUuid(range[1], range[2], UUID.randomUUID().toString());
+    }
+    long contextId = sharedParamsEnabled ? dataManager.getEventContextId(range[1]) : -1;
+    String context = contextId != -1 ? dataManager.getContextJson(contextId) : null;
+    Map<String, Object> sharedParams = null;
+    if (context != null) {
+      try {
+        sharedParams = JsonConverter.mapFromJson(new JSONObject(context));
+      } catch (JSONException e) {
+        Log.e("Unable to parse shared params.", e);
+      }
+    }
+    if (sharedParams != null && !Constants.LEANPLUM_VERSION.equals(
+        sharedParams.get(Constants.Params.SDK_VERSION))) {
+      // Requests saved by another version of the SDK keep their own sdkVersion.
+      sharedParams = null;
+    }
+    return new StreamingRequestBatch((int) range[0], range[1], range[2], range[3], range[4] == 1,
+        contextId, sharedParams);
+  }
+
+  /**
+   * Creates batch with the critical events saved after all other events, so their response does
+   * not wait for the other events to be uploaded, see
+   * {@link LeanplumEventDataManager#getCriticalEventsRange(int)}.
+   *
+   * @return The batch, or null if there are no such events or events cannot be streamed.
+   */
+  public RequestBatch createCriticalBatch() {
+    return createCriticalBatch(false);
+  }
+
+  /**
+   * Same as {@link #createCriticalBatch()}, but can create the batch also when all saved events
+   * are critical, e.g. when the other requests are not sent until a retry.
+   *
+   * @param includeOnlyCritical Whether to create the batch when there are no other events.
+   */
+  public RequestBatch createCriticalBatch(boolean includeOnlyCritical) {
+    if (!streamingEnabled) {
+      return null;
+    }
+    long[] range = LeanplumEventDataManager.sharedInstance()
+        .getCriticalEventsRange(MAX_EVENTS_PER_API_CALL, includeOnlyCritical);
+    if (range == null || range[0] == 0) {
+      return null;
+    }
+
+    // start new batch id for subsequent requests
+    uuidHelper.deleteUuid();
+    return createStreamingBatch(range);
+  }
+
   /**
    * @param fraction Decimal from 0 to 1. It says what part of all saved events to include in batch.
    */
@@ -63,17 +237,23 @@ public class RequestBatchFactory {
     try {
       List<Map<String, Object>> requests;
       List<Map<String, Object>> requestsToSend;
+      long[] range = null;
 
       if (fraction < 0.01) { //base case
         requests = new ArrayList<>(0);
         requestsToSend = new ArrayList<>(0);
       } else {
+        range = LeanplumEventDataManager.sharedInstance().getEventsRange(
+            (int) (fraction * MAX_EVENTS_PER_API_CALL));
         requests = getUnsentRequests(fraction);
         requestsToSend = removeIrrelevantBackgroundStartRequests(requests);
       }
 
       String jsonEncoded = jsonEncodeRequests(requestsToSend);
 
+      if (range != null && range[0] > 0 && range[0] == requests.size()) {
+        return new RequestBatch(requests, requestsToSend, jsonEncoded, range[1], range[2]);
+      }
       return new RequestBatch(requests, requestsToSend, jsonEncoded);
     } catch (OutOfMemoryError oom) {
       // half the requests will need less memory, recursively
@@ -146,12 +326,17 @@ public class RequestBatchFactory {
   }
 
   public void deleteFinishedBatch(@NonNull RequestBatch batch) {
-    // Currently no enumeration of the requests so removing the first ones in the queue
     int eventsCount = batch.getEventsCount();
     if (eventsCount == 0) {
       return;
     }
-    LeanplumEventDataManager.sharedInstance().deleteEvents(eventsCount);
+    if (batch.hasRowIdRange()) {
+      // Deleting exactly the sent requests, so requests saved during the upload are kept.
+      LeanplumEventDataManager.sharedInstance().deleteEvents(batch.firstRowId, batch.lastRowId);
+    } else {
+      // Batch does not know its requests so removing the first ones in the queue
+      LeanplumEventDataManager.sharedInstance().deleteEvents(eventsCount);
+    }
   }
 
 }
@@ -28,16 +28,40 @@ import com.leanplum.internal.Request.RequestType;
 import com.leanplum.internal.http.NetworkOperation;
 import com.leanplum.migration.MigrationManager;
 import com.leanplum.migration.model.MigrationState;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 public class RequestSender {
 
+  private static final int BATCH_DELIVERED = 0;
+  private static final int BATCH_RESEND = 1;
+  private static final int BATCH_RETRY = 2;
+  private static final int BATCH_FAILED = 3;
+
+  // Fields of a request that are the same for most requests. They are stored once, see
+  // LeanplumEventDataManager.insertEvent, and sent once per batch if shared params are enabled.
+  private static final String[] SHARED_PARAMS = {
+      Constants.Params.DEVICE_ID,
+      Constants.Params.USER_ID,
+      Constants.Params.SDK_VERSION,
+      Constants.Params.DEV_MODE,
+      Constants.Params.TOKEN,
+      Constants.Params.CT_DUPLICATE
+  };
+
+  private static final String UPLOAD_EXECUTOR_NAME = "com.leanplum.uploads";
+
   private static RequestSender INSTANCE = new RequestSender();
 
   private final LeanplumEventCallbackManager eventCallbackManager =
@@ -48,6 +72,26 @@ public class RequestSender {
 
   private final List<Map<String, Object>> localErrors = new ArrayList<>();
 
+  private volatile boolean priorityLanesEnabled = true;
+  private volatile int maxBatchesInFlight = 1;
+  private volatile boolean pipeliningSuspended;
+  private BoundedExecutor uploadExecutor;
+
+  private volatile int gzipThresholdBytes = NetworkOperation.NO_COMPRESSION;
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong uncompressedBytesSent = new AtomicLong();
+
+  private final RetryScheduler retryScheduler = new RetryScheduler(new Runnable() {
+    @Override
+    public void run() {
+      try {
+        sendRequests();
+      } catch (Throwable t) {
+        Log.exception(t);
+      }
+    }
+  });
+
   @VisibleForTesting
   public RequestSender() {
   }
@@ -87,7 +131,12 @@ public class RequestSender {
       if (!uuidHelper.attachUuid(args)) {
         return;
       }
-      LeanplumEventDataManager.sharedInstance().insertEvent(JsonConverter.toJson(args));
+      Map<String, Object> sharedParams = removeSharedParams(args);
+      // Batch uuid is stored in its own column, not in the json.
+      Object uuid = args.remove(Constants.Params.UUID);
+      String event = JsonConverter.toJson(args);
+      args.put(Constants.Params.UUID, uuid);
+      LeanplumEventDataManager.sharedInstance().insertEvent(event, args, sharedParams);
 
       // Checks if here response and/or error callback for this request. We need to add callbacks to
       // eventCallbackManager only if here was internet connection, otherwise triggerErrorCallback
@@ -101,6 +150,22 @@ public class RequestSender {
     }
   }
 
+  /**
+   * Removes the fields that are the same for most requests.
+   *
+   * @param args Request arguments.
+   * @return Removed fields, in the same order for every request.
+   */
+  private static Map<String, Object> removeSharedParams(Map<String, Object> args) {
+    Map<String, Object> sharedParams = new LinkedHashMap<>();
+    for (String key : SHARED_PARAMS) {
+      if (args.containsKey(key)) {
+        sharedParams.put(key, args.remove(key));
+      }
+    }
+    return sharedParams;
+  }
+
   private RequestBatch createNextBatch() {
     // Check if we have localErrors, if yes then we will send only errors to the server.
     if (localErrors.size() > 0)
@@ -109,93 +174,369 @@ public class RequestSender {
       return batchFactory.createNextBatch();
   }
 
+  /**
+   * Sets how many batches can be uploaded at the same time when saved events do not fit in one
+   * API call. Batches are acknowledged in order, so a batch is deleted only after all batches
+   * before it were delivered.
+   *
+   * @param maxBatchesInFlight Maximum number of concurrent uploads, 1 uploads batches one by one.
+   */
+  public void setMaxBatchesInFlight(int maxBatchesInFlight) {
+    this.maxBatchesInFlight = maxBatchesInFlight;
+    this.pipeliningSuspended = false;
+  }
+
+  /**
+   * Sets whether the callbacks of the requests answered by one response are run as a single task
+   * of the callback executor, see {@link LeanplumEventCallbackManager}.
+   */
+  public void setCallbackBatchingEnabled(boolean callbackBatchingEnabled) {
+    eventCallbackManager.setBatchCallbacks(callbackBatchingEnabled);
+  }
+
+  /**
+   * Sets whether fields shared by the requests of a batch are sent once with the batch, see
+   * {@link RequestBatchFactory#setSharedParamsEnabled(boolean)}.
+   */
+  public void setSharedParamsEnabled(boolean sharedParamsEnabled) {
+    batchFactory.setSharedParamsEnabled(sharedParamsEnabled);
+  }
+
+  /**
+   * Sets the minimal size of the multi request body to send it gzip compressed.
+   *
+   * @param gzipThresholdBytes Minimal body size in bytes, or
+   * {@link NetworkOperation#NO_COMPRESSION} to never compress it.
+   */
+  public void setGzipThreshold(int gzipThresholdBytes) {
+    this.gzipThresholdBytes = gzipThresholdBytes;
+  }
+
+  /**
+   * @return Number of bytes of the multi request bodies sent over the network.
+   */
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  /**
+   * @return Number of bytes of the multi request bodies sent, before they were compressed.
+   */
+  public long getUncompressedBytesSent() {
+    return uncompressedBytesSent.get();
+  }
+
+  /**
+   * @return Scheduler of retries after server errors, with retry metrics.
+   */
+  public RetryScheduler getRetryScheduler() {
+    return retryScheduler;
+  }
+
+  @VisibleForTesting
+  boolean isPipeliningSuspended() {
+    return pipeliningSuspended;
+  }
+
+  @VisibleForTesting
+  void setPriorityLanesEnabled(boolean priorityLanesEnabled) {
+    this.priorityLanesEnabled = priorityLanesEnabled;
+  }
+
   @VisibleForTesting
   public void sendRequests() {
     Leanplum.countAggregator().sendAllCounts();
 
+    boolean waitingForRetry = retryScheduler.isWaitingForRetry();
+    if (priorityLanesEnabled && localErrors.isEmpty()) {
+      // Critical requests are not held back by the backoff, variables and messages wait for them.
+      if (!sendCriticalRequests(waitingForRetry)) {
+        return;
+      }
+      // Delivered critical requests end the backoff.
+      waitingForRetry = retryScheduler.isWaitingForRetry();
+    }
+
+    if (waitingForRetry) {
+      // Requests are kept until the scheduled retry.
+      return;
+    }
+
+    if (maxBatchesInFlight > 1 && !pipeliningSuspended && localErrors.isEmpty()) {
+      sendRequestsPipelined();
+      return;
+    }
+
     RequestBatch batch = createNextBatch();
 
     if (batch.isEmpty()) {
       return;
     }
 
+    Map<String, Object> multiRequestArgs = createMultiRequestArgs(batch);
+    if (multiRequestArgs == null) {
+      return;
+    }
+
+    try {
+      UploadResult result = upload(multiRequestArgs);
+      int status = handleUploadResult(batch, result);
+      if (status == BATCH_RETRY) {
+        retryScheduler.onFailure(result.retryAfterMillis);
+        return;
+      }
+      if (status == BATCH_DELIVERED) {
+        retryScheduler.onSuccess();
+        if (!batch.isFull()) {
+          // All saved requests are delivered, next ones can be uploaded concurrently again.
+          pipeliningSuspended = false;
+        }
+      }
+
+      // Send another batch if the last batch had maximum events per api call.
+      if (status == BATCH_RESEND || (status == BATCH_DELIVERED && batch.isFull())) {
+        sendRequests();
+      }
+    } catch (Throwable t) {
+      Log.exception(t);
+    }
+  }
+
+  /**
+   * Sends the critical requests, like start or getVars, in their own multi request before the
+   * other saved requests, see {@link RequestBatchFactory#createCriticalBatch()}. This way
+   * variables and messages do not wait for a backlog of saved requests to be uploaded.
+   *
+   * @param waitingForRetry Whether other requests wait for a retry, so the critical requests are
+   * sent even if there are no other requests to send ahead of.
+   * @return False if the upload failed and other requests should not be sent now.
+   */
+  private boolean sendCriticalRequests(boolean waitingForRetry) {
+    RequestBatch batch = batchFactory.createCriticalBatch(waitingForRetry);
+    if (batch == null || batch.isEmpty()) {
+      return true;
+    }
+
+    Map<String, Object> multiRequestArgs = createMultiRequestArgs(batch);
+    if (multiRequestArgs == null) {
+      return false;
+    }
+
+    UploadResult result = upload(multiRequestArgs);
+    int status = handleUploadResult(batch, result);
+    if (status == BATCH_RETRY) {
+      retryScheduler.onFailure(result.retryAfterMillis);
+      return false;
+    }
+    if (status == BATCH_DELIVERED) {
+      retryScheduler.onSuccess();
+    }
+    return status != BATCH_FAILED;
+  }
+
+  /**
+   * Uploads up to {@link #maxBatchesInFlight} batches at the same time and handles the responses
+   * in order of the batches. Handling stops at the first batch that was not delivered, and the
+   * batches after it are kept to be sent again, even if their upload succeeded. Server ignores
+   * the requests it already received by their batch uuid and request id.
+   */
+  private void sendRequestsPipelined() {
+    List<RequestBatch> batches = batchFactory.createNextBatches(maxBatchesInFlight);
+    if (batches.isEmpty()) {
+      return;
+    }
+
+    BoundedExecutor executor = getUploadExecutor();
+    List<Future<UploadResult>> uploads = new ArrayList<>(batches.size());
+    for (RequestBatch batch : batches) {
+      final Map<String, Object> multiRequestArgs = createMultiRequestArgs(batch);
+      if (multiRequestArgs == null) {
+        // Responses of the batches that are already uploading are still handled below.
+        break;
+      }
+      uploads.add(executor.submit(new Callable<UploadResult>() {
+        @Override
+        public UploadResult call() {
+          return upload(multiRequestArgs);
+        }
+      }));
+    }
+
+    try {
+      boolean sendNext = false;
+      UploadResult retryResult = null;
+      for (int i = 0; i < uploads.size(); i++) {
+        RequestBatch batch = batches.get(i);
+        UploadResult result = uploads.get(i).get();
+        int status = handleUploadResult(batch, result);
+        if (status != BATCH_DELIVERED) {
+          if (status == BATCH_RETRY) {
+            if (result.statusCode != -1) {
+              // Server is overloaded, do not send more than one batch at a time.
+              Log.i("Uploading batches one by one after HTTP error " + result.statusCode);
+              pipeliningSuspended = true;
+            }
+            retryResult = result;
+          }
+          sendNext = status == BATCH_RESEND;
+          break;
+        }
+        retryScheduler.onSuccess();
+        sendNext = batch.isFull() && i == batches.size() - 1;
+      }
+
+      if (retryResult != null) {
+        retryScheduler.onFailure(retryResult.retryAfterMillis);
+      } else if (sendNext) {
+        sendRequests();
+      }
+    } catch (ExecutionException e) {
+      Log.exception(e.getCause());
+    } catch (Throwable t) {
+      Log.exception(t);
+    }
+  }
+
+  /**
+   * @return Executor with a named daemon thread for each batch in flight.
+   */
+  private synchronized BoundedExecutor getUploadExecutor() {
+    int threadCount = maxBatchesInFlight;
+    if (uploadExecutor == null || uploadExecutor.getThreadCount() != threadCount) {
+      if (uploadExecutor != null) {
+        uploadExecutor.shutdown();
+      }
+      uploadExecutor = new BoundedExecutor(UPLOAD_EXECUTOR_NAME, threadCount);
+    }
+    return uploadExecutor;
+  }
+
+  private Map<String, Object> createMultiRequestArgs(RequestBatch batch) {
     final Map<String, Object> multiRequestArgs = new HashMap<>();
     if (!APIConfig.getInstance().attachApiKeys(multiRequestArgs)) {
-      return;
+      return null;
+    }
+    Map<String, Object> sharedParams = batch.getSharedParams();
+    if (sharedParams != null) {
+      // Requests of the batch with the same values do not contain them.
+      multiRequestArgs.putAll(sharedParams);
     }
-    multiRequestArgs.put(Constants.Params.DATA, batch.getJson());
+    multiRequestArgs.put(Constants.Params.DATA, batch.getData());
     multiRequestArgs.put(Constants.Params.SDK_VERSION, Constants.LEANPLUM_VERSION);
     multiRequestArgs.put(Constants.Params.ACTION, RequestBuilder.ACTION_MULTI);
     multiRequestArgs.put(Constants.Params.TIME, Double.toString(new Date().getTime() / 1000.0));
+    return multiRequestArgs;
+  }
 
+  /**
+   * Sends the multi request and reads the response. Errors are returned in the result, so the
+   * upload can run on any thread.
+   */
+  private UploadResult upload(Map<String, Object> multiRequestArgs) {
+    UploadResult result = new UploadResult();
+    result.networkType = Util.getNetworkType();
+    long start = Clock.getInstance().currentTimeMillis();
     NetworkOperation op = null;
     try {
-      try {
-        op = new NetworkOperation(
-            APIConfig.getInstance().getApiHost(),
-            APIConfig.getInstance().getApiPath(),
-            multiRequestArgs,
-            RequestBuilder.POST,
-            APIConfig.getInstance().getApiSSL(),
-            Constants.NETWORK_TIMEOUT_SECONDS);
-
-        JSONObject responseBody = op.getJsonResponse();
-        int statusCode = op.getResponseCode();
-
-        if (statusCode >= 200 && statusCode <= 299) {
-          if (RequestUtil.updateApiConfig(responseBody)) {
-            // API config is changed and we need to send requests again
-            sendRequests();
-            return;
-          }
+      op = new NetworkOperation(
+          APIConfig.getInstance().getApiHost(),
+          APIConfig.getInstance().getApiPath(),
+          multiRequestArgs,
+          RequestBuilder.POST,
+          APIConfig.getInstance().getApiSSL(),
+          Constants.NETWORK_TIMEOUT_SECONDS,
+          gzipThresholdBytes);
+      bytesSent.addAndGet(op.getRequestBodyLength());
+      uncompressedBytesSent.addAndGet(op.getUncompressedRequestBodyLength());
+
+      result.responseBody = op.getJsonResponse();
+      result.statusCode = op.getResponseCode();
+      result.retryAfterMillis = op.getRetryAfterMillis();
+      result.millis = Clock.getInstance().currentTimeMillis() - start;
+    } catch (Exception e) {
+      result.exception = e;
+    } finally {
+      if (op != null) {
+        op.disconnect();
+      }
+    }
+    return result;
+  }
 
-          if (MigrationManager.refreshStateMidSession(responseBody)) {
-            Log.i("Migration state will be refreshed.");
-          }
+  /**
+   * Adapts the size of next batches to the duration of the upload, see {@link UploadByteBudget}.
+   */
+  private void updateByteBudget(RequestBatch batch, UploadResult result) {
+    UploadByteBudget byteBudget = batchFactory.getByteBudget();
+    if (result.exception instanceof SocketTimeoutException || result.statusCode == 408) {
+      byteBudget.onUploadTimedOut(result.networkType);
+    } else if (result.exception == null && result.statusCode >= 200 && result.statusCode <= 299
+        && batch.getStoredBytes() > 0) {
+      byteBudget.onUploadSucceeded(result.networkType, batch.getStoredBytes(), result.millis);
+    }
+  }
 
-          // Parse response body and trigger callbacks
-          invokeCallbacks(responseBody);
+  /**
+   * Invokes the callbacks for the response of the batch and deletes the batch if it does not need
+   * to be sent again.
+   *
+   * @return One of {@link #BATCH_DELIVERED}, {@link #BATCH_RESEND}, {@link #BATCH_RETRY} or
+   * {@link #BATCH_FAILED}.
+   */
+  private int handleUploadResult(RequestBatch batch, UploadResult result) {
+    updateByteBudget(batch, result);
+    try {
+      if (result.exception != null) {
+        throw result.exception;
+      }
+      JSONObject responseBody = result.responseBody;
+      int statusCode = result.statusCode;
 
-          // Clear localErrors list.
-          localErrors.clear();
-          batchFactory.deleteFinishedBatch(batch);
+      if (statusCode >= 200 && statusCode <= 299) {
+        if (RequestUtil.updateApiConfig(responseBody)) {
+          // API config is changed and we need to send requests again
+          return BATCH_RESEND;
+        }
 
-          // Send another batch if the last batch had maximum events per api call.
-          if (batch.isFull()) {
-            sendRequests();
-          }
-        } else {
-          String errorMessage = "HTTP error " + statusCode;
-          if (responseBody != null) {
-            errorMessage += ": " + responseBody.toString();
-          }
-          Log.i(errorMessage);
+        if (MigrationManager.refreshStateMidSession(responseBody)) {
+          Log.i("Migration state will be refreshed.");
+        }
 
-          if (statusCode != -1
-              && statusCode != 408
-              && statusCode != 429
-              && !(statusCode >= 500 && statusCode <= 599)) {
-            batchFactory.deleteFinishedBatch(batch);
-          }
+        // Parse response body and trigger callbacks
+        invokeCallbacks(responseBody);
 
-          Exception errorException = new Exception(errorMessage);
-          invokeCallbacksWithError(errorException);
-        }
-      } catch (JSONException e) {
-        Log.e("Error parsing JSON response: " + e.toString() + "\n" + Log.getStackTraceString(e));
+        // Clear localErrors list.
+        localErrors.clear();
         batchFactory.deleteFinishedBatch(batch);
-        invokeCallbacksWithError(e);
-      } catch (Exception e) {
-        Log.e("Unable to send request: " + e.toString() + "\n" + Log.getStackTraceString(e));
-        invokeCallbacksWithError(e);
-      } finally {
-        if (op != null) {
-          op.disconnect();
+        return BATCH_DELIVERED;
+      } else {
+        String errorMessage = "HTTP error " + statusCode;
+        if (responseBody != null) {
+          errorMessage += ": " + responseBody.toString();
         }
+        Log.i(errorMessage);
+
+        boolean retry = statusCode == -1
+            || statusCode == 408
+            || statusCode == 429
+            || (statusCode >= 500 && statusCode <= 599);
+        if (!retry) {
+          batchFactory.deleteFinishedBatch(batch);
+        }
+
+        Exception errorException = new Exception(errorMessage);
+        invokeCallbacksWithError(errorException);
+        return retry ? BATCH_RETRY : BATCH_FAILED;
       }
-    } catch (Throwable t) {
-      Log.exception(t);
+    } catch (JSONException e) {
+      Log.e("Error parsing JSON response: " + e.toString() + "\n" + Log.getStackTraceString(e));
+      batchFactory.deleteFinishedBatch(batch);
+      invokeCallbacksWithError(e);
+    } catch (Exception e) {
+      Log.e("Unable to send request: " + e.toString() + "\n" + Log.getStackTraceString(e));
+      invokeCallbacksWithError(e);
     }
+    return BATCH_FAILED;
   }
 
   @VisibleForTesting
@@ -286,4 +627,13 @@ public class RequestSender {
     return true;
   }
 
+  private static class UploadResult {
+    JSONObject responseBody;
+    int statusCode;
+    Exception exception;
+    int networkType;
+    long millis;
+    long retryAfterMillis = -1;
+  }
+
 }
@@ -3,6 +3,9 @@ package com.leanplum.internal;
 import android.text.TextUtils;
 import com.leanplum.Leanplum;
 import com.leanplum.internal.Constants.Params;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -37,6 +40,37 @@ public class RequestUtil {
         return null;
     }
 
+    /**
+     * Indexes the response json objects by request id, so the response for a request id is found
+     * without scanning the whole response array. Keys are in lower case, because request ids are
+     * compared ignoring case, see {@link #getResponseForId(JSONObject, String)}.
+     *
+     * @param response response body
+     * @return Map from lower case request id to the first JSONObject for it.
+     */
+    public static Map<String, JSONObject> getResponsesById(JSONObject response) {
+        Map<String, JSONObject> responses = new HashMap<>();
+        JSONArray jsonArray = response.optJSONArray(Constants.Params.RESPONSE);
+        if (jsonArray == null) {
+            return responses;
+        }
+        for (int i = 0; i < jsonArray.length(); i++) {
+            JSONObject jsonObject = jsonArray.optJSONObject(i);
+            if (jsonObject == null) {
+                continue;
+            }
+            String requestId = jsonObject.optString(Constants.Params.REQUEST_ID, null);
+            if (requestId == null) {
+                continue;
+            }
+            String key = requestId.toLowerCase(Locale.US);
+            if (!responses.containsKey(key)) {
+                responses.put(key, jsonObject);
+            }
+        }
+        return responses;
+    }
+
     /**
      * Checks whether particular response is successful or not
      *
@@ -24,6 +24,7 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import com.leanplum.Leanplum;
 import java.util.List;
 import java.util.Map;
@@ -36,9 +37,15 @@ import java.util.UUID;
  * Uuid needs to be persisted in the DB for each request for the server 'dedup' logic to work.
  * It checks both the uuid and reqId of the requests to ignore them if they had been sent multiple
  * times.
+ *
+ * The current uuid is kept in memory and shared by all instances. Shared prefs are read only
+ * once and written only when the uuid changes.
  */
 public class RequestUuidHelper {
 
+  private static String uuid;
+  private static boolean uuidLoaded;
+
   /**
    * Removes the uuid from shared prefs.
    */
@@ -47,6 +54,14 @@ public class RequestUuidHelper {
     if (context == null)
       return;
 
+    synchronized (RequestUuidHelper.class) {
+      if (uuidLoaded && uuid == null) {
+        return;
+      }
+      uuid = null;
+      uuidLoaded = true;
+    }
+
     SharedPreferences preferences = context.getSharedPreferences(
         Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE);
 
@@ -62,6 +77,11 @@ public class RequestUuidHelper {
   public @NonNull String saveNewUuid(Context context) {
     String newUuid = UUID.randomUUID().toString();
 
+    synchronized (RequestUuidHelper.class) {
+      uuid = newUuid;
+      uuidLoaded = true;
+    }
+
     SharedPreferences prefs = context.getSharedPreferences(
         Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE);
 
@@ -73,9 +93,15 @@ public class RequestUuidHelper {
   }
 
   /**
-   * Loads the uuid from shared prefs.
+   * Loads the uuid from memory, or from shared prefs the first time.
    */
   public @Nullable String loadUuid() {
+    synchronized (RequestUuidHelper.class) {
+      if (uuidLoaded) {
+        return uuid;
+      }
+    }
+
     Context context = Leanplum.getContext();
     if (context == null)
       return null;
@@ -83,7 +109,13 @@ public class RequestUuidHelper {
     SharedPreferences prefs = context.getSharedPreferences(
         Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE);
 
-    return prefs.getString(Constants.Defaults.UUID_KEY, null);
+    synchronized (RequestUuidHelper.class) {
+      if (!uuidLoaded) {
+        uuid = prefs.getString(Constants.Defaults.UUID_KEY, null);
+        uuidLoaded = true;
+      }
+      return uuid;
+    }
   }
 
   /**
@@ -113,4 +145,13 @@ public class RequestUuidHelper {
     }
   }
 
+  /**
+   * Forgets the uuid kept in memory, so it is loaded from shared prefs again.
+   */
+  @VisibleForTesting
+  static synchronized void clearCache() {
+    uuid = null;
+    uuidLoaded = false;
+  }
+
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import com.leanplum.Leanplum;
+import java.util.Random;
+
+/**
+ * Schedules sending of requests again after the server could not handle them, e.g. responded
+ * with 429 or 5xx. Delay grows exponentially with every failed attempt up to a cap, and a random
+ * delay up to it is used (full jitter), so clients do not retry at the same time. A longer delay
+ * requested by the server with Retry-After is respected.
+ *
+ * Until the retry is due, requests are only saved and not sent, except for the critical requests
+ * like start, see {@link RequestSender#sendRequests()}. Their successful upload resets the
+ * backoff. The number of attempts and the time of the next retry are kept in shared prefs, so the
+ * backoff continues after the app is restarted.
+ */
+public class RetryScheduler {
+  static final long BASE_DELAY_MILLIS = 5 * 1000;
+  static final long MAX_DELAY_MILLIS = 10 * 60 * 1000;
+  static final long MAX_RETRY_AFTER_MILLIS = 60 * 60 * 1000;
+
+  private final Runnable retry;
+  private final Random random;
+
+  private boolean loaded;
+  private int attempts;
+  private long nextRetryMillis;
+  private boolean retryScheduled;
+
+  private long retryCount;
+  private long lastBackoffMillis;
+  private long totalBackoffMillis;
+
+  private final Runnable retryOperation = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (RetryScheduler.this) {
+        retryScheduled = false;
+        nextRetryMillis = 0;
+      }
+      retry.run();
+    }
+  };
+
+  /**
+   * @param retry Operation that sends the requests, run on {@link OperationQueue}.
+   */
+  RetryScheduler(@NonNull Runnable retry) {
+    this(retry, new Random());
+  }
+
+  @VisibleForTesting
+  RetryScheduler(@NonNull Runnable retry, @NonNull Random random) {
+    this.retry = retry;
+    this.random = random;
+  }
+
+  /**
+   * Whether requests should not be sent until the scheduled retry. Schedules the retry if it was
+   * persisted before the app was restarted.
+   */
+  synchronized boolean isWaitingForRetry() {
+    load();
+    long delay = nextRetryMillis - Clock.getInstance().currentTimeMillis();
+    if (nextRetryMillis == 0 || delay <= 0) {
+      return false;
+    }
+    if (!retryScheduled) {
+      // Retry time is from previous run of the app, wall clock might have changed meanwhile.
+      scheduleRetry(Math.min(delay, MAX_RETRY_AFTER_MILLIS));
+    }
+    return true;
+  }
+
+  /**
+   * Schedules the next retry after the requests failed. A retry that is still pending is replaced,
+   * so only one retry is scheduled at a time.
+   *
+   * @param retryAfterMillis Delay requested by the server, or -1 if none.
+   */
+  synchronized void onFailure(long retryAfterMillis) {
+    load();
+    attempts++;
+    long cap = MAX_DELAY_MILLIS;
+    if (attempts < 32) {
+      cap = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << (attempts - 1));
+    }
+    long delay = (long) (random.nextDouble() * cap);
+    if (retryAfterMillis > delay) {
+      delay = Math.min(retryAfterMillis, MAX_RETRY_AFTER_MILLIS);
+    }
+
+    retryCount++;
+    lastBackoffMillis = delay;
+    totalBackoffMillis += delay;
+    Log.d("Retrying to send requests in %s ms, attempt %s.", delay, attempts);
+
+    nextRetryMillis = Clock.getInstance().currentTimeMillis() + delay;
+    save();
+    scheduleRetry(delay);
+  }
+
+  /**
+   * Resets the backoff after the requests were sent.
+   */
+  synchronized void onSuccess() {
+    load();
+    if (attempts == 0 && nextRetryMillis == 0) {
+      return;
+    }
+    attempts = 0;
+    nextRetryMillis = 0;
+    save();
+  }
+
+  private void scheduleRetry(long delayMillis) {
+    if (retryScheduled) {
+      OperationQueue.sharedInstance().removeOperation(retryOperation);
+    }
+    retryScheduled = true;
+    OperationQueue.sharedInstance().addOperationAfterDelay(retryOperation, delayMillis);
+  }
+
+  /**
+   * @return Number of failed attempts since requests were last sent.
+   */
+  public synchronized int getAttempts() {
+    load();
+    return attempts;
+  }
+
+  /**
+   * @return Number of retries scheduled since the app was started.
+   */
+  public synchronized long getRetryCount() {
+    return retryCount;
+  }
+
+  /**
+   * @return Delay of the last scheduled retry in milliseconds.
+   */
+  public synchronized long getLastBackoffMillis() {
+    return lastBackoffMillis;
+  }
+
+  /**
+   * @return Sum of delays of all scheduled retries in milliseconds.
+   */
+  public synchronized long getTotalBackoffMillis() {
+    return totalBackoffMillis;
+  }
+
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    Context context = Leanplum.getContext();
+    if (context == null) {
+      return;
+    }
+    SharedPreferences prefs = context.getSharedPreferences(
+        Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE);
+    attempts = prefs.getInt(Constants.Defaults.RETRY_ATTEMPTS_KEY, 0);
+    nextRetryMillis = prefs.getLong(Constants.Defaults.NEXT_RETRY_KEY, 0);
+    loaded = true;
+  }
+
+  private void save() {
+    Context context = Leanplum.getContext();
+    if (context == null) {
+      return;
+    }
+    SharedPreferences.Editor editor = context.getSharedPreferences(
+        Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE).edit();
+    if (attempts == 0) {
+      editor.remove(Constants.Defaults.RETRY_ATTEMPTS_KEY);
+      editor.remove(Constants.Defaults.NEXT_RETRY_KEY);
+    } else {
+      editor.putInt(Constants.Defaults.RETRY_ATTEMPTS_KEY, attempts);
+      editor.putLong(Constants.Defaults.NEXT_RETRY_KEY, nextRetryMillis);
+    }
+    editor.apply();
+  }
+}
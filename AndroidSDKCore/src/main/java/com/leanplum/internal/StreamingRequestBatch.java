@@ -0,0 +1,170 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import androidx.annotation.NonNull;
+import com.leanplum.internal.LeanplumEventDataManager.EventReader;
+import com.leanplum.internal.http.StreamingParameter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Batch of stored requests that is not loaded in memory. The JSON of the requests is copied from
+ * the database row by row when the batch is written to the request body, so memory usage does not
+ * depend on the number of requests in the batch.
+ *
+ * Irrelevant background start requests are dropped while writing, see
+ * {@link RequestBatchFactory#removeIrrelevantBackgroundStartRequests}.
+ *
+ * Requests stored with the shared context of the batch are written without the context fields,
+ * which are sent once with the batch, see {@link #getSharedParams()}. Requests with another
+ * context are written with their context fields.
+ */
+class StreamingRequestBatch extends RequestBatch implements StreamingParameter {
+  private final int eventsCount;
+  private final long storedBytes;
+  private final boolean full;
+  private final long sharedContextId;
+  private final Map<String, Object> sharedParams;
+
+  StreamingRequestBatch(int eventsCount, long firstRowId, long lastRowId) {
+    this(eventsCount, firstRowId, lastRowId, 0,
+        eventsCount == RequestBatchFactory.MAX_EVENTS_PER_API_CALL, -1, null);
+  }
+
+  /**
+   * @param storedBytes Size of the stored events.
+   * @param full Whether there were more events than fit in the batch.
+   * @param sharedContextId Rowid of the context sent with the batch, or -1 if none.
+   * @param sharedParams Fields of the context sent with the batch, or null if none.
+   */
+  StreamingRequestBatch(int eventsCount, long firstRowId, long lastRowId, long storedBytes,
+      boolean full, long sharedContextId, Map<String, Object> sharedParams) {
+    super(new ArrayList<>(0), new ArrayList<>(0), "", firstRowId, lastRowId);
+    this.eventsCount = eventsCount;
+    this.storedBytes = storedBytes;
+    this.full = full;
+    this.sharedContextId = sharedParams != null ? sharedContextId : -1;
+    this.sharedParams = sharedParams;
+  }
+
+  @Override
+  public Map<String, Object> getSharedParams() {
+    return sharedParams;
+  }
+
+  @Override
+  public int getEventsCount() {
+    return eventsCount;
+  }
+
+  @Override
+  public boolean isFull() {
+    return full;
+  }
+
+  @Override
+  public long getStoredBytes() {
+    return storedBytes;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    // The last request of the batch is never dropped.
+    return eventsCount == 0;
+  }
+
+  @Override
+  public String getJson() {
+    StringWriter writer = new StringWriter();
+    try {
+      writeTo(writer);
+    } catch (IOException e) {
+      Log.e("Unable to encode requests.", e);
+    }
+    return writer.toString();
+  }
+
+  @Override
+  public Object getData() {
+    return this;
+  }
+
+  /**
+   * Writes JSON in the same format as {@link RequestBatchFactory#jsonEncodeRequests}.
+   */
+  @Override
+  public void writeTo(@NonNull Writer writer) throws IOException {
+    writer.write("{\"" + Constants.Params.DATA + "\":[");
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    EventReader reader = null;
+    if (eventsCount > 0) {
+      reader = dataManager.openEvents(firstRowId, lastRowId);
+    }
+    if (reader != null) {
+      try {
+        boolean first = true;
+        String pending = null;
+        boolean pendingIsBackgroundStart = false;
+        while (reader.next()) {
+          boolean isStart = RequestBuilder.ACTION_START.equals(reader.getAction());
+          // Background start directly followed by another start is dropped.
+          if (pending != null && !(pendingIsBackgroundStart && isStart)) {
+            first = writeRequest(writer, pending, first);
+          }
+          pending = reader.getData();
+          long contextId = reader.getContextId();
+          if (contextId != -1 && contextId != sharedContextId) {
+            String context = dataManager.getContextJson(contextId);
+            if (context != null) {
+              pending = LeanplumEventDataManager.mergeJsonObjects(context, pending);
+            }
+          }
+          pendingIsBackgroundStart = isStart && reader.isBackground();
+        }
+        if (pending != null) {
+          writeRequest(writer, pending, first);
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    writer.write("]}");
+  }
+
+  @Override
+  public String toString() {
+    return "[" + eventsCount + " stored requests]";
+  }
+
+  private static boolean writeRequest(Writer writer, String json, boolean first)
+      throws IOException {
+    if (!first) {
+      writer.write(',');
+    }
+    writer.write(json);
+    return false;
+  }
+}
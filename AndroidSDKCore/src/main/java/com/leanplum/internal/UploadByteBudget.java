@@ -0,0 +1,88 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import androidx.annotation.VisibleForTesting;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Size of a batch of stored events in bytes, so the batch is uploaded well within the network
+ * timeout. Budget is kept for each network type and follows the upload throughput observed on
+ * it. It is halved when an upload times out.
+ */
+class UploadByteBudget {
+  static final long DEFAULT_BUDGET_BYTES = 512 * 1024;
+  static final long MIN_BUDGET_BYTES = 16 * 1024;
+  static final long MAX_BUDGET_BYTES = 4 * 1024 * 1024;
+
+  // Part of the network timeout an upload is expected to take.
+  private static final double TARGET_TIMEOUT_FRACTION = 0.25;
+
+  private final Map<Integer, Long> budgets = new HashMap<>();
+
+  /**
+   * @return Budget in bytes for the active network.
+   */
+  synchronized long getBudget() {
+    return getBudget(Util.getNetworkType());
+  }
+
+  @VisibleForTesting
+  synchronized long getBudget(int networkType) {
+    Long budget = budgets.get(networkType);
+    return budget != null ? budget : DEFAULT_BUDGET_BYTES;
+  }
+
+  /**
+   * Adapts the budget to the throughput of an upload. Uploads smaller than half of the budget are
+   * ignored, because their duration depends mostly on the latency.
+   *
+   * @param networkType Network the batch was uploaded on.
+   * @param bytes Size of the uploaded events.
+   * @param millis Duration of the upload.
+   */
+  synchronized void onUploadSucceeded(int networkType, long bytes, long millis) {
+    long budget = getBudget(networkType);
+    if (bytes < budget / 2) {
+      return;
+    }
+    double targetMillis = Constants.NETWORK_TIMEOUT_SECONDS * 1000 * TARGET_TIMEOUT_FRACTION;
+    long throughputBudget = (long) (bytes * targetMillis / Math.max(millis, 1));
+    // Grows at most twice per upload and moves half way to the observed throughput.
+    long newBudget = Math.min((budget + throughputBudget) / 2, budget * 2);
+    setBudget(networkType, newBudget);
+  }
+
+  /**
+   * Halves the budget after an upload timed out.
+   *
+   * @param networkType Network the batch was uploaded on.
+   */
+  synchronized void onUploadTimedOut(int networkType) {
+    setBudget(networkType, getBudget(networkType) / 2);
+  }
+
+  private void setBudget(int networkType, long budget) {
+    budgets.put(networkType, Math.max(MIN_BUDGET_BYTES, Math.min(MAX_BUDGET_BYTES, budget)));
+  }
+}
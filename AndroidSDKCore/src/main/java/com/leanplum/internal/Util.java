@@ -459,6 +459,27 @@ public class Util {
     }
   }
 
+  /**
+   * Gets the type of the active network, e.g. {@link ConnectivityManager#TYPE_WIFI}.
+   *
+   * @return Type of the network or -1 if it is not known.
+   */
+  public static int getNetworkType() {
+    try {
+      Context context = Leanplum.getContext();
+      ConnectivityManager manager = (ConnectivityManager) context.getSystemService(
+          Context.CONNECTIVITY_SERVICE);
+      if (manager == null) {
+        return -1;
+      }
+      NetworkInfo netInfo = manager.getActiveNetworkInfo();
+      return netInfo == null ? -1 : netInfo.getType();
+    } catch (Exception e) {
+      Log.d("Error getting connectivity info", e);
+      return -1;
+    }
+  }
+
   public static <T> T multiIndex(Map<?, ?> map, Object... indices) {
     if (map == null) {
       return null;
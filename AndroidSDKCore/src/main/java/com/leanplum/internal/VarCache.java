@@ -23,6 +23,7 @@ package com.leanplum.internal;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Trace;
 
 import android.text.TextUtils;
 import androidx.annotation.Nullable;
@@ -41,17 +42,30 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -68,11 +82,17 @@ public class VarCache {
   private static volatile String varsSignature;
 
   /**
-   * The default values set by the client. This is not thread-safe so traversals should be
-   * synchronized.
+   * The default values set by the client. Nested maps are persistent maps, so they can be shared
+   * with the merged values. Changes must be synchronized on this map.
    */
   public static final Map<String, Object> valuesFromClient = new HashMap<>();
 
+  /**
+   * Persistent copy of {@link #valuesFromClient} that the merged values are built from, sharing
+   * its nested maps. Changes must be synchronized on valuesFromClient.
+   */
+  private static PersistentMap<String, Object> clientTree = PersistentMap.empty();
+
   private static final Map<String, String> defaultKinds = new HashMap<>();
   private static final String LEANPLUM = "__leanplum__";
   private static Map<String, Object> diffs = new HashMap<>();
@@ -80,21 +100,66 @@ public class VarCache {
   private static Map<String, Object> messageDiffs = new HashMap<>();
   private static Map<String, Object> devModeValuesFromServer;
   private static Map<String, Object> devModeFileAttributesFromServer;
+
+  /**
+   * Hashes of the registered content, to find out without comparing all values whether the
+   * content changed since it was last compared with the development mode copy of the server.
+   */
+  private static final ContentHash variablesHash = new ContentHash();
+  private static final ContentHash filesHash = new ContentHash();
+  private static final ContentHash actionsHash = new ContentHash();
+  /** Hashes of the content when it was last compared or sent, null if not compared since. */
+  private static Long comparedVariablesHash;
+  private static Long comparedActionsHash;
+  /** Whether the content differed from the server copy when it was last compared. */
+  private static boolean variablesDiffered;
+  private static boolean actionsDiffered;
   private static volatile List<Map<String, Object>> variants = new ArrayList<>();
   private static volatile List<Map<String, Object>> localCaps = new ArrayList<>();
   private static CacheUpdateBlock updateBlock;
   private static boolean hasReceivedDiffs = false;
+  private static boolean updatedVarsAfterStart;
   private static Map<String, Object> messages = new HashMap<>();
-  private static Object merged;
+  /**
+   * Client values merged with the diffs. Each change publishes a new snapshot, and published
+   * snapshots are never modified, so they are read without locking.
+   */
+  private static volatile Object merged;
   private static boolean silent;
   private static int contentVersion;
   private static Map<String, Object> userAttributes;
   private static Map<String, Object> variantDebugInfo = new HashMap<>();
+  private static volatile boolean asyncLoadEnabled;
+  private static Future<ContentSnapshot.Content> preloadedContent;
+  private static CountDownLatch contentLoaded = new CountDownLatch(1);
+  /**
+   * Content sections changed since they were last saved, by index in
+   * {@link ContentSnapshot#SECTIONS}. Bits are set where the section fields are assigned, so
+   * {@link #saveDiffs()} only encodes and writes these sections. Access is synchronized on this
+   * set.
+   */
+  private static final BitSet dirtySections = new BitSet();
+  private static boolean loadingSnapshot;
+
+  static {
+    markAllSectionsDirty();
+  }
+  private static volatile long lastSaveBytesWritten;
+  private static final AtomicLong bytesWritten = new AtomicLong();
+  private static final List<Runnable> contentLoadedHandlers = new ArrayList<>();
 
   private static final String NAME_COMPONENT_REGEX = "(?:[^\\.\\[.(\\\\]+|\\\\.)+";
   private static final Pattern NAME_COMPONENT_PATTERN = Pattern.compile(NAME_COMPONENT_REGEX);
 
+  /**
+   * Splits the name into components, for example "group.subgroup" into "group" and "subgroup".
+   * Parsed names are cached, see {@link VarPath}.
+   */
   public static String[] getNameComponents(String name) {
+    return VarPath.of(name).components();
+  }
+
+  static String[] parseNameComponents(String name) {
     Matcher matcher = NAME_COMPONENT_PATTERN.matcher(name);
     List<String> components = new ArrayList<>();
     while (matcher.find()) {
@@ -165,6 +230,7 @@ public class VarCache {
 
     fileStreams.put(stringValue, defaultStream);
     fileAttributes.put(stringValue, variationAttributes);
+    filesHash.put(stringValue, variationAttributes.hashCode());
     maybeUploadNewFiles();
   }
 
@@ -195,6 +261,7 @@ public class VarCache {
     variationAttributes.put("", attributes);
     fileStreams.put(stringValue, defaultStream);
     fileAttributes.put(stringValue, variationAttributes);
+    filesHash.put(stringValue, variationAttributes.hashCode());
     maybeUploadNewFiles();
   }
 
@@ -218,10 +285,76 @@ public class VarCache {
   public static void registerVariable(Var<?> var) {
     vars.put(var.name(), var);
     synchronized (valuesFromClient) {
-      updateValues(
-          var.name(), var.nameComponents(), var.defaultValue(),
-          var.kind(), valuesFromClient, defaultKinds);
+      String[] nameComponents = var.nameComponents();
+      putCopyOnWrite(nameComponents, var.defaultValue());
+      defaultKinds.put(var.name(), var.kind());
+      merged = mergePath(merged, clientTree, diffs, nameComponents, 0);
+    }
+    variablesHash.put(var.name(), Objects.hash(var.defaultValue(), var.kind()));
+  }
+
+  /**
+   * Updates the hash of the action definitions after an action was defined.
+   */
+  public static void onActionDefined(String name, Map<String, Object> definition) {
+    actionsHash.put(name, definition.hashCode());
+  }
+
+  /**
+   * Puts value at the path of the client values, replacing the nested maps along the path with
+   * new persistent maps instead of modifying them.
+   */
+  private static void putCopyOnWrite(String[] nameComponents, Object value) {
+    if (nameComponents == null || nameComponents.length == 0) {
+      return;
+    }
+    Object parent = valuesFromClient;
+    for (int i = 0; i < nameComponents.length - 1 && parent != null; i++) {
+      parent = ((Map<?, ?>) parent).get(nameComponents[i]);
+      if (parent != null && !(parent instanceof Map)) {
+        return;
+      }
+    }
+    String key = nameComponents[0];
+    Object child = plusPath(valuesFromClient.get(key), nameComponents, 1, value);
+    valuesFromClient.put(key, child);
+    clientTree = clientTree.plus(key, child);
+  }
+
+  /**
+   * @return Persistent copy of the values with the value put at the path from the index.
+   */
+  private static Object plusPath(Object values, String[] nameComponents, int index, Object value) {
+    if (index == nameComponents.length) {
+      return value;
+    }
+    PersistentMap<String, Object> map = values == null ? PersistentMap.<String, Object>empty()
+        : PersistentMap.copyOf(CollectionUtil.<Map<String, Object>>uncheckedCast(values));
+    String key = nameComponents[index];
+    return map.plus(key, plusPath(map.get(key), nameComponents, index + 1, value));
+  }
+
+  /**
+   * Merges values at the path again, replacing only the merged maps along the path. Gives the same
+   * result as merging all values, because a merged map is the union of its merged children.
+   *
+   * @return New merged values.
+   */
+  private static Object mergePath(Object mergedValues, Object clientValues, Object diffValues,
+      String[] nameComponents, int index) {
+    if (nameComponents == null
+        || index == nameComponents.length
+        || !(mergedValues instanceof Map)
+        || !(clientValues instanceof Map)
+        || (diffValues != null && !(diffValues instanceof Map))) {
+      return mergePersistent(clientValues, diffValues);
     }
+    String key = nameComponents[index];
+    Object diffValue = diffValues != null ? ((Map<?, ?>) diffValues).get(key) : null;
+    PersistentMap<Object, Object> result =
+        PersistentMap.copyOf(CollectionUtil.<Map<Object, Object>>uncheckedCast(mergedValues));
+    return result.plus(key, mergePath(result.get(key), ((Map<?, ?>) clientValues).get(key),
+        diffValue, nameComponents, index + 1));
   }
 
   @SuppressWarnings("unchecked")
@@ -231,10 +364,27 @@ public class VarCache {
 
   private static void computeMergedDictionary() {
     synchronized (valuesFromClient) {
-      merged = mergeHelper(valuesFromClient, diffs);
+      merged = mergePersistent(clientTree, diffs);
     }
   }
 
+  /**
+   * Same as {@link #mergeHelper(Object, Object)} for persistent client values, except that keys
+   * with null values are kept. Values without diffs are shared instead of copied, so the cost
+   * depends on the size of the diffs rather than on the number of variables.
+   */
+  private static Object mergePersistent(Object vars, Object diff) {
+    if (!(vars instanceof PersistentMap) || !(diff instanceof Map)) {
+      return mergeHelper(vars, diff);
+    }
+    PersistentMap<Object, Object> result = CollectionUtil.uncheckedCast(vars);
+    for (Map.Entry<?, ?> entry : ((Map<?, ?>) diff).entrySet()) {
+      Object key = entry.getKey();
+      result = result.plus(key, mergePersistent(result.get(key), entry.getValue()));
+    }
+    return result;
+  }
+
   public static Object mergeHelper(Object vars, Object diff) {
     if (diff == null) {
       return vars;
@@ -351,9 +501,36 @@ public class VarCache {
     return (T) mergedPtr;
   }
 
+  /**
+   * Gets merged value at the path.
+   */
+  public static <T> T getMergedValue(VarPath path) {
+    return path.get(mergedValues());
+  }
+
+  /**
+   * Copies the persistent maps of a merged value to HashMaps, for the public API, which returns
+   * dictionaries as HashMaps. Other values are returned as they are.
+   */
+  public static Object toHashMaps(Object value) {
+    if (!(value instanceof PersistentMap)) {
+      return value;
+    }
+    Map<?, ?> map = (Map<?, ?>) value;
+    HashMap<Object, Object> result = new HashMap<>(Math.max(2 * map.size(), 16));
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      result.put(entry.getKey(), toHashMaps(entry.getValue()));
+    }
+    return result;
+  }
+
   public static <T> T getMergedValueFromComponentArray(Object[] components) {
-    return getMergedValueFromComponentArray(components,
-        merged != null ? merged : valuesFromClient);
+    return getMergedValueFromComponentArray(components, mergedValues());
+  }
+
+  private static Object mergedValues() {
+    Object values = merged;
+    return values != null ? values : valuesFromClient;
   }
 
   public static Map<String, Object> getDiffs() {
@@ -382,9 +559,120 @@ public class VarCache {
     } else {
       VarCache.variantDebugInfo = new HashMap<>();
     }
+    markSectionDirty(ContentSnapshot.VARIANT_DEBUG_INFO);
+  }
+
+  /**
+   * Sets whether saved content is loaded on a background thread, see
+   * {@link Leanplum#setAsyncContentLoadingEnabled(boolean)}.
+   */
+  public static void setAsyncLoadEnabled(boolean enabled) {
+    asyncLoadEnabled = enabled;
+  }
+
+  public static boolean isAsyncLoadEnabled() {
+    return asyncLoadEnabled;
+  }
+
+  /**
+   * Starts reading the content snapshot on a background thread, if async loading is enabled. The
+   * snapshot is applied by the next {@link #loadDiffs()}. Called when the application context and
+   * when the app id are set, reading starts once both are known.
+   *
+   * @return Future of the read content or null if nothing is preloaded.
+   */
+  public static synchronized Future<ContentSnapshot.Content> preloadDiffs(final Context context) {
+    if (!asyncLoadEnabled || Constants.isNoop() || context == null || preloadedContent != null
+        || isContentLoaded() || APIConfig.getInstance().appId() == null) {
+      return null;
+    }
+    final AESCrypt aesContext =
+        new AESCrypt(APIConfig.getInstance().appId(), APIConfig.getInstance().token());
+    FutureTask<ContentSnapshot.Content> task = new FutureTask<>(
+        new Callable<ContentSnapshot.Content>() {
+          @Override
+          public ContentSnapshot.Content call() throws IOException {
+            return ContentSnapshot.read(contentSnapshotDirectory(context), aesContext);
+          }
+        });
+    preloadedContent = task;
+    OperationQueue.sharedInstance().addParallelOperation(task);
+    return task;
+  }
+
+  private static synchronized Future<ContentSnapshot.Content> takePreloadedContent() {
+    Future<ContentSnapshot.Content> result = preloadedContent;
+    preloadedContent = null;
+    return result;
+  }
+
+  /**
+   * Adds a handler that is called once content saved on the device is loaded, or immediately if
+   * it is already loaded.
+   */
+  public static void addContentLoadedHandler(Runnable handler) {
+    synchronized (contentLoadedHandlers) {
+      if (contentLoaded.getCount() > 0) {
+        contentLoadedHandlers.add(handler);
+        return;
+      }
+    }
+    handler.run();
+  }
+
+  public static void removeContentLoadedHandler(Runnable handler) {
+    synchronized (contentLoadedHandlers) {
+      contentLoadedHandlers.remove(handler);
+    }
+  }
+
+  /**
+   * Waits until content saved on the device is loaded. Should not be called on the main thread.
+   *
+   * @return True if content is loaded, false if the timeout elapsed.
+   */
+  public static boolean awaitContentLoaded(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    CountDownLatch latch;
+    synchronized (contentLoadedHandlers) {
+      latch = contentLoaded;
+    }
+    return latch.await(timeout, unit);
   }
 
+  public static boolean isContentLoaded() {
+    synchronized (contentLoadedHandlers) {
+      return contentLoaded.getCount() == 0;
+    }
+  }
+
+  private static void triggerContentLoaded() {
+    List<Runnable> handlers;
+    synchronized (contentLoadedHandlers) {
+      contentLoaded.countDown();
+      handlers = new ArrayList<>(contentLoadedHandlers);
+      contentLoadedHandlers.clear();
+    }
+    for (Runnable handler : handlers) {
+      OperationQueue.sharedInstance().addUiOperation(handler);
+    }
+  }
+
+  /**
+   * Loads content saved by {@link #saveDiffs()}. Handlers added with
+   * {@link #addContentLoadedHandler(Runnable)} are called afterwards.
+   */
   public static void loadDiffs() {
+    Trace.beginSection("Leanplum.loadDiffs");
+    try {
+      loadDiffsHelper();
+    } finally {
+      Trace.endSection();
+      triggerContentLoaded();
+    }
+  }
+
+  private static void loadDiffsHelper() {
     if (Constants.isNoop()) {
       return;
     }
@@ -405,25 +693,15 @@ public class VarCache {
     try {
       // Crypt functions return input text if there was a problem.
       AESCrypt aesContext = new AESCrypt(APIConfig.getInstance().appId(), APIConfig.getInstance().token());
-      String variables = aesContext.decodePreference(
-          defaults, Constants.Defaults.VARIABLES_KEY, "{}");
-      String messages = aesContext.decodePreference(
-          defaults, Constants.Defaults.MESSAGES_KEY, "{}");
-      String regions = aesContext.decodePreference(defaults, Constants.Defaults.REGIONS_KEY, "{}");
-      String variants = aesContext.decodePreference(defaults, Constants.Keys.VARIANTS, "[]");
-      String localCaps = aesContext.decodePreference(defaults, Constants.Keys.LOCAL_CAPS, "[]");
-      String variantDebugInfo = aesContext.decodePreference(defaults, Constants.Keys.VARIANT_DEBUG_INFO, "{}");
-      String varsJson = aesContext.decodePreference(defaults, Constants.Defaults.VARIABLES_JSON_KEY, "{}");
-      String varsSignature = aesContext.decodePreference(defaults, Constants.Defaults.VARIABLES_SIGN_KEY, null);
-      applyVariableDiffs(
-          JsonConverter.fromJson(variables),
-          JsonConverter.fromJson(messages),
-          JsonConverter.fromJson(regions),
-          JsonConverter.listFromJson(new JSONArray(variants)),
-          JsonConverter.listFromJson(new JSONArray(localCaps)),
-          JsonConverter.fromJson(variantDebugInfo),
-          varsJson,
-          varsSignature);
+      if (!loadContentSnapshot(context, defaults, aesContext)) {
+        // Content saved before the snapshot, or with a snapshot that can't be read, is loaded
+        // from the preferences. They are kept, only the snapshot is written again.
+        markAllSectionsDirty();
+        loadContentFromPreferences(defaults, aesContext);
+        SharedPreferences.Editor editor = defaults.edit();
+        saveContentSnapshot(context, editor, aesContext, takeDirtySections());
+        SharedPreferencesUtil.commitChanges(editor);
+      }
       String deviceId = aesContext.decodePreference(defaults, Constants.Params.DEVICE_ID, null);
       if (deviceId != null) {
         APIConfig.getInstance().setDeviceId(deviceId);
@@ -443,66 +721,321 @@ public class VarCache {
     userAttributes();
   }
 
-  public static void saveDiffs() {
-    if (Constants.isNoop()) {
-      return;
+  /**
+   * Loads content from the binary snapshot written by {@link #saveDiffs()}.
+   *
+   * @return True if content was loaded, false if the snapshot is missing or does not match the
+   * saved preferences.
+   */
+  static boolean loadContentSnapshot(Context context, SharedPreferences defaults,
+      AESCrypt aesContext) {
+    Map<String, String> sectionHashes = new HashMap<>();
+    for (String name : ContentSnapshot.SECTIONS) {
+      String hash = defaults.getString(
+          String.format(Constants.Defaults.CONTENT_SECTION_HASH_KEY, name), null);
+      if (hash != null) {
+        sectionHashes.put(name, hash);
+      }
+    }
+    Future<ContentSnapshot.Content> preloaded = takePreloadedContent();
+    ContentSnapshot.Content content;
+    try {
+      if (preloaded != null) {
+        content = preloaded.get();
+      } else {
+        content = ContentSnapshot.read(contentSnapshotDirectory(context), aesContext);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException | IOException e) {
+      Log.e("Could not read content snapshot.", e);
+      return false;
+    }
+    if (content == null || !content.belongsTo(sectionHashes, APIConfig.getInstance().appId())) {
+      return false;
+    }
+    // Loaded sections are already saved.
+    synchronized (dirtySections) {
+      loadingSnapshot = true;
+    }
+    try {
+      applyVariableDiffs(
+          content.<Map<String, Object>>get(ContentSnapshot.DIFFS),
+          content.<Map<String, Object>>get(ContentSnapshot.MESSAGES),
+          content.<Map<String, Object>>get(ContentSnapshot.REGIONS),
+          content.<List<Map<String, Object>>>get(ContentSnapshot.VARIANTS),
+          content.<List<Map<String, Object>>>get(ContentSnapshot.LOCAL_CAPS),
+          content.<Map<String, Object>>get(ContentSnapshot.VARIANT_DEBUG_INFO),
+          content.<String>get(ContentSnapshot.VARS_JSON),
+          content.<String>get(ContentSnapshot.VARS_SIGNATURE));
+    } finally {
+      synchronized (dirtySections) {
+        loadingSnapshot = false;
+        dirtySections.clear();
+      }
     }
+    return true;
+  }
 
-    Context context = Leanplum.getContext();
-    SharedPreferences defaults = context.getSharedPreferences(LEANPLUM, Context.MODE_PRIVATE);
-    SharedPreferences.Editor editor = defaults.edit();
+  /**
+   * Loads content from the encrypted preferences, where it was saved before the content snapshot
+   * and where it is still saved for older SDK versions and unreadable snapshots.
+   */
+  static void loadContentFromPreferences(SharedPreferences defaults, AESCrypt aesContext)
+      throws JSONException {
+    String variables = aesContext.decodePreference(
+        defaults, Constants.Defaults.VARIABLES_KEY, "{}");
+    String messages = aesContext.decodePreference(
+        defaults, Constants.Defaults.MESSAGES_KEY, "{}");
+    String regions = aesContext.decodePreference(defaults, Constants.Defaults.REGIONS_KEY, "{}");
+    String variants = aesContext.decodePreference(defaults, Constants.Keys.VARIANTS, "[]");
+    String localCaps = aesContext.decodePreference(defaults, Constants.Keys.LOCAL_CAPS, "[]");
+    String variantDebugInfo = aesContext.decodePreference(defaults, Constants.Keys.VARIANT_DEBUG_INFO, "{}");
+    String varsJson = aesContext.decodePreference(defaults, Constants.Defaults.VARIABLES_JSON_KEY, "{}");
+    String varsSignature = aesContext.decodePreference(defaults, Constants.Defaults.VARIABLES_SIGN_KEY, null);
+    applyVariableDiffs(
+        JsonConverter.fromJson(variables),
+        messagesFromJson(messages),
+        JsonConverter.fromJson(regions),
+        JsonConverter.listFromJson(new JSONArray(variants)),
+        JsonConverter.listFromJson(new JSONArray(localCaps)),
+        JsonConverter.fromJson(variantDebugInfo),
+        varsJson,
+        varsSignature);
+  }
 
-    // Crypt functions return input text if there was a problem.
-    AESCrypt aesContext = new AESCrypt(APIConfig.getInstance().appId(), APIConfig.getInstance().token());
-    editor.putString(Constants.Params.DEVICE_ID, aesContext.encrypt(APIConfig.getInstance().deviceId()));
-    editor.putString(Constants.Params.USER_ID, aesContext.encrypt(APIConfig.getInstance().userId()));
+  private static void markSectionDirty(String section) {
+    for (int i = 0; i < ContentSnapshot.SECTIONS.length; i++) {
+      if (ContentSnapshot.SECTIONS[i].equals(section)) {
+        synchronized (dirtySections) {
+          if (!loadingSnapshot) {
+            dirtySections.set(i);
+          }
+        }
+        return;
+      }
+    }
+  }
 
-    if (APIConfig.getInstance().token() == null) {
-      // The token is not used when encrypting and decrypting DEVICE_ID and USER_ID
-      // See WrapperFactory.getDeviceAndUserFromPrefs
-      SharedPreferencesUtil.commitChanges(editor);
-      return;
+  private static void markAllSectionsDirty() {
+    synchronized (dirtySections) {
+      dirtySections.set(0, ContentSnapshot.SECTIONS.length);
+    }
+  }
+
+  private static Object sectionValue(String section) {
+    switch (section) {
+      case ContentSnapshot.DIFFS:
+        return diffs;
+      case ContentSnapshot.MESSAGES:
+        return messages;
+      case ContentSnapshot.REGIONS:
+        return regions;
+      case ContentSnapshot.VARIANTS:
+        return variants;
+      case ContentSnapshot.LOCAL_CAPS:
+        return localCaps;
+      case ContentSnapshot.VARIANT_DEBUG_INFO:
+        return variantDebugInfo;
+      case ContentSnapshot.VARS_JSON:
+        return varsJson;
+      case ContentSnapshot.VARS_SIGNATURE:
+        return varsSignature;
+      default:
+        throw new IllegalArgumentException("Unknown content section " + section);
+    }
+  }
+
+  /**
+   * Encodes the sections that changed since they were last saved and clears their dirty bits.
+   * Value is null if the section could not be encoded.
+   */
+  private static Map<String, ContentSnapshot.Section> takeDirtySections() {
+    BitSet dirty;
+    synchronized (dirtySections) {
+      dirty = (BitSet) dirtySections.clone();
+      dirtySections.clear();
+    }
+    Map<String, ContentSnapshot.Section> changed = new LinkedHashMap<>();
+    for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+      String name = ContentSnapshot.SECTIONS[i];
+      ContentSnapshot.Section section = null;
+      try {
+        section = ContentSnapshot.Section.encode(sectionValue(name));
+      } catch (IOException e) {
+        Log.e("Could not encode content section " + name, e);
+      }
+      changed.put(name, section);
+    }
+    return changed;
+  }
+
+  /**
+   * Writes the changed sections to the content snapshot and puts their hashes to the editor. The
+   * hash is removed if a section could not be written, so content is loaded from the preferences
+   * instead, and the section is marked dirty again.
+   *
+   * @return Number of bytes written.
+   */
+  private static long saveContentSnapshot(Context context, SharedPreferences.Editor editor,
+      AESCrypt aesContext, Map<String, ContentSnapshot.Section> changed) {
+    long written = 0;
+    File directory = contentSnapshotDirectory(context);
+    for (Map.Entry<String, ContentSnapshot.Section> entry : changed.entrySet()) {
+      String name = entry.getKey();
+      ContentSnapshot.Section section = entry.getValue();
+      String key = String.format(Constants.Defaults.CONTENT_SECTION_HASH_KEY, name);
+      try {
+        if (section != null) {
+          written += ContentSnapshot.writeSection(
+              directory, name, APIConfig.getInstance().appId(), aesContext, section);
+        }
+      } catch (IOException e) {
+        Log.e("Could not write content snapshot.", e);
+        section = null;
+      }
+      if (section != null) {
+        editor.putString(key, section.hash);
+      } else {
+        editor.remove(key);
+        markSectionDirty(name);
+      }
     }
+    return written;
+  }
 
-    String variablesCipher = aesContext.encrypt(JsonConverter.toJson(diffs));
-    editor.putString(Constants.Defaults.VARIABLES_KEY, variablesCipher);
+  /**
+   * Puts the changed sections to the encrypted preferences, where older SDK versions read them
+   * and where they are loaded from if the snapshot can't be read.
+   *
+   * @return Number of bytes written.
+   */
+  private static long saveContentToPreferences(SharedPreferences.Editor editor,
+      AESCrypt aesContext, Set<String> changed) {
+    long written = 0;
+    if (changed.contains(ContentSnapshot.DIFFS)) {
+      written += putEncrypted(editor, aesContext, Constants.Defaults.VARIABLES_KEY,
+          JsonConverter.toJson(diffs));
+    }
 
-    String messagesCipher = aesContext.encrypt(JsonConverter.toJson(messages));
-    editor.putString(Constants.Defaults.MESSAGES_KEY, messagesCipher);
+    if (changed.contains(ContentSnapshot.MESSAGES)) {
+      written += putEncrypted(editor, aesContext, Constants.Defaults.MESSAGES_KEY,
+          JsonConverter.toJson(messages));
+    }
 
-    String regionsCipher = aesContext.encrypt(JsonConverter.toJson(regions));
-    editor.putString(Constants.Defaults.REGIONS_KEY, regionsCipher);
+    if (changed.contains(ContentSnapshot.REGIONS)) {
+      written += putEncrypted(editor, aesContext, Constants.Defaults.REGIONS_KEY,
+          JsonConverter.toJson(regions));
+    }
 
     try {
-      if (variants != null && !variants.isEmpty()) {
-        String variantsJson = JsonConverter.listToJsonArray(variants).toString();
-        editor.putString(Constants.Keys.VARIANTS, aesContext.encrypt(variantsJson));
+      if (changed.contains(ContentSnapshot.VARIANTS) && variants != null && !variants.isEmpty()) {
+        String variantsJson = JsonConverter.listToJson(variants);
+        written += putEncrypted(editor, aesContext, Constants.Keys.VARIANTS, variantsJson);
       }
     } catch (JSONException e1) {
       Log.e("Error converting " + variants + " to JSON.\n" + Log.getStackTraceString(e1));
     }
 
     try {
-      if (localCaps != null) {
-        String json = JsonConverter.listToJsonArray(localCaps).toString();
-        editor.putString(Constants.Keys.LOCAL_CAPS, aesContext.encrypt(json));
+      if (changed.contains(ContentSnapshot.LOCAL_CAPS) && localCaps != null) {
+        String json = JsonConverter.listToJson(localCaps);
+        written += putEncrypted(editor, aesContext, Constants.Keys.LOCAL_CAPS, json);
       }
     } catch (JSONException e) {
       Log.e("Error converting " + localCaps + " to JSON.\n" + Log.getStackTraceString(e));
     }
 
-    if (variantDebugInfo != null) {
-      editor.putString(
-          Constants.Keys.VARIANT_DEBUG_INFO,
-          aesContext.encrypt(JsonConverter.toJson(variantDebugInfo)));
+    if (changed.contains(ContentSnapshot.VARIANT_DEBUG_INFO) && variantDebugInfo != null) {
+      written += putEncrypted(editor, aesContext, Constants.Keys.VARIANT_DEBUG_INFO,
+          JsonConverter.toJson(variantDebugInfo));
+    }
+
+    if (changed.contains(ContentSnapshot.VARS_JSON)) {
+      written += putEncrypted(editor, aesContext, Constants.Defaults.VARIABLES_JSON_KEY, varsJson);
+    }
+    if (changed.contains(ContentSnapshot.VARS_SIGNATURE)) {
+      written += putEncrypted(editor, aesContext, Constants.Defaults.VARIABLES_SIGN_KEY,
+          varsSignature);
+    }
+    return written;
+  }
+
+  private static File contentSnapshotDirectory(Context context) {
+    return new File(context.getFilesDir(), ContentSnapshot.DIRECTORY_NAME);
+  }
+
+  /**
+   * Encrypts the value and puts it to the editor.
+   *
+   * @return Number of bytes written.
+   */
+  private static long putEncrypted(SharedPreferences.Editor editor, AESCrypt aesContext,
+      String key, String value) {
+    String cipher = aesContext.encrypt(value);
+    editor.putString(key, cipher);
+    return cipher == null ? 0 : cipher.length();
+  }
+
+  /**
+   * @return Number of bytes of preference values and content snapshot files written by the last
+   * {@link #saveDiffs()}.
+   */
+  public static long getLastSaveBytesWritten() {
+    return lastSaveBytesWritten;
+  }
+
+  /**
+   * @return Number of bytes of preference values and content snapshot files written by
+   * {@link #saveDiffs()} since the app started.
+   */
+  public static long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * Saves the content to the content snapshot and to the encrypted preferences, and the device and
+   * user ids to the encrypted preferences. Only content sections that changed since the last save
+   * are written.
+   */
+  public static void saveDiffs() {
+    if (Constants.isNoop()) {
+      return;
     }
 
-    editor.putString(Constants.Defaults.VARIABLES_JSON_KEY, aesContext.encrypt(varsJson));
-    editor.putString(Constants.Defaults.VARIABLES_SIGN_KEY, aesContext.encrypt(varsSignature));
+    Context context = Leanplum.getContext();
+    SharedPreferences defaults = context.getSharedPreferences(LEANPLUM, Context.MODE_PRIVATE);
+    SharedPreferences.Editor editor = defaults.edit();
+    long written = 0;
+
+    // Crypt functions return input text if there was a problem.
+    AESCrypt aesContext = new AESCrypt(APIConfig.getInstance().appId(), APIConfig.getInstance().token());
+    written += putEncrypted(editor, aesContext, Constants.Params.DEVICE_ID,
+        APIConfig.getInstance().deviceId());
+    written += putEncrypted(editor, aesContext, Constants.Params.USER_ID,
+        APIConfig.getInstance().userId());
+
+    if (APIConfig.getInstance().token() == null) {
+      // The token is not used when encrypting and decrypting DEVICE_ID and USER_ID
+      // See WrapperFactory.getDeviceAndUserFromPrefs
+      SharedPreferencesUtil.commitChanges(editor);
+      recordSave(written);
+      return;
+    }
 
-    editor.putString(Constants.Keys.LOGGING_ENABLED,
-        aesContext.encrypt(String.valueOf(Constants.loggingEnabled)));
+    written += putEncrypted(editor, aesContext, Constants.Keys.LOGGING_ENABLED,
+        String.valueOf(Constants.loggingEnabled));
+    Map<String, ContentSnapshot.Section> changed = takeDirtySections();
+    written += saveContentToPreferences(editor, aesContext, changed.keySet());
+    written += saveContentSnapshot(context, editor, aesContext, changed);
     SharedPreferencesUtil.commitChanges(editor);
+    recordSave(written);
+  }
+
+  private static void recordSave(long written) {
+    lastSaveBytesWritten = written;
+    bytesWritten.addAndGet(written);
   }
 
   /**
@@ -547,6 +1080,101 @@ public class VarCache {
     }
   }
 
+  /**
+   * Converts messages from JSON. Message fields are converted right away, but vars of each message
+   * are kept as JSON text until they are used, see {@link LazyMap}.
+   *
+   * @param messages Messages as received from the server.
+   * @return Messages map or empty map if messages are null.
+   */
+  public static Map<String, Object> messagesFromJson(JSONObject messages) {
+    Map<String, Object> result = new HashMap<>();
+    if (messages == null) {
+      return result;
+    }
+    Iterator<?> messageIds = messages.keys();
+    while (messageIds.hasNext()) {
+      String messageId = (String) messageIds.next();
+      JSONObject messageConfig = messages.optJSONObject(messageId);
+      if (messageConfig == null) {
+        result.put(messageId, JsonConverter.valueFromJson(messages.opt(messageId)));
+        continue;
+      }
+      Map<String, Object> config = new HashMap<>();
+      Iterator<?> keys = messageConfig.keys();
+      while (keys.hasNext()) {
+        String key = (String) keys.next();
+        Object value = messageConfig.opt(key);
+        if (Constants.Keys.VARS.equals(key) && value instanceof JSONObject) {
+          config.put(key, LazyMap.fromJson(value.toString()));
+        } else {
+          config.put(key, JsonConverter.valueFromJson(value));
+        }
+      }
+      result.put(messageId, config);
+    }
+    return result;
+  }
+
+  private static Map<String, Object> messagesFromJson(String messages) {
+    if (messages == null) {
+      return null;
+    }
+    try {
+      return messagesFromJson(new JSONObject(messages));
+    } catch (JSONException e) {
+      Log.e("Error converting " + messages + " from JSON", e);
+      return null;
+    }
+  }
+
+  private static boolean hasFileOrActionKind(Map<String, Object> kinds) {
+    if (kinds == null) {
+      return false;
+    }
+    for (Object kind : kinds.values()) {
+      if (Constants.Kinds.FILE.equals(kind) || Constants.Kinds.ACTION.equals(kind)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return Whether any nested key names a file or an action, which
+   * {@link ActionContext#update()} would prefetch.
+   */
+  private static boolean containsFileOrActionArg(Object value) {
+    if (value instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (isFileOrActionArg(String.valueOf(entry.getKey()))
+            || containsFileOrActionArg(entry.getValue())) {
+          return true;
+        }
+      }
+    } else if (value instanceof Iterable) {
+      for (Object item : (Iterable<?>) value) {
+        if (containsFileOrActionArg(item)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Same as {@link #containsFileOrActionArg(Object)} for JSON text, without parsing it. May also
+   * match string values with these names, in which case the message is prefetched as before.
+   */
+  private static boolean jsonContainsFileOrActionArg(String json) {
+    return json.contains(Constants.Values.FILE_PREFIX)
+        || json.contains(JSONObject.quote(Constants.Values.ACTION_ARG));
+  }
+
+  private static boolean isFileOrActionArg(String key) {
+    return key.contains(Constants.Values.FILE_PREFIX) || key.equals(Constants.Values.ACTION_ARG);
+  }
+
   public static void applyVariableDiffs(
       Map<String, Object> diffs,
       Map<String, Object> messages,
@@ -558,17 +1186,32 @@ public class VarCache {
       String varsSignature) {
     if (diffs != null) {
       VarCache.diffs = diffs;
+      markSectionDirty(ContentSnapshot.DIFFS);
+      Object oldMerged = merged;
       computeMergedDictionary();
 
+      // Once all variables were updated after start, only variables with changed paths need to
+      // be updated, the others would not change their values nor call their handlers.
+      ChangedPaths changedPaths = null;
+      if (updatedVarsAfterStart && oldMerged != null) {
+        changedPaths = ChangedPaths.between(oldMerged, merged);
+      }
+
       // Update variables with new values.
       // Have to copy the dictionary because a dictionary variable may add a new sub-variable,
       // modifying the variable dictionary.
-      for (String name : new HashMap<>(vars).keySet()) {
-        Var<?> var = vars.get(name);
-        if (var != null) {
-          var.update();
+      if (changedPaths == null || !changedPaths.isEmpty()) {
+        for (String name : new HashMap<>(vars).keySet()) {
+          Var<?> var = vars.get(name);
+          if (var != null
+              && (changedPaths == null || changedPaths.affects(var.nameComponents()))) {
+            var.update();
+          }
         }
       }
+      if (Leanplum.hasStarted() && !silent) {
+        updatedVarsAfterStart = true;
+      }
       fileVariableFinish();
     }
 
@@ -576,24 +1219,48 @@ public class VarCache {
       // Store messages.
       messageDiffs = messages;
       Map<String, Object> newMessages = new HashMap<>();
+      Set<String> messagesWithoutFiles = new HashSet<>();
       for (Map.Entry<String, Object> entry : messages.entrySet()) {
         Map<String, Object> messageConfig = CollectionUtil.uncheckedCast(entry.getValue());
         Map<String, Object> newConfig = new HashMap<>(messageConfig);
-        Map<String, Object> actionArgs = CollectionUtil.uncheckedCast(messageConfig.get(Constants
-            .Keys.VARS));
+        final Map<String, Object> actionArgs = CollectionUtil.uncheckedCast(messageConfig.get(
+            Constants.Keys.VARS));
         Map<String, Object> actionDefinitions =
             ActionManager.getInstance().getDefinitions().getActionDefinitionMaps();
-        Map<String, Object> defaultArgs = Util.multiIndex(actionDefinitions,
-            newConfig.get(Constants.Params.ACTION), "values");
-        Map<String, Object> vars = CollectionUtil.uncheckedCast(mergeHelper(defaultArgs,
-            actionArgs));
+        Object action = newConfig.get(Constants.Params.ACTION);
+        final Map<String, Object> defaultArgs = Util.multiIndex(actionDefinitions,
+            action, "values");
+        Map<String, Object> vars;
+        String unloadedArgs = actionArgs instanceof LazyMap
+            ? ((LazyMap) actionArgs).getUnloadedJson() : null;
+        if (unloadedArgs != null) {
+          // Vars are merged when the message is used, unless they have files to download now.
+          vars = LazyMap.of(new LazyMap.Loader() {
+            @Override
+            public Map<String, Object> load() {
+              return CollectionUtil.uncheckedCast(mergeHelper(defaultArgs, actionArgs));
+            }
+          });
+          Map<String, Object> kinds = Util.multiIndex(actionDefinitions, action, "kinds");
+          if (!hasFileOrActionKind(kinds)
+              && !containsFileOrActionArg(defaultArgs)
+              && !jsonContainsFileOrActionArg(unloadedArgs)) {
+            messagesWithoutFiles.add(entry.getKey());
+          }
+        } else {
+          vars = CollectionUtil.uncheckedCast(mergeHelper(defaultArgs, actionArgs));
+        }
         newMessages.put(entry.getKey(), newConfig);
         newConfig.put(Constants.Keys.VARS, vars);
       }
 
       VarCache.messages = newMessages;
+      markSectionDirty(ContentSnapshot.MESSAGES);
       for (Map.Entry<String, Object> entry : VarCache.messages.entrySet()) {
         String name = entry.getKey();
+        if (messagesWithoutFiles.contains(name)) {
+          continue;
+        }
         Map<String, Object> messageConfig = CollectionUtil.uncheckedCast(VarCache.messages.get
             (name));
         if (messageConfig != null && messageConfig.get("action") != null) {
@@ -607,6 +1274,7 @@ public class VarCache {
 
     if (regions != null) {
       VarCache.regions = regions;
+      markSectionDirty(ContentSnapshot.REGIONS);
     }
 
     if (messages != null || regions != null) {
@@ -622,10 +1290,12 @@ public class VarCache {
 
     if (variants != null) {
       VarCache.variants = variants;
+      markSectionDirty(ContentSnapshot.VARIANTS);
     }
 
     if (localCaps != null) {
       VarCache.localCaps = localCaps;
+      markSectionDirty(ContentSnapshot.LOCAL_CAPS);
     }
 
     if (variantDebugInfo != null) {
@@ -635,6 +1305,8 @@ public class VarCache {
     if (varsJson != null) {
       VarCache.varsJson = varsJson;
       VarCache.varsSignature = varsSignature;
+      markSectionDirty(ContentSnapshot.VARS_JSON);
+      markSectionDirty(ContentSnapshot.VARS_SIGNATURE);
     }
 
     contentVersion++;
@@ -649,6 +1321,13 @@ public class VarCache {
     return contentVersion;
   }
 
+  private static synchronized void clearComparedContentHashes() {
+    comparedVariablesHash = null;
+    comparedActionsHash = null;
+    variablesDiffered = false;
+    actionsDiffered = false;
+  }
+
   private static void triggerHasReceivedDiffs() {
     hasReceivedDiffs = true;
     if (updateBlock != null) {
@@ -664,23 +1343,42 @@ public class VarCache {
     return sendContentIfChanged(false, true);
   }
 
-  private static boolean sendContentIfChanged(boolean variables, boolean actions) {
-    boolean changed = false;
-    if (variables && devModeValuesFromServer != null
-        && !valuesFromClient.equals(devModeValuesFromServer)) {
-      changed = true;
-    }
-    Map<String, Object> actionDefinitions =
-        ActionManager.getInstance().getDefinitions().getActionDefinitionMaps();
-
-    boolean areLocalAndServerDefinitionsEqual =
-        ActionManagerDefinitionKt.areLocalAndServerDefinitionsEqual(ActionManager.getInstance());
+  private static long variablesContentHash() {
+    return variablesHash.value() * 31 + filesHash.value();
+  }
 
-    if (actions && !areLocalAndServerDefinitionsEqual) {
-      changed = true;
+  /**
+   * Compares the content with the development mode copy of the server and sends it if it differs.
+   * While the content hash is unchanged, the last comparison is reported and nothing is sent again.
+   *
+   * @return Whether the content differs from the server copy.
+   */
+  private static synchronized boolean sendContentIfChanged(boolean variables, boolean actions) {
+    long variablesContentHash = variablesContentHash();
+    long actionsContentHash = actionsHash.value();
+    boolean compareVariables = variables
+        && (comparedVariablesHash == null || comparedVariablesHash != variablesContentHash);
+    boolean compareActions = actions
+        && (comparedActionsHash == null || comparedActionsHash != actionsContentHash);
+
+    if (compareVariables) {
+      variablesDiffered = devModeValuesFromServer != null
+          && !valuesFromClient.equals(devModeValuesFromServer);
+      comparedVariablesHash = variablesContentHash;
+    }
+    if (compareActions) {
+      actionsDiffered =
+          !ActionManagerDefinitionKt.areLocalAndServerDefinitionsEqual(ActionManager.getInstance());
+      comparedActionsHash = actionsContentHash;
+    }
+    boolean changed = (variables && variablesDiffered) || (actions && actionsDiffered);
+    if (!compareVariables && !compareActions) {
+      return changed;
     }
 
     if (changed) {
+      Map<String, Object> actionDefinitions =
+          ActionManager.getInstance().getDefinitions().getActionDefinitionMaps();
       HashMap<String, Object> params = new HashMap<>();
       if (variables) {
         params.put(Constants.Params.VARS, JsonConverter.toJson(valuesFromClient));
@@ -695,6 +1393,8 @@ public class VarCache {
           .andParams(params)
           .andType(RequestType.IMMEDIATE)
           .create();
+      // Compare again next time, the server may not have the content.
+      request.onError(e -> clearComparedContentHashes());
       RequestSender.getInstance().send(request);
     }
 
@@ -794,6 +1494,7 @@ public class VarCache {
         ActionManager.getInstance(),
         actionDefinitions);
     devModeFileAttributesFromServer = fileAttributes;
+    clearComparedContentHashes();
   }
 
   public static void onUpdate(CacheUpdateBlock block) {
@@ -888,12 +1589,14 @@ public class VarCache {
     messageDiffs.clear();
     messages = null;
     userAttributes = null;
-    merged = null;
+    computeMergedDictionary();
+    updatedVarsAfterStart = false;
 
     devModeValuesFromServer = null;
     devModeFileAttributesFromServer = null;
     ActionManagerDefinitionKt.setDevModeActionDefinitionsFromServer(
         ActionManager.getInstance(), null);
+    markAllSectionsDirty();
   }
 
   /**
@@ -905,8 +1608,13 @@ public class VarCache {
     fileAttributes.clear();
     fileStreams.clear();
     valuesFromClient.clear();
+    clientTree = PersistentMap.empty();
     defaultKinds.clear();
     ActionManager.getInstance().getDefinitions().clear();
+    variablesHash.clear();
+    filesHash.clear();
+    actionsHash.clear();
+    clearComparedContentHashes();
     diffs.clear();
     messageDiffs.clear();
     regions.clear();
@@ -920,10 +1628,23 @@ public class VarCache {
     hasReceivedDiffs = false;
     messages = null;
     merged = null;
+    updatedVarsAfterStart = false;
     silent = false;
     contentVersion = 0;
     userAttributes = null;
     varsJson = null;
     varsSignature = null;
+    asyncLoadEnabled = false;
+    synchronized (VarCache.class) {
+      preloadedContent = null;
+    }
+    synchronized (dirtySections) {
+      loadingSnapshot = false;
+    }
+    markAllSectionsDirty();
+    synchronized (contentLoadedHandlers) {
+      contentLoaded = new CountDownLatch(1);
+      contentLoadedHandlers.clear();
+    }
   }
 }
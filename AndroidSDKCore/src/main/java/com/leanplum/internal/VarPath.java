@@ -0,0 +1,88 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parsed name of a variable or an action argument, for example "Accept action.Example". Paths are
+ * parsed once and kept in a bounded cache, so looking up a value by its name does no parsing. When
+ * the cache is full, the least recently used path is evicted.
+ */
+public final class VarPath {
+  private static final int MAX_CACHED_PATHS = 1024;
+
+  private static final Map<String, VarPath> cache =
+      new LinkedHashMap<String, VarPath>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, VarPath> eldest) {
+          return size() > MAX_CACHED_PATHS;
+        }
+      };
+
+  private final String name;
+  private final String[] components;
+
+  private VarPath(String name, String[] components) {
+    this.name = name;
+    this.components = components;
+  }
+
+  /**
+   * Returns path of the name, parsing the name only if its path is not cached.
+   *
+   * @param name Name of a variable or an action argument.
+   * @return Path of the name.
+   */
+  public static VarPath of(String name) {
+    synchronized (cache) {
+      VarPath path = cache.get(name);
+      if (path == null) {
+        path = new VarPath(name, VarCache.parseNameComponents(name));
+        cache.put(name, path);
+      }
+      return path;
+    }
+  }
+
+  public String name() {
+    return name;
+  }
+
+  /**
+   * @return Copy of the name components.
+   */
+  public String[] components() {
+    return components.clone();
+  }
+
+  /**
+   * Gets value at this path.
+   *
+   * @param values Values to look in.
+   * @return Value at this path or null if there is none.
+   */
+  public <T> T get(Object values) {
+    return VarCache.getMergedValueFromComponentArray(components, values);
+  }
+}
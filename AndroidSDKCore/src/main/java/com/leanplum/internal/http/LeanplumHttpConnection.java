@@ -26,6 +26,7 @@ import androidx.annotation.VisibleForTesting;
 import com.leanplum.Leanplum;
 import com.leanplum.internal.APIConfig;
 import com.leanplum.internal.Constants;
+import com.leanplum.internal.JsonStreamReader;
 import com.leanplum.internal.RequestBuilder;
 import com.leanplum.internal.Util;
 import java.io.BufferedReader;
@@ -33,14 +34,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 import java.util.zip.GZIPInputStream;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 /**
  * Wrapper class around HttpURLConnection for Leanplum needs.
@@ -145,38 +152,95 @@ public abstract class LeanplumHttpConnection {
     return urlConnection.getURL();
   }
 
+  /**
+   * Gets the delay requested by the server in the Retry-After header, given in seconds or as an
+   * HTTP date.
+   *
+   * @return Delay in milliseconds, or -1 if there is no valid header.
+   */
+  public long getRetryAfterMillis() {
+    String retryAfter = urlConnection.getHeaderField("Retry-After");
+    if (retryAfter == null) {
+      return -1;
+    }
+    retryAfter = retryAfter.trim();
+    try {
+      return Math.max(0, Long.parseLong(retryAfter) * 1000);
+    } catch (NumberFormatException ignored) {
+    }
+    try {
+      SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+      format.setTimeZone(TimeZone.getTimeZone("GMT"));
+      Date date = format.parse(retryAfter);
+      return Math.max(0, date.getTime() - System.currentTimeMillis());
+    } catch (ParseException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Parses the response body while it is read from the connection, so the body is never kept in
+   * memory as a String.
+   */
   public JSONObject getJsonResponse()
       throws JSONException, IOException {
-    String response = getResponse();
-    JSONTokener tokenizer = new JSONTokener(response);
-    return new JSONObject(tokenizer);
+    Reader reader = getResponseReader();
+    try {
+      return JsonStreamReader.readJsonObject(reader);
+    } finally {
+      closeQuietly(reader);
+    }
   }
 
-  @VisibleForTesting
-  public String getResponse() throws IOException {
+  /**
+   * Same as {@link #getJsonResponse()}, but parses the response body into the maps and lists of
+   * {@link com.leanplum.internal.JsonConverter#mapFromJson}.
+   */
+  public Map<String, Object> getMapResponse()
+      throws JSONException, IOException {
+    Reader reader = getResponseReader();
+    try {
+      return JsonStreamReader.readMap(reader);
+    } finally {
+      closeQuietly(reader);
+    }
+  }
+
+  private Reader getResponseReader() throws IOException {
     InputStream inputStream;
     if (urlConnection.getResponseCode() < 400) {
       inputStream = urlConnection.getInputStream();
     } else {
       inputStream = urlConnection.getErrorStream();
     }
+    if (inputStream == null) {
+      throw new IOException("No response body, HTTP status code: "
+          + urlConnection.getResponseCode());
+    }
 
     // If we have a gzipped response, de-compress it first
     if (isGzipCompressed()) {
       inputStream = new GZIPInputStream(inputStream);
     }
+    return new InputStreamReader(inputStream, "UTF-8");
+  }
+
+  private static void closeQuietly(Reader reader) {
+    try {
+      reader.close();
+    } catch (Exception ignored) {
+    }
+  }
 
-    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+  @VisibleForTesting
+  public String getResponse() throws IOException {
+    BufferedReader reader = new BufferedReader(getResponseReader());
     StringBuilder builder = new StringBuilder();
     for (String line; (line = reader.readLine()) != null; ) {
       builder.append(line).append("\n");
     }
 
-    try {
-      inputStream.close();
-      reader.close();
-    } catch (Exception ignored) {
-    }
+    closeQuietly(reader);
 
     return builder.toString();
   }
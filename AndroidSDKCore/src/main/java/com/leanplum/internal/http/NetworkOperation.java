@@ -25,17 +25,25 @@ import android.net.Uri;
 import com.leanplum.internal.Constants;
 import com.leanplum.internal.Log;
 import com.leanplum.internal.RequestBuilder;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Handles common http operation (GET and POST).
  * Attaches the parameters to the connection object or url accordingly.
  */
 public class NetworkOperation extends LeanplumHttpConnection {
+  public static final int NO_COMPRESSION = -1;
+
+  private int gzipThresholdBytes = NO_COMPRESSION;
+  private long bodyLength;
+  private long uncompressedBodyLength;
 
   public NetworkOperation(
       String fullPath,
@@ -53,6 +61,21 @@ public class NetworkOperation extends LeanplumHttpConnection {
       String httpMethod,
       boolean useSSL,
       int timeoutSeconds) throws IOException {
+    this(hostName, path, params, httpMethod, useSSL, timeoutSeconds, NO_COMPRESSION);
+  }
+
+  /**
+   * @param gzipThresholdBytes POST body is sent gzip compressed if it has at least this many
+   * bytes, or {@link #NO_COMPRESSION} to never compress it.
+   */
+  public NetworkOperation(
+      String hostName,
+      String path,
+      Map<String, Object> params,
+      String httpMethod,
+      boolean useSSL,
+      int timeoutSeconds,
+      int gzipThresholdBytes) throws IOException {
 
     if (RequestBuilder.GET.equals(httpMethod)) {
       path = attachGetParameters(path, params);
@@ -61,6 +84,7 @@ public class NetworkOperation extends LeanplumHttpConnection {
     initConnection(hostName, path, httpMethod, useSSL, timeoutSeconds);
 
     if (RequestBuilder.POST.equals(httpMethod)) {
+      this.gzipThresholdBytes = gzipThresholdBytes;
       attachPostParameters(params);
     }
 
@@ -98,14 +122,136 @@ public class NetworkOperation extends LeanplumHttpConnection {
    * @throws IOException Throws in case it fails.
    */
   private void attachPostParameters(Map<String, Object> params) throws IOException {
+    if (hasStreamingParameters(params)) {
+      attachStreamingPostParameters(params);
+      return;
+    }
+    byte[] body = getQuery(params).getBytes("UTF-8");
+    uncompressedBodyLength = body.length;
+    if (shouldCompress(body.length)) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+      gzip.write(body);
+      gzip.close();
+      body = compressed.toByteArray();
+      urlConnection.setRequestProperty("Content-Encoding", Constants.LEANPLUM_SUPPORTED_ENCODING);
+    }
+    bodyLength = body.length;
+
     OutputStream os = urlConnection.getOutputStream();
-    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
-    String query = getQuery(params);
-    writer.write(query);
-    writer.close();
+    os.write(body);
+    os.close();
+  }
+
+  private boolean shouldCompress(long length) {
+    return gzipThresholdBytes != NO_COMPRESSION && length >= gzipThresholdBytes;
+  }
+
+  /**
+   * @return Number of bytes of the POST body sent over the network.
+   */
+  public long getRequestBodyLength() {
+    return bodyLength;
+  }
+
+  /**
+   * @return Number of bytes of the POST body before it was compressed.
+   */
+  public long getUncompressedRequestBodyLength() {
+    return uncompressedBodyLength;
+  }
+
+  private static boolean hasStreamingParameters(Map<String, Object> params) {
+    if (params == null) {
+      return false;
+    }
+    for (Object value : params.values()) {
+      if (value instanceof StreamingParameter) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Writes POST parameters to the connection without keeping the body in memory. The body is
+   * written twice, first only to count its length, so it is sent with a fixed Content-Length.
+   * Only the compressed body is kept in memory if body is compressed.
+   *
+   * @param params Params to write in connection.
+   * @throws IOException Throws in case it fails.
+   */
+  private void attachStreamingPostParameters(Map<String, Object> params) throws IOException {
+    CountingOutputStream counter = new CountingOutputStream();
+    writeStreamingQuery(params, counter);
+    uncompressedBodyLength = counter.count;
+
+    if (shouldCompress(counter.count)) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      OutputStream gzip = new BufferedOutputStream(new GZIPOutputStream(compressed));
+      writeStreamingQuery(params, gzip);
+      gzip.close();
+      bodyLength = compressed.size();
+
+      urlConnection.setRequestProperty("Content-Encoding", Constants.LEANPLUM_SUPPORTED_ENCODING);
+      urlConnection.setFixedLengthStreamingMode(compressed.size());
+      OutputStream os = urlConnection.getOutputStream();
+      compressed.writeTo(os);
+      os.close();
+      return;
+    }
+
+    bodyLength = counter.count;
+    urlConnection.setFixedLengthStreamingMode(counter.count);
+    OutputStream os = new BufferedOutputStream(urlConnection.getOutputStream());
+    writeStreamingQuery(params, os);
     os.close();
   }
 
+  /**
+   * Writes URL encoded query from Map containing parameters. Values of type
+   * {@link StreamingParameter} are encoded while they are written.
+   *
+   * @param params Params used to build a query.
+   * @param os Stream to write the query to.
+   * @throws IOException Throws in case it fails.
+   */
+  private static void writeStreamingQuery(Map<String, Object> params, OutputStream os)
+      throws IOException {
+    Map<String, Object> simpleParams = new HashMap<>();
+    for (Map.Entry<String, Object> pair : params.entrySet()) {
+      if (!(pair.getValue() instanceof StreamingParameter)) {
+        simpleParams.put(pair.getKey(), pair.getValue());
+      }
+    }
+    String query = getQuery(simpleParams);
+    boolean isEmpty = query == null || query.isEmpty();
+    if (!isEmpty) {
+      writeAscii(os, query);
+    }
+
+    for (Map.Entry<String, Object> pair : params.entrySet()) {
+      if (pair.getValue() instanceof StreamingParameter) {
+        if (!isEmpty) {
+          os.write('&');
+        }
+        isEmpty = false;
+        writeAscii(os, Uri.encode(pair.getKey()));
+        os.write('=');
+        UrlEncodingWriter writer = new UrlEncodingWriter(os);
+        ((StreamingParameter) pair.getValue()).writeTo(writer);
+        writer.flush();
+      }
+    }
+    os.flush();
+  }
+
+  private static void writeAscii(OutputStream os, String value) throws IOException {
+    for (int i = 0; i < value.length(); i++) {
+      os.write(value.charAt(i));
+    }
+  }
+
   /**
    * Builds a query from Map containing parameters.
    *
@@ -127,4 +273,107 @@ public class NetworkOperation extends LeanplumHttpConnection {
     return builder.build().getEncodedQuery();
   }
 
+  /**
+   * Encodes written characters the same way as {@link Uri#encode(String)} and writes them to the
+   * underlying stream.
+   */
+  private static class UrlEncodingWriter extends Writer {
+    private static final String ALLOWED_CHARACTERS = "_-!.~'()*";
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final OutputStream os;
+    private char highSurrogate;
+
+    UrlEncodingWriter(OutputStream os) {
+      this.os = os;
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+      for (int i = offset; i < offset + length; i++) {
+        write(buffer[i]);
+      }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+      for (int i = offset; i < offset + length; i++) {
+        write(str.charAt(i));
+      }
+    }
+
+    @Override
+    public void write(int character) throws IOException {
+      char c = (char) character;
+      if (highSurrogate != 0) {
+        char high = highSurrogate;
+        highSurrogate = 0;
+        if (Character.isLowSurrogate(c)) {
+          int codePoint = Character.toCodePoint(high, c);
+          writeEncoded(0xF0 | (codePoint >> 18));
+          writeEncoded(0x80 | ((codePoint >> 12) & 0x3F));
+          writeEncoded(0x80 | ((codePoint >> 6) & 0x3F));
+          writeEncoded(0x80 | (codePoint & 0x3F));
+          return;
+        }
+        // Unpaired surrogate is replaced the same way as String.getBytes does.
+        writeEncoded('?');
+      }
+
+      if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+          || ALLOWED_CHARACTERS.indexOf(c) != -1) {
+        os.write(c);
+      } else if (c < 0x80) {
+        writeEncoded(c);
+      } else if (c < 0x800) {
+        writeEncoded(0xC0 | (c >> 6));
+        writeEncoded(0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c)) {
+        highSurrogate = c;
+      } else if (Character.isLowSurrogate(c)) {
+        writeEncoded('?');
+      } else {
+        writeEncoded(0xE0 | (c >> 12));
+        writeEncoded(0x80 | ((c >> 6) & 0x3F));
+        writeEncoded(0x80 | (c & 0x3F));
+      }
+    }
+
+    private void writeEncoded(int b) throws IOException {
+      os.write('%');
+      os.write(HEX_DIGITS[(b >> 4) & 0x0F]);
+      os.write(HEX_DIGITS[b & 0x0F]);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (highSurrogate != 0) {
+        highSurrogate = 0;
+        writeEncoded('?');
+      }
+      os.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
+  /**
+   * Discards written bytes and only counts them.
+   */
+  private static class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) {
+      count += length;
+    }
+  }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal.http;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Value of a POST parameter that is written directly into the request body instead of being
+ * converted to a String first. Used for parameters that can be too large to keep in memory.
+ */
+public interface StreamingParameter {
+  /**
+   * Writes the value of the parameter. Value is URL encoded by the writer.
+   *
+   * @param writer Writer of the request body.
+   * @throws IOException Throws in case it fails.
+   */
+  void writeTo(Writer writer) throws IOException;
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.leanplum;
+
+import com.leanplum.__setup.AbstractTest;
+import com.leanplum.internal.CollectionUtil;
+import com.leanplum.internal.Constants;
+import com.leanplum.internal.FileManager;
+import com.leanplum.internal.VarCache;
+import com.leanplum.tests.R;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link LeanplumResources}.
+ */
+public class LeanplumResourcesTest extends AbstractTest {
+  private static final String LAYOUT_NAME =
+      Constants.Values.RESOURCES_VARIABLE + ".layout.activity_main\\.xml";
+
+  @After
+  public void tearDown() {
+    FileManager.resources = null;
+    VarCache.setSilent(false);
+  }
+
+  /**
+   * The variable name is made of the folder and the file name in it.
+   */
+  @Test
+  public void testOverrideResourceName() {
+    assertEquals(LAYOUT_NAME, LeanplumResources.overrideResourceName(
+        CollectionUtil.newHashMap("layout", "activity_main\\.xml")));
+    assertNull(LeanplumResources.overrideResourceName(new HashMap<String, String>()));
+  }
+
+  /**
+   * A resource synced from the server is found in the merged values.
+   */
+  @Test
+  public void testGetOverrideResource() {
+    VarCache.setSilent(true);
+    FileManager.resources = Var.define(Constants.Values.RESOURCES_VARIABLE,
+        new HashMap<String, Object>());
+    Var<String> layout = Var.defineResource(
+        LAYOUT_NAME, "res/layout/activity_main.xml", 10, "hash", new byte[0]);
+
+    Map<String, Object> diffs = CollectionUtil.newHashMap(
+        Constants.Values.RESOURCES_VARIABLE, CollectionUtil.newHashMap(
+            "layout", CollectionUtil.newHashMap(
+                "activity_main\\.xml", "res/layout/activity_main_synced.xml")));
+    VarCache.applyVariableDiffs(diffs, null, null, null, null, null, null, null);
+    assertEquals("res/layout/activity_main_synced.xml", layout.stringValue);
+
+    LeanplumResources resources = new LeanplumResources(mContext.getResources());
+    Var<String> override = resources.getOverrideResource(R.layout.activity_main);
+    assertSame(layout, override);
+    assertSame(VarCache.getVariable(LAYOUT_NAME), override);
+    assertNull(resources.getOverrideResource(R.drawable.leanplum_watermark));
+  }
+}
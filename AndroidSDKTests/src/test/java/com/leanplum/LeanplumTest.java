@@ -33,6 +33,7 @@ import com.leanplum._whitebox.utilities.ResponseHelper;
 import com.leanplum._whitebox.utilities.VariablesTestClass;
 import com.leanplum.annotations.Parser;
 import com.leanplum.callbacks.StartCallback;
+import com.leanplum.callbacks.VariableCallback;
 import com.leanplum.callbacks.VariablesChangedCallback;
 import com.leanplum.internal.APIConfig;
 import com.leanplum.internal.ApiConfigLoader;
@@ -81,7 +82,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
@@ -974,6 +977,114 @@ public class LeanplumTest extends AbstractTest {
     assertArrayEquals(groupIntegerVariable.nameComponents(), new String[]{"groups", "integers"});
   }
 
+  @Test
+  public void testUnchangedVariablesDoNotCallHandlers() throws Exception {
+    Var<String> title = Var.define("title", "title");
+    Var<Integer> groupCount = Var.define("group.count", 1);
+    Var<String> groupName = Var.define("group.name", "name");
+    setupSDK(mContext, "/responses/simple_start_response.json");
+
+    Map<String, Integer> calls = new HashMap<>();
+    countValueChanges(title, calls);
+    countValueChanges(groupCount, calls);
+    countValueChanges(groupName, calls);
+
+    VarCache.applyVariableDiffs(
+        CollectionUtil.newHashMap("group", CollectionUtil.newHashMap("count", 2)),
+        null, null, null, null, null, null, null);
+    assertEquals(CollectionUtil.newHashMap("group.count", 1), calls);
+    assertEquals(Integer.valueOf(2), groupCount.value());
+    assertEquals("name", groupName.value());
+
+    // Same diffs again do not change any variable.
+    VarCache.applyVariableDiffs(
+        CollectionUtil.newHashMap("group", CollectionUtil.newHashMap("count", 2)),
+        null, null, null, null, null, null, null);
+    assertEquals(CollectionUtil.newHashMap("group.count", 1), calls);
+
+    VarCache.applyVariableDiffs(
+        CollectionUtil.newHashMap(
+            "group", CollectionUtil.newHashMap("count", 2),
+            "title", "new title"),
+        null, null, null, null, null, null, null);
+    assertEquals(CollectionUtil.newHashMap("group.count", 1, "title", 1), calls);
+    assertEquals("new title", title.value());
+  }
+
+  @Test
+  public void testMergedValuesAreSnapshots() throws Exception {
+    Var.define("group.a", 1);
+    setupSDK(mContext, "/responses/simple_start_response.json");
+    VarCache.applyVariableDiffs(
+        CollectionUtil.newHashMap("group", CollectionUtil.newHashMap("a", 2)),
+        null, null, null, null, null, null, null);
+
+    Object snapshot = Leanplum.objectForKeyPath();
+    String snapshotJson = JsonConverter.toJson(CollectionUtil.uncheckedCast(snapshot));
+
+    // Registering a variable publishes new values and leaves the old snapshot as it was.
+    Var<Integer> b = Var.define("group.b", 3);
+    assertEquals(snapshotJson, JsonConverter.toJson(CollectionUtil.uncheckedCast(snapshot)));
+    assertEquals(3, Leanplum.objectForKeyPath("group", "b"));
+    assertEquals(2, Leanplum.objectForKeyPath("group", "a"));
+    assertEquals(Integer.valueOf(3), b.value());
+
+    // Diffs of a variable registered later are applied right away.
+    VarCache.applyVariableDiffs(
+        CollectionUtil.newHashMap("group", CollectionUtil.newHashMap("c", 5)),
+        null, null, null, null, null, null, null);
+    Var<Integer> c = Var.define("group.c", 4);
+    assertEquals(Integer.valueOf(5), c.value());
+  }
+
+  @Test
+  public void testDictionaryValuesAreHashMaps() throws Exception {
+    Var<HashMap<String, Object>> group = Var.define("group", new HashMap<String, Object>());
+    Var.define("group.a", 1);
+    setupSDK(mContext, "/responses/simple_start_response.json");
+    VarCache.applyVariableDiffs(
+        CollectionUtil.newHashMap("group", CollectionUtil.newHashMap("a", 2)),
+        null, null, null, null, null, null, null);
+
+    HashMap<String, Object> value = group.value();
+    assertEquals(CollectionUtil.newHashMap("a", 2), value);
+    assertTrue(Leanplum.objectForKeyPath("group") instanceof HashMap);
+    assertTrue(Leanplum.objectForKeyPath() instanceof HashMap);
+    assertTrue(group.objectForKeyPath() instanceof HashMap);
+  }
+
+  @Test
+  public void testUnchangedDictionaryIsNotCopiedOnUpdate() throws Exception {
+    Var<HashMap<String, Object>> group = Var.define("group", new HashMap<String, Object>());
+    Var.define("group.a", 1);
+    Var<Integer> other = Var.define("other", 1);
+    setupSDK(mContext, "/responses/simple_start_response.json");
+    VarCache.applyVariableDiffs(
+        CollectionUtil.newHashMap("other", 2), null, null, null, null, null, null, null);
+    HashMap<String, Object> value = group.value();
+
+    VarCache.applyVariableDiffs(
+        CollectionUtil.newHashMap("other", 3), null, null, null, null, null, null, null);
+    assertEquals(Integer.valueOf(3), other.value());
+    assertSame(value, group.value());
+
+    VarCache.applyVariableDiffs(
+        CollectionUtil.newHashMap("group", CollectionUtil.newHashMap("a", 3)),
+        null, null, null, null, null, null, null);
+    assertNotSame(value, group.value());
+    assertEquals(CollectionUtil.newHashMap("a", 3), group.value());
+  }
+
+  private static <T> void countValueChanges(Var<T> var, final Map<String, Integer> calls) {
+    var.addValueChangedHandler(new VariableCallback<T>() {
+      @Override
+      public void handle(Var<T> variable) {
+        Integer count = calls.get(variable.name());
+        calls.put(variable.name(), count == null ? 1 : count + 1);
+      }
+    });
+  }
+
   @Test
   public void shouldGetResponseAndReturnVariantDebugInfo() throws Exception {
     setupSDK(mContext, "/responses/start_with_variant_debug_info_response.json");
@@ -37,11 +37,16 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.nio.ByteBuffer;
 import java.security.Provider;
 import java.security.Security;
+import java.util.Arrays;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -125,6 +130,32 @@ public class AESCryptTest {
     assertEquals("applesauce", aesCrypt.decrypt(encrypted));
   }
 
+  @Test
+  public void testEncryptDecryptBytes() throws Exception {
+    byte[] plaintext = "applesauce".getBytes("UTF-8");
+    byte[] encrypted = aesCrypt.encryptBytes(plaintext);
+    assertNotNull(encrypted);
+    assertFalse(Arrays.equals(plaintext, encrypted));
+    assertArrayEquals(plaintext, aesCrypt.decryptBytes(encrypted));
+    assertNull(new AESCrypt("badKey", null).decryptBytes(encrypted));
+  }
+
+  @Test
+  public void testDecryptBytesFromBuffer() throws Exception {
+    byte[] plaintext = "applesauce".getBytes("UTF-8");
+    byte[] encrypted = aesCrypt.encryptBytes(plaintext);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(encrypted.length + 4);
+    buffer.putInt(42).put(encrypted).flip();
+    buffer.getInt();
+
+    ByteBuffer decrypted = aesCrypt.decryptBytes(buffer);
+    assertNotNull(decrypted);
+    byte[] bytes = new byte[decrypted.remaining()];
+    decrypted.get(bytes);
+    assertArrayEquals(plaintext, bytes);
+    assertEquals("applesauce", aesCrypt.decrypt(aesCrypt.encrypt("applesauce")));
+  }
+
   @Test
   public void testLegacyDecrypt() {
     String legacyEncrypted = legacyEncrypt("bananas");
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class BoundedExecutorTest {
+  private static final int THREADS = 2;
+  private static final int TASKS = 50;
+
+  @Test
+  public void testThreadCountStaysFixedUnderLoad() throws Exception {
+    BoundedExecutor executor = new BoundedExecutor("test-executor", THREADS);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(TASKS);
+    final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+
+    for (int i = 0; i < TASKS; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          threadNames.add(Thread.currentThread().getName());
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          done.countDown();
+        }
+      });
+    }
+
+    // Tasks over the thread count wait in the queue.
+    assertEquals(TASKS - THREADS, executor.getQueueDepth());
+
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(0, executor.getQueueDepth());
+    assertTrue(threadNames.size() <= THREADS);
+    for (String name : threadNames) {
+      assertTrue(name.startsWith("test-executor-"));
+    }
+  }
+
+  @Test
+  public void testSlowOperationDoesNotBlockOthers() throws Exception {
+    BoundedExecutor executor = new BoundedExecutor("test-executor", THREADS);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(TASKS);
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    for (int i = 0; i < TASKS; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          done.countDown();
+        }
+      });
+    }
+
+    // Other operations run on the other thread while the first one is blocked.
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    release.countDown();
+  }
+
+  @Test
+  public void testExecuteAllRunsInOrderAsOneTask() throws Exception {
+    BoundedExecutor executor = new BoundedExecutor("test-executor", THREADS);
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+    final CountDownLatch done = new CountDownLatch(TASKS);
+
+    List<Runnable> operations = new ArrayList<>();
+    for (int i = 0; i < TASKS; i++) {
+      final int index = i;
+      operations.add(new Runnable() {
+        @Override
+        public void run() {
+          order.add(index);
+          threadNames.add(Thread.currentThread().getName());
+          done.countDown();
+        }
+      });
+    }
+    executor.executeAll(operations);
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(1, threadNames.size());
+    for (int i = 0; i < TASKS; i++) {
+      assertEquals(i, (int) order.get(i));
+    }
+  }
+}
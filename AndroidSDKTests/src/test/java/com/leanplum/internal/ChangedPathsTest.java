@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class ChangedPathsTest {
+  @Test
+  public void testUnchanged() {
+    Map<String, Object> group = CollectionUtil.newHashMap("a", 1, "b", Arrays.asList(1, 2));
+    Map<String, Object> oldValues = CollectionUtil.newHashMap("group", group, "title", "title");
+    Map<String, Object> newValues = CollectionUtil.newHashMap(
+        "group", new HashMap<>(group), "title", "title");
+
+    assertTrue(ChangedPaths.between(oldValues, newValues).isEmpty());
+    assertTrue(ChangedPaths.between(oldValues, oldValues).isEmpty());
+  }
+
+  @Test
+  public void testChangedPath() {
+    Map<String, Object> oldValues = CollectionUtil.newHashMap(
+        "group", CollectionUtil.newHashMap("a", 1, "b", 2), "title", "title");
+    Map<String, Object> newValues = CollectionUtil.newHashMap(
+        "group", CollectionUtil.newHashMap("a", 1, "b", 3), "title", "title");
+    ChangedPaths changedPaths = ChangedPaths.between(oldValues, newValues);
+
+    assertFalse(changedPaths.isEmpty());
+    assertTrue(changedPaths.affects(new String[] {"group", "b"}));
+    assertTrue(changedPaths.affects(new String[] {"group"}));
+    assertFalse(changedPaths.affects(new String[] {"group", "a"}));
+    assertFalse(changedPaths.affects(new String[] {"title"}));
+    assertFalse(changedPaths.affects(new String[] {"other"}));
+  }
+
+  @Test
+  public void testChangedAncestor() {
+    Map<String, Object> oldValues = CollectionUtil.newHashMap(
+        "group", CollectionUtil.newHashMap("a", 1));
+    Map<String, Object> newValues = CollectionUtil.newHashMap("group", "replaced");
+    ChangedPaths changedPaths = ChangedPaths.between(oldValues, newValues);
+
+    assertTrue(changedPaths.affects(new String[] {"group", "a"}));
+    assertTrue(changedPaths.affects(new String[] {"group", "a", "b"}));
+  }
+
+  @Test
+  public void testAddedAndRemovedKeys() {
+    Map<String, Object> oldValues = CollectionUtil.newHashMap("removed", 1, "kept", 2);
+    Map<String, Object> newValues = CollectionUtil.newHashMap("added", 1, "kept", 2);
+    ChangedPaths changedPaths = ChangedPaths.between(oldValues, newValues);
+
+    assertTrue(changedPaths.affects(new String[] {"removed"}));
+    assertTrue(changedPaths.affects(new String[] {"added"}));
+    assertFalse(changedPaths.affects(new String[] {"kept"}));
+  }
+}
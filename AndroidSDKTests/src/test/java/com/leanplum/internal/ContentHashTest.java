@@ -0,0 +1,71 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class ContentHashTest {
+  @Test
+  public void testOrderIndependent() {
+    ContentHash first = new ContentHash();
+    first.put("a", 1);
+    first.put("b", 2);
+    ContentHash second = new ContentHash();
+    second.put("b", 2);
+    second.put("a", 1);
+    assertEquals(first.value(), second.value());
+  }
+
+  @Test
+  public void testPutReplaces() {
+    ContentHash hash = new ContentHash();
+    hash.put("a", 1);
+    long value = hash.value();
+    hash.put("a", 2);
+    assertNotEquals(value, hash.value());
+    hash.put("a", 1);
+    assertEquals(value, hash.value());
+  }
+
+  @Test
+  public void testKeysMatter() {
+    ContentHash first = new ContentHash();
+    first.put("a", 1);
+    first.put("b", 2);
+    ContentHash second = new ContentHash();
+    second.put("a", 2);
+    second.put("b", 1);
+    assertNotEquals(first.value(), second.value());
+  }
+
+  @Test
+  public void testClear() {
+    ContentHash hash = new ContentHash();
+    long empty = hash.value();
+    hash.put("a", 1);
+    hash.clear();
+    assertEquals(empty, hash.value());
+  }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.leanplum.internal;
+
+import static com.leanplum.utils.TestConstants.ROBOLECTRIC_CONFIG_SDK_VERSION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Looper;
+import com.leanplum.Leanplum;
+import com.leanplum.__setup.LeanplumTestApp;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(
+    sdk = ROBOLECTRIC_CONFIG_SDK_VERSION,
+    application = LeanplumTestApp.class
+)
+public class ContentSnapshotTest {
+  private static final String APP_ID = "app_id";
+
+  private Context context;
+  private File directory;
+  private AESCrypt aesContext;
+
+  @Before
+  public void setUp() {
+    context = RuntimeEnvironment.application;
+    directory = new File(context.getFilesDir(), ContentSnapshot.DIRECTORY_NAME);
+    Leanplum.setApplicationContext(context);
+    APIConfig.getInstance().setAppId(APP_ID, "dev_key");
+    APIConfig.getInstance().setToken("token");
+    aesContext = new AESCrypt(APP_ID, "token");
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    context.getSharedPreferences(Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE)
+        .edit().clear().commit();
+    APIConfig.getInstance().setAppId(null, null);
+    APIConfig.getInstance().setToken(null);
+    Leanplum.setApplicationContext(null);
+    VarCache.reset();
+  }
+
+  private File sectionFile(String name) {
+    return new File(directory, name + ".bin");
+  }
+
+  private static Map<String, Object> createContent() throws Exception {
+    Map<String, Object> diffs = new HashMap<>();
+    diffs.put("int", 1);
+    diffs.put("long", 1L << 40);
+    diffs.put("smallLong", 5L);
+    diffs.put("double", 1.5);
+    diffs.put("wholeDouble", 2.0);
+    diffs.put("float", 2.5f);
+    diffs.put("decimal", new BigDecimal("3"));
+    diffs.put("bool", true);
+    diffs.put("null", null);
+    diffs.put("string", "héllo ✓ 😀");
+    diffs.put("list", Arrays.asList(1, "x", null, new HashMap<>()));
+    diffs.put("json", new JSONObject("{\"a\":[1,2.0,null,{\"b\":false}]}"));
+
+    Map<String, Object> messages = new HashMap<>();
+    messages.put("1", LazyMap.fromJson("{\"vars\":{\"Title\":\"Hello\"}}"));
+
+    List<Map<String, Object>> variants = new ArrayList<>();
+    variants.add(CollectionUtil.<String, Object>newHashMap("id", 10));
+
+    Map<String, Object> content = new HashMap<>();
+    content.put(ContentSnapshot.DIFFS, diffs);
+    content.put(ContentSnapshot.MESSAGES, messages);
+    content.put(ContentSnapshot.REGIONS, new HashMap<>());
+    content.put(ContentSnapshot.VARIANTS, variants);
+    content.put(ContentSnapshot.LOCAL_CAPS, new ArrayList<>());
+    content.put(ContentSnapshot.VARIANT_DEBUG_INFO, null);
+    content.put(ContentSnapshot.VARS_JSON, "{}");
+    content.put(ContentSnapshot.VARS_SIGNATURE, null);
+    return content;
+  }
+
+  /**
+   * Writes all sections of the content.
+   *
+   * @return Hashes of the sections.
+   */
+  private Map<String, String> writeContent(Map<String, Object> content) throws Exception {
+    Map<String, String> hashes = new HashMap<>();
+    for (String name : ContentSnapshot.SECTIONS) {
+      ContentSnapshot.Section section = ContentSnapshot.Section.encode(content.get(name));
+      assertTrue(ContentSnapshot.writeSection(directory, name, APP_ID, aesContext, section) > 0);
+      hashes.put(name, section.hash);
+    }
+    return hashes;
+  }
+
+  /**
+   * Content read from the snapshot is the same as content written to JSON and parsed again.
+   */
+  @Test
+  public void testRoundTripMatchesJson() throws Exception {
+    Map<String, Object> content = createContent();
+    Map<String, Object> diffs = CollectionUtil.uncheckedCast(content.get(ContentSnapshot.DIFFS));
+    Map<String, Object> messages =
+        CollectionUtil.uncheckedCast(content.get(ContentSnapshot.MESSAGES));
+    String diffsJson = JsonStringWriter.toJson(diffs);
+    String messagesJson = JsonStringWriter.toJson(messages);
+
+    Map<String, String> hashes = writeContent(content);
+    ContentSnapshot.Content result = ContentSnapshot.read(directory, aesContext);
+
+    assertNotNull(result);
+    assertTrue(result.belongsTo(hashes, APP_ID));
+    // Unparsed message is read back without parsing it.
+    Map<String, Object> resultMessages =
+        CollectionUtil.uncheckedCast(result.get(ContentSnapshot.MESSAGES));
+    assertFalse(((LazyMap) resultMessages.get("1")).isLoaded());
+    assertEquals(JsonStreamReader.readMap(new StringReader(diffsJson)),
+        result.get(ContentSnapshot.DIFFS));
+    assertEquals(JsonStreamReader.readMap(new StringReader(messagesJson)),
+        result.get(ContentSnapshot.MESSAGES));
+    assertEquals(new HashMap<>(), result.get(ContentSnapshot.REGIONS));
+    assertEquals(content.get(ContentSnapshot.VARIANTS), result.get(ContentSnapshot.VARIANTS));
+    assertEquals(new ArrayList<>(), result.get(ContentSnapshot.LOCAL_CAPS));
+    assertNull(result.get(ContentSnapshot.VARIANT_DEBUG_INFO));
+    assertEquals("{}", result.get(ContentSnapshot.VARS_JSON));
+    assertNull(result.get(ContentSnapshot.VARS_SIGNATURE));
+  }
+
+  @Test
+  public void testSectionHash() throws Exception {
+    Map<String, Object> content = createContent();
+    Object diffs = content.get(ContentSnapshot.DIFFS);
+    assertEquals(ContentSnapshot.Section.encode(diffs).hash,
+        ContentSnapshot.Section.encode(diffs).hash);
+    assertFalse(ContentSnapshot.Section.encode(diffs).hash.equals(
+        ContentSnapshot.Section.encode(content.get(ContentSnapshot.MESSAGES)).hash));
+  }
+
+  @Test
+  public void testReadOtherSnapshot() throws Exception {
+    assertNull(ContentSnapshot.read(directory, aesContext));
+
+    Map<String, String> hashes = writeContent(createContent());
+    ContentSnapshot.Content result = ContentSnapshot.read(directory, aesContext);
+    assertFalse(result.belongsTo(hashes, "other_app_id"));
+    assertFalse(result.belongsTo(new HashMap<String, String>(), APP_ID));
+    Map<String, String> otherHashes = new HashMap<>(hashes);
+    otherHashes.put(ContentSnapshot.DIFFS, "other_hash");
+    assertFalse(result.belongsTo(otherHashes, APP_ID));
+
+    assertTrue(sectionFile(ContentSnapshot.REGIONS).delete());
+    assertNull(ContentSnapshot.read(directory, aesContext));
+  }
+
+  /**
+   * Section values are encrypted like the preferences.
+   */
+  @Test
+  public void testSectionsAreEncrypted() throws Exception {
+    writeContent(createContent());
+    byte[] bytes = new byte[(int) sectionFile(ContentSnapshot.MESSAGES).length()];
+    try (RandomAccessFile section =
+        new RandomAccessFile(sectionFile(ContentSnapshot.MESSAGES), "r")) {
+      section.readFully(bytes);
+    }
+    assertFalse(new String(bytes, "ISO-8859-1").contains("Hello"));
+
+    ContentSnapshot.Content result = ContentSnapshot.read(directory, aesContext);
+    Map<String, Object> messages = result.get(ContentSnapshot.MESSAGES);
+    assertEquals("{\"vars\":{\"Title\":\"Hello\"}}",
+        ((LazyMap) messages.get("1")).getUnloadedJson());
+  }
+
+  @Test
+  public void testReadTruncatedSection() throws Exception {
+    writeContent(createContent());
+    File file = sectionFile(ContentSnapshot.DIFFS);
+    byte[] header = new byte[40];
+    try (RandomAccessFile section = new RandomAccessFile(file, "r")) {
+      section.readFully(header);
+    }
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(header);
+    }
+
+    try {
+      ContentSnapshot.read(directory, aesContext);
+      fail("Expected IOException");
+    } catch (IOException expected) {
+    }
+  }
+
+  @Test
+  public void testEncodeUnsupportedValue() throws Exception {
+    try {
+      ContentSnapshot.Section.encode(CollectionUtil.newHashMap("region", new Object()));
+      fail("Expected IOException");
+    } catch (IOException expected) {
+    }
+  }
+
+  /**
+   * Only sections that were set since the last save are written.
+   */
+  @Test
+  public void testSaveDiffsWritesChangedSections() throws Exception {
+    VarCache.setSilent(true);
+    VarCache.applyVariableDiffs(CollectionUtil.newHashMap("var", "value"), new HashMap<>(),
+        new HashMap<>(), new ArrayList<>(), new ArrayList<>(), new HashMap<>(), "{}",
+        "signature");
+    VarCache.saveDiffs();
+    long firstSave = VarCache.getLastSaveBytesWritten();
+    for (String name : ContentSnapshot.SECTIONS) {
+      assertTrue(sectionFile(name).exists());
+    }
+
+    // Nothing changed, so no section is written again.
+    assertTrue(sectionFile(ContentSnapshot.MESSAGES).delete());
+    assertTrue(sectionFile(ContentSnapshot.DIFFS).delete());
+    VarCache.saveDiffs();
+    assertTrue(VarCache.getLastSaveBytesWritten() < firstSave);
+    assertFalse(sectionFile(ContentSnapshot.MESSAGES).exists());
+    assertFalse(sectionFile(ContentSnapshot.DIFFS).exists());
+
+    // Only the changed section is written.
+    VarCache.applyVariableDiffs(CollectionUtil.newHashMap("var", "changed value"),
+        null, null, null, null, null, null, null);
+    long bytesWritten = VarCache.getBytesWritten();
+    VarCache.saveDiffs();
+    assertTrue(sectionFile(ContentSnapshot.DIFFS).exists());
+    assertFalse(sectionFile(ContentSnapshot.MESSAGES).exists());
+    assertEquals(bytesWritten + VarCache.getLastSaveBytesWritten(), VarCache.getBytesWritten());
+  }
+
+  /**
+   * Content is loaded from the snapshot and is still saved to the preferences for older SDK
+   * versions.
+   */
+  @Test
+  public void testLoadDiffs() throws Exception {
+    Map<String, Object> diffs = CollectionUtil.newHashMap("var", "server value");
+    Map<String, Object> messages = new HashMap<>();
+    messages.put("1", CollectionUtil.newHashMap("action", "Alert"));
+    VarCache.applyVariableDiffs(diffs, messages, new HashMap<>(), new ArrayList<>(),
+        new ArrayList<>(), new HashMap<>(), "{}", "signature");
+    VarCache.saveDiffs();
+
+    SharedPreferences defaults =
+        context.getSharedPreferences(Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE);
+    VarCache.reset();
+    assertTrue(VarCache.loadContentSnapshot(context, defaults, aesContext));
+    assertEquals(diffs, VarCache.getDiffs());
+    assertEquals(messages.keySet(), VarCache.messages().keySet());
+    assertEquals(JsonConverter.toJson(diffs),
+        aesContext.decodePreference(defaults, Constants.Defaults.VARIABLES_KEY, null));
+    assertNotNull(defaults.getString(Constants.Defaults.MESSAGES_KEY, null));
+
+    // Section written by another save is not used.
+    defaults.edit().putString(
+        String.format(Constants.Defaults.CONTENT_SECTION_HASH_KEY, ContentSnapshot.DIFFS),
+        "other_hash").commit();
+    VarCache.reset();
+    assertFalse(VarCache.loadContentSnapshot(context, defaults, aesContext));
+  }
+
+  /**
+   * Content saved to the preferences by older SDK versions is migrated to the snapshot and kept in
+   * the preferences.
+   */
+  @Test
+  public void testMigrateContentFromPreferences() throws Exception {
+    Map<String, Object> diffs = CollectionUtil.newHashMap("var", "server value");
+    SharedPreferences defaults =
+        context.getSharedPreferences(Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE);
+    defaults.edit()
+        .putString(Constants.Defaults.VARIABLES_KEY,
+            aesContext.encrypt(JsonConverter.toJson(diffs)))
+        .putString(Constants.Defaults.MESSAGES_KEY,
+            aesContext.encrypt("{\"1\":{\"action\":\"Alert\"}}"))
+        .commit();
+
+    VarCache.loadDiffs();
+    assertEquals(diffs, VarCache.getDiffs());
+    assertEquals(Collections.singleton("1"), VarCache.messages().keySet());
+    for (String name : ContentSnapshot.SECTIONS) {
+      assertTrue(sectionFile(name).exists());
+    }
+    assertNotNull(defaults.getString(Constants.Defaults.VARIABLES_KEY, null));
+    assertNotNull(defaults.getString(Constants.Defaults.MESSAGES_KEY, null));
+
+    VarCache.reset();
+    assertTrue(VarCache.loadContentSnapshot(context, defaults, aesContext));
+    assertEquals(diffs, VarCache.getDiffs());
+    assertEquals(Collections.singleton("1"), VarCache.messages().keySet());
+  }
+
+  /**
+   * Content is loaded from the preferences if the snapshot can't be read.
+   */
+  @Test
+  public void testLoadDiffsWithCorruptSnapshot() throws Exception {
+    Map<String, Object> diffs = CollectionUtil.newHashMap("var", "server value");
+    VarCache.applyVariableDiffs(diffs, new HashMap<>(), new HashMap<>(), new ArrayList<>(),
+        new ArrayList<>(), new HashMap<>(), "{}", "signature");
+    VarCache.saveDiffs();
+    try (FileOutputStream out = new FileOutputStream(sectionFile(ContentSnapshot.DIFFS))) {
+      out.write(new byte[] {1, 2, 3});
+    }
+
+    VarCache.reset();
+    VarCache.loadDiffs();
+    assertEquals(diffs, VarCache.getDiffs());
+
+    // The snapshot is written again.
+    VarCache.reset();
+    SharedPreferences defaults =
+        context.getSharedPreferences(Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE);
+    assertTrue(VarCache.loadContentSnapshot(context, defaults, aesContext));
+    assertEquals(diffs, VarCache.getDiffs());
+  }
+
+  /**
+   * With async loading the snapshot is read on a background thread, and loadDiffs only applies
+   * the content.
+   */
+  @Test
+  public void testPreloadDiffs() throws Exception {
+    Map<String, Object> diffs = CollectionUtil.newHashMap("var", "server value");
+    VarCache.applyVariableDiffs(diffs, new HashMap<>(), new HashMap<>(), new ArrayList<>(),
+        new ArrayList<>(), new HashMap<>(), "{}", "signature");
+    VarCache.saveDiffs();
+    VarCache.reset();
+    VarCache.setAsyncLoadEnabled(true);
+
+    final List<String> calls = new ArrayList<>();
+    VarCache.addContentLoadedHandler(new Runnable() {
+      @Override
+      public void run() {
+        calls.add("loaded");
+      }
+    });
+    assertFalse(VarCache.isContentLoaded());
+    assertFalse(VarCache.awaitContentLoaded(0, TimeUnit.MILLISECONDS));
+
+    Future<ContentSnapshot.Content> preloaded = VarCache.preloadDiffs(context);
+    assertNotNull(preloaded);
+    assertNotNull(preloaded.get(5, TimeUnit.SECONDS));
+    // Only one read is started.
+    assertNull(VarCache.preloadDiffs(context));
+
+    // Content is applied from the preloaded snapshot, the files are not read again.
+    assertTrue(sectionFile(ContentSnapshot.DIFFS).delete());
+    VarCache.loadDiffs();
+    assertEquals(diffs, VarCache.getDiffs());
+    assertTrue(VarCache.isContentLoaded());
+    assertTrue(VarCache.awaitContentLoaded(0, TimeUnit.MILLISECONDS));
+
+    shadowOf(Looper.getMainLooper()).idle();
+    assertEquals(Arrays.asList("loaded"), calls);
+
+    // Nothing is preloaded once content is loaded.
+    assertNull(VarCache.preloadDiffs(context));
+  }
+
+  /**
+   * The app id is usually set after the application context, the snapshot is preloaded then.
+   */
+  @Test
+  public void testPreloadDiffsWhenAppIdIsSet() throws Exception {
+    Map<String, Object> diffs = CollectionUtil.newHashMap("var", "server value");
+    VarCache.applyVariableDiffs(diffs, new HashMap<>(), new HashMap<>(), new ArrayList<>(),
+        new ArrayList<>(), new HashMap<>(), "{}", "signature");
+    VarCache.saveDiffs();
+    VarCache.reset();
+    VarCache.setAsyncLoadEnabled(true);
+    ReflectionHelpers.setField(APIConfig.getInstance(), "appId", null);
+
+    Leanplum.setApplicationContext(context);
+    assertNull(ReflectionHelpers.getStaticField(VarCache.class, "preloadedContent"));
+
+    Leanplum.setAppIdForProductionMode(APP_ID, "prod_key");
+    Future<ContentSnapshot.Content> preloaded =
+        ReflectionHelpers.getStaticField(VarCache.class, "preloadedContent");
+    assertNotNull(preloaded);
+    assertNotNull(preloaded.get(5, TimeUnit.SECONDS));
+
+    assertTrue(sectionFile(ContentSnapshot.DIFFS).delete());
+    VarCache.loadDiffs();
+    assertEquals(diffs, VarCache.getDiffs());
+  }
+
+  @Test
+  public void testPreloadDiffsDisabled() throws Exception {
+    assertNull(VarCache.preloadDiffs(context));
+
+    final List<String> calls = new ArrayList<>();
+    VarCache.loadDiffs();
+    VarCache.addContentLoadedHandler(new Runnable() {
+      @Override
+      public void run() {
+        calls.add("loaded");
+      }
+    });
+    assertEquals(Arrays.asList("loaded"), calls);
+  }
+}
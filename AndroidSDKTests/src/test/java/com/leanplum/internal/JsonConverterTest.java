@@ -33,6 +33,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
@@ -79,6 +80,33 @@ public class JsonConverterTest {
     assertEquals(new JSONObject(json).toString(), JsonConverter.toJson(map));
   }
 
+  @Test
+  public void testToJsonMatchesJsonObject() throws JSONException {
+    Map<String, Object> values = CollectionUtil.newLinkedHashMap(
+        "escaped", "quote \" backslash \\ slash / tab \t newline \n control \u0001 \u00e9",
+        "numbers", Arrays.asList(0.0, -0.0, 1.5, 3.0, 1e20, 1e-7, Long.MAX_VALUE, 2.5f),
+        "values", Arrays.asList(true, false, null, JSONObject.NULL, 'c'),
+        "null", null,
+        "empty", new HashMap<String, Object>(),
+        "json", new JSONObject(json)
+    );
+    assertEquals(JsonConverter.mapToJsonObject(values).toString(), JsonConverter.toJson(values));
+  }
+
+  @Test
+  public void testToJsonInvalidNumber() {
+    assertNull(JsonConverter.toJson(CollectionUtil.newHashMap("nan", Double.NaN)));
+    assertNull(JsonConverter.toJson(CollectionUtil.newHashMap(
+        "list", Arrays.asList(Double.POSITIVE_INFINITY))));
+  }
+
+  @Test
+  public void testListToJson() throws JSONException {
+    assertNull(JsonConverter.listToJson(null));
+    assertEquals("[1,\"string\",{\"a\":\"b\"}]",
+        JsonConverter.listToJson((Iterable<?>) map.get("array")));
+  }
+
   @Test
   public void testFromJson() {
     assertNull(JsonConverter.fromJson(null));
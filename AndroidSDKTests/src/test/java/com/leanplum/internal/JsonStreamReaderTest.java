@@ -0,0 +1,97 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static com.leanplum.utils.TestConstants.ROBOLECTRIC_CONFIG_SDK_VERSION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.leanplum.__setup.LeanplumTestApp;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(
+    sdk = ROBOLECTRIC_CONFIG_SDK_VERSION,
+    application = LeanplumTestApp.class
+)
+public class JsonStreamReaderTest {
+  private static final String JSON = "{\"response\":[{\"success\":true,\"vars\":{\"int\":1,"
+      + "\"long\":9223372036854775807,\"double\":1.5,\"exp\":1e5,\"negativeZero\":-0,"
+      + "\"string\":\"\\u00e9\\/\\n\",\"null\":null,\"list\":[1,\"a\",[],{}]}}]}";
+
+  @Test
+  public void testReadMap() throws Exception {
+    Map<String, Object> expected = JsonConverter.mapFromJson(new JSONObject(JSON));
+    Map<String, Object> map = JsonStreamReader.readMap(new StringReader(JSON));
+    assertEquals(expected, map);
+    assertEquals(expected, JsonConverter.fromJson(JSON));
+  }
+
+  @Test
+  public void testReadJsonObject() throws Exception {
+    JSONObject object = JsonStreamReader.readJsonObject(new StringReader(JSON));
+    assertEquals(new JSONObject(JSON).toString(), object.toString());
+  }
+
+  @Test
+  public void testReadGzipStream() throws Exception {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+    gzip.write(JSON.getBytes("UTF-8"));
+    gzip.close();
+
+    InputStreamReader reader = new InputStreamReader(
+        new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())), "UTF-8");
+    JSONObject object = JsonStreamReader.readJsonObject(reader);
+    assertEquals(new JSONObject(JSON).toString(), object.toString());
+  }
+
+  @Test
+  public void testMalformedJson() throws IOException {
+    String[] malformed = {"", "{", "{\"a\":", "[1]", "{\"a\":1,", "{\"a\" 1}"};
+    for (String json : malformed) {
+      try {
+        JsonStreamReader.readMap(new StringReader(json));
+        fail("Parsed malformed JSON: " + json);
+      } catch (JSONException expected) {
+      }
+      try {
+        JsonStreamReader.readJsonObject(new StringReader(json));
+        fail("Parsed malformed JSON: " + json);
+      } catch (JSONException expected) {
+      }
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static com.leanplum.utils.TestConstants.ROBOLECTRIC_CONFIG_SDK_VERSION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.leanplum.__setup.LeanplumTestApp;
+import java.util.Map;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(
+    sdk = ROBOLECTRIC_CONFIG_SDK_VERSION,
+    application = LeanplumTestApp.class
+)
+public class LazyMapTest {
+  private static final String MESSAGES = "{"
+      + "\"1\":{\"action\":\"Alert\",\"whenTriggers\":{\"children\":[{\"subject\":\"event\","
+      + "\"noun\":\"open\"}]},\"vars\":{\"Title\":\"Hello\",\"Nested\":{\"a\":[1,2]}}},"
+      + "\"2\":{\"action\":\"Alert\",\"vars\":{\"Accept action\":{\"__name__\":\"Open URL\","
+      + "\"URL\":\"https://leanplum.com\"}}}}";
+
+  @After
+  public void tearDown() {
+    VarCache.reset();
+    VarCache.setSilent(false);
+  }
+
+  @Test
+  public void testFromJson() throws Exception {
+    String json = "{\"a\":1,\"b\":{\"c\":[true,null]}}";
+    LazyMap map = LazyMap.fromJson(json);
+    assertFalse(map.isLoaded());
+    assertEquals(json, map.getUnloadedJson());
+
+    assertEquals(1, map.get("a"));
+    assertTrue(map.isLoaded());
+    assertNull(map.getUnloadedJson());
+    assertEquals(JsonConverter.mapFromJson(new JSONObject(json)), map);
+  }
+
+  @Test
+  public void testFromInvalidJson() {
+    LazyMap map = LazyMap.fromJson("{\"a\":");
+    assertTrue(map.isEmpty());
+    assertTrue(map.isLoaded());
+  }
+
+  @Test
+  public void testNullLoader() {
+    LazyMap map = LazyMap.of(new LazyMap.Loader() {
+      @Override
+      public Map<String, Object> load() {
+        return null;
+      }
+    });
+    assertTrue(map.isEmpty());
+    map.put("a", 1);
+    assertEquals(1, map.get("a"));
+  }
+
+  @Test
+  public void testMessagesFromJson() throws Exception {
+    JSONObject json = new JSONObject(MESSAGES);
+    Map<String, Object> messages = VarCache.messagesFromJson(json);
+    Map<String, Object> message = CollectionUtil.uncheckedCast(messages.get("1"));
+    LazyMap vars = (LazyMap) message.get(Constants.Keys.VARS);
+
+    assertEquals("Alert", message.get(Constants.Params.ACTION));
+    assertEquals("{\"Title\":\"Hello\",\"Nested\":{\"a\":[1,2]}}", vars.getUnloadedJson());
+    assertTrue(message.get("whenTriggers") instanceof Map);
+    assertFalse(vars.isLoaded());
+
+    // Vars are written without being converted.
+    assertEquals(JsonConverter.mapFromJson(json),
+        JsonConverter.fromJson(JsonConverter.toJson(messages)));
+    assertFalse(vars.isLoaded());
+
+    assertEquals(JsonConverter.mapFromJson(json), messages);
+    assertTrue(vars.isLoaded());
+  }
+
+  @Test
+  public void testApplyVariableDiffs() throws Exception {
+    VarCache.setSilent(true);
+    VarCache.applyVariableDiffs(null, VarCache.messagesFromJson(new JSONObject(MESSAGES)),
+        null, null, null, null, null, null);
+
+    Map<String, Object> message = CollectionUtil.uncheckedCast(VarCache.messages().get("1"));
+    LazyMap vars = (LazyMap) message.get(Constants.Keys.VARS);
+    assertFalse(vars.isLoaded());
+    assertEquals("Hello", vars.get("Title"));
+    assertEquals(JsonConverter.fromJson("{\"a\":[1,2]}"), vars.get("Nested"));
+
+    // Message with an action is prefetched right away.
+    Map<String, Object> actionMessage =
+        CollectionUtil.uncheckedCast(VarCache.messages().get("2"));
+    assertTrue(((LazyMap) actionMessage.get(Constants.Keys.VARS)).isLoaded());
+  }
+}
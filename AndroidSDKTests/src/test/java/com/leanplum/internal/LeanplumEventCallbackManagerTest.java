@@ -0,0 +1,194 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static com.leanplum.utils.TestConstants.ROBOLECTRIC_CONFIG_SDK_VERSION;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertSame;
+
+import com.leanplum.Leanplum;
+import com.leanplum.__setup.LeanplumTestApp;
+import com.leanplum.internal.Request.RequestType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests dispatching of a multi response to the callbacks of its requests, with the responses
+ * indexed by request id. Dispatch time is measured by CallbackDispatchBenchmark in the JMH
+ * benchmarks.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(
+    sdk = ROBOLECTRIC_CONFIG_SDK_VERSION,
+    application = LeanplumTestApp.class
+)
+public class LeanplumEventCallbackManagerTest {
+  private static final int CALLBACKS = 50;
+  private static final int RESPONSES = 100;
+
+  private final List<Request> requests = new ArrayList<>();
+  private final List<String> requestIds = new ArrayList<>();
+  private final AtomicInteger matchedResponses = new AtomicInteger();
+  private JSONObject body;
+
+  @Before
+  public void setUp() throws Exception {
+    Leanplum.setApplicationContext(RuntimeEnvironment.getApplication());
+
+    ShadowOperationQueue shadowOperationQueue = new ShadowOperationQueue();
+    Field instance = OperationQueue.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(instance, shadowOperationQueue);
+
+    List<JSONObject> responses = new ArrayList<>();
+    for (int i = 0; i < RESPONSES; i++) {
+      String reqId = "other" + i;
+      if (i < CALLBACKS) {
+        Request request = new Request("POST", RequestBuilder.ACTION_TRACK, RequestType.DEFAULT,
+            null);
+        reqId = request.getRequestId();
+        requests.add(request);
+        requestIds.add(reqId);
+      }
+      JSONObject response = new JSONObject();
+      response.put(Constants.Params.REQUEST_ID, reqId);
+      response.put("success", true);
+      responses.add(response);
+    }
+    Collections.shuffle(responses, new Random(1));
+    body = new JSONObject();
+    body.put(Constants.Params.RESPONSE, new JSONArray(responses));
+  }
+
+  private LeanplumEventCallbackManager createCallbackManager() {
+    LeanplumEventCallbackManager callbackManager = new LeanplumEventCallbackManager();
+    for (Request request : requests) {
+      final String reqId = request.getRequestId();
+      callbackManager.addCallbacks(request, new Request.ResponseCallback() {
+        @Override
+        public void response(JSONObject response) {
+          try {
+            if (reqId.equals(response.getString(Constants.Params.REQUEST_ID))) {
+              matchedResponses.incrementAndGet();
+            }
+          } catch (JSONException ignored) {
+          }
+        }
+      }, null);
+    }
+    return callbackManager;
+  }
+
+  @Test
+  public void testInvokeCallbacks() {
+    LeanplumEventCallbackManager callbackManager = createCallbackManager();
+    callbackManager.invokeCallbacks(body);
+    // Every callback gets the response with its request id.
+    assertEquals(CALLBACKS, matchedResponses.get());
+
+    // Callbacks are invoked only once.
+    callbackManager.invokeCallbacks(body);
+    assertEquals(CALLBACKS, matchedResponses.get());
+  }
+
+  @Test
+  public void testCallbacksAreDispatchedSeparately() throws Exception {
+    final AtomicInteger operations = new AtomicInteger();
+    ShadowOperationQueue operationQueue = new ShadowOperationQueue() {
+      @Override
+      public void addCallbackOperation(Runnable operation) {
+        operations.incrementAndGet();
+        super.addCallbackOperation(operation);
+      }
+    };
+    Field instance = OperationQueue.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(instance, operationQueue);
+
+    createCallbackManager().invokeCallbacks(body);
+    // Every callback is its own task, so a slow callback does not hold back the others.
+    assertEquals(CALLBACKS, operations.get());
+    assertEquals(CALLBACKS, matchedResponses.get());
+  }
+
+  @Test
+  public void testBatchedCallbacksAreDispatchedAsOneTask() throws Exception {
+    final AtomicInteger operations = new AtomicInteger();
+    final AtomicInteger tasks = new AtomicInteger();
+    ShadowOperationQueue operationQueue = new ShadowOperationQueue() {
+      @Override
+      public void addCallbackOperation(Runnable operation) {
+        operations.incrementAndGet();
+        super.addCallbackOperation(operation);
+      }
+
+      @Override
+      public void addCallbackOperations(List<Runnable> batch) {
+        tasks.incrementAndGet();
+        super.addCallbackOperations(batch);
+      }
+    };
+    Field instance = OperationQueue.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(instance, operationQueue);
+
+    LeanplumEventCallbackManager callbackManager = createCallbackManager();
+    callbackManager.setBatchCallbacks(true);
+    callbackManager.invokeCallbacks(body);
+    // All callbacks of the response are one task.
+    assertEquals(1, tasks.get());
+    assertEquals(0, operations.get());
+    assertEquals(CALLBACKS, matchedResponses.get());
+  }
+
+  @Test
+  public void testResponsesMatchScan() {
+    Map<String, JSONObject> responses = RequestUtil.getResponsesById(body);
+    for (String reqId : requestIds) {
+      assertSame(RequestUtil.getResponseForId(body, reqId),
+          responses.get(reqId.toLowerCase(Locale.US)));
+    }
+  }
+
+  @Test
+  public void testResponsesById() {
+    assertNotNull(RequestUtil.getResponsesById(body).get(requestIds.get(0).toLowerCase()));
+    assertEquals(RESPONSES, RequestUtil.getResponsesById(body).size());
+    assertEquals(0, RequestUtil.getResponsesById(new JSONObject()).size());
+  }
+}
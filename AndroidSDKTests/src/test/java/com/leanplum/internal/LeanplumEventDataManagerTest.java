@@ -23,10 +23,14 @@ package com.leanplum.internal;
 import static com.leanplum.utils.TestConstants.ROBOLECTRIC_CONFIG_SDK_VERSION;
 
 import android.app.Application;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 
 import com.leanplum.Leanplum;
 import com.leanplum.__setup.LeanplumTestApp;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import org.junit.After;
 import org.junit.Before;
@@ -37,11 +41,18 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.robolectric.util.ReflectionHelpers;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
 
 /**
  * Tests for {@link LeanplumEventDataManager} class.
@@ -74,6 +85,9 @@ public class LeanplumEventDataManagerTest {
 
   @After
   public void tearDown() {
+    LeanplumEventDataManager.setWriteBufferPolicy(
+        LeanplumEventDataManager.DEFAULT_MAX_BUFFERED_EVENTS,
+        LeanplumEventDataManager.DEFAULT_MAX_BUFFER_DELAY_MILLIS);
     setDatabaseToNull();
   }
 
@@ -98,6 +112,272 @@ public class LeanplumEventDataManagerTest {
     assertEquals(2, (int) events.get(2).get("event"));
   }
 
+  @Test
+  public void testBufferedEventsAreWrittenInOneTransaction() throws Exception {
+    // Delayed flush is never executed, buffer is written only when full or explicitly flushed.
+    ShadowOperationQueue operationQueue = new ShadowOperationQueue() {
+      @Override
+      public boolean addOperationAfterDelay(Runnable operation, long delayMillis) {
+        return true;
+      }
+    };
+    Field instance = OperationQueue.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(instance, operationQueue);
+
+    LeanplumEventDataManager.setWriteBufferPolicy(3, 60 * 1000);
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+
+    dataManager.insertEvent("{event:0}");
+    dataManager.insertEvent("{event:1}");
+    assertEquals(0, dataManager.getDiskWriteCount());
+    assertEquals(2, dataManager.getEventsCount());
+
+    // Third event fills the buffer.
+    dataManager.insertEvent("{event:2}");
+    assertEquals(1, dataManager.getDiskWriteCount());
+
+    dataManager.insertEvent("{event:3}");
+    dataManager.flush();
+    assertEquals(2, dataManager.getDiskWriteCount());
+    assertEquals(4, dataManager.getEventsCount());
+
+    // Reading events writes the buffer first.
+    dataManager.insertEvent("{event:4}");
+    List<Map<String, Object>> events = dataManager.getEvents(10);
+    assertEquals(3, dataManager.getDiskWriteCount());
+    assertEquals(5, events.size());
+    for (int i = 0; i < events.size(); i++) {
+      assertEquals(i, (int) events.get(i).get("event"));
+    }
+  }
+
+  @Test
+  public void testFailedFlushKeepsEvents() throws Exception {
+    ShadowOperationQueue operationQueue = new ShadowOperationQueue() {
+      @Override
+      public boolean addOperationAfterDelay(Runnable operation, long delayMillis) {
+        return true;
+      }
+    };
+    Field instance = OperationQueue.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(instance, operationQueue);
+
+    LeanplumEventDataManager.setWriteBufferPolicy(10, 60 * 1000);
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    dataManager.insertEvent("{event:0}");
+    dataManager.insertEvent("{event:1}");
+    dataManager.insertEvent("{event:2}");
+
+    // Second event fails to insert, so the transaction fails.
+    List<ContentValues> bufferedEvents = ReflectionHelpers.getField(dataManager, "bufferedEvents");
+    bufferedEvents.get(1).put("missing_column", 1);
+    dataManager.flush();
+
+    // Other events are written one by one, the failed event is kept for the next flush.
+    assertEquals(1, bufferedEvents.size());
+    assertEquals(3, dataManager.getEventsCount());
+
+    for (int i = 1; i < LeanplumEventDataManager.MAX_FLUSH_ATTEMPTS; i++) {
+      dataManager.flush();
+    }
+    assertEquals(0, bufferedEvents.size());
+    assertEquals(2, dataManager.getEventsCount());
+    List<Map<String, Object>> events = dataManager.getEvents(10);
+    assertEquals(2, events.size());
+    assertEquals(0, (int) events.get(0).get("event"));
+    assertEquals(2, (int) events.get(1).get("event"));
+  }
+
+  @Test
+  public void testUpgradeFromVersion1() {
+    // Create database with the version 1 schema.
+    File path = mContext.getDatabasePath("__leanplum.db");
+    path.getParentFile().mkdirs();
+    SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+    db.execSQL("CREATE TABLE event(data TEXT)");
+    String start =
+        "{\"action\":\"start\",\"background\":\"true\",\"uuid\":\"u1\",\"time\":\"1.5\"}";
+    db.execSQL("INSERT INTO event(data) VALUES "
+        + "('" + start + "'), "
+        + "('{\"action\":\"track\",\"uuid\":\"u1\"}'), "
+        + "('not json')");
+    db.setVersion(1);
+    db.close();
+
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    assertEquals(3, dataManager.getEventsCount());
+
+    SQLiteDatabase database = ReflectionHelpers.getField(dataManager, "database");
+    Cursor cursor = database.rawQuery(
+        "SELECT action, uuid, time, background, size, data FROM event ORDER BY rowid", null);
+    try {
+      assertEquals(3, cursor.getCount());
+      cursor.moveToNext();
+      assertEquals("start", cursor.getString(0));
+      assertEquals("u1", cursor.getString(1));
+      assertEquals(1.5, cursor.getDouble(2), 0);
+      assertEquals(1, cursor.getInt(3));
+      assertEquals(start.length(), cursor.getInt(4));
+      // Uuid is stored only in its column.
+      assertFalse(cursor.getString(5).contains("u1"));
+
+      cursor.moveToNext();
+      assertEquals("track", cursor.getString(0));
+      assertEquals(0, cursor.getInt(3));
+      assertTrue(cursor.isNull(2));
+
+      // Rows that cannot be parsed are kept.
+      cursor.moveToNext();
+      assertTrue(cursor.isNull(0));
+      assertEquals("not json", cursor.getString(5));
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Databases created without the indices get them on upgrade.
+   */
+  @Test
+  public void testUpgradeFromVersion4CreatesIndices() {
+    File path = mContext.getDatabasePath("__leanplum.db");
+    path.getParentFile().mkdirs();
+    SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+    db.execSQL("CREATE TABLE event(data TEXT, action TEXT, uuid TEXT, time REAL, "
+        + "size INTEGER NOT NULL DEFAULT 0, priority INTEGER NOT NULL DEFAULT 0, "
+        + "background INTEGER NOT NULL DEFAULT 0, context INTEGER)");
+    db.execSQL("CREATE TABLE context(data TEXT NOT NULL UNIQUE)");
+    db.execSQL("INSERT INTO event(data) VALUES ('{\"action\":\"track\"}')");
+    db.setVersion(4);
+    db.close();
+
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    assertEquals(1, dataManager.getEventsCount());
+    SQLiteDatabase database = ReflectionHelpers.getField(dataManager, "database");
+    assertEquals(new HashSet<>(Arrays.asList("event_priority_index", "event_uuid_index")),
+        getIndexNames(database));
+  }
+
+  @Test
+  public void testCreateDatabaseWithIndices() {
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    SQLiteDatabase database = ReflectionHelpers.getField(dataManager, "database");
+    assertEquals(new HashSet<>(Arrays.asList("event_priority_index", "event_uuid_index")),
+        getIndexNames(database));
+  }
+
+  private static Set<String> getIndexNames(SQLiteDatabase database) {
+    Set<String> names = new HashSet<>();
+    Cursor cursor = database.rawQuery(
+        "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'event' "
+            + "AND sql IS NOT NULL", null);
+    try {
+      while (cursor.moveToNext()) {
+        names.add(cursor.getString(0));
+      }
+    } finally {
+      cursor.close();
+    }
+    return names;
+  }
+
+  @Test
+  public void testInsertEventFillsColumns() {
+    Map<String, Object> args = new HashMap<>();
+    args.put(Constants.Params.ACTION, RequestBuilder.ACTION_TRACK);
+    args.put(Constants.Params.UUID, "uuid");
+    args.put(Constants.Params.TIME, "2.25");
+
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    dataManager.insertEvent("{\"event\":\"\u00e9\"}", args);
+    dataManager.flush();
+
+    SQLiteDatabase database = ReflectionHelpers.getField(dataManager, "database");
+    Cursor cursor = database.rawQuery(
+        "SELECT action, uuid, time, background, size, priority FROM event", null);
+    try {
+      assertTrue(cursor.moveToNext());
+      assertEquals(RequestBuilder.ACTION_TRACK, cursor.getString(0));
+      assertEquals("uuid", cursor.getString(1));
+      assertEquals(2.25, cursor.getDouble(2), 0);
+      assertEquals(0, cursor.getInt(3));
+      // Two bytes for the accented character and the uuid field added when the event is read.
+      assertEquals(28, cursor.getInt(4));
+      assertEquals(LeanplumEventDataManager.DEFAULT_PRIORITY, cursor.getInt(5));
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Test
+  public void testCriticalEventsRange() {
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    Map<String, Object> startArgs = new HashMap<>();
+    startArgs.put(Constants.Params.ACTION, RequestBuilder.ACTION_START);
+
+    // Only critical events, nothing to send ahead of.
+    dataManager.insertEvent("{\"action\":\"start\"}", startArgs);
+    assertEquals(0, dataManager.getCriticalEventsRange(10)[0]);
+    long[] onlyCritical = dataManager.getCriticalEventsRange(10, true);
+    assertEquals(1, onlyCritical[0]);
+    assertEquals(onlyCritical[1], onlyCritical[2]);
+    assertEquals(0, onlyCritical[5]);
+
+    // Start followed by other events is sent in order with them.
+    dataManager.insertEvent("{\"action\":\"track\"}");
+    assertEquals(0, dataManager.getCriticalEventsRange(10)[0]);
+
+    dataManager.insertEvent("{\"action\":\"start\"}", startArgs);
+    dataManager.insertEvent("{\"action\":\"start\"}", startArgs);
+    long[] range = dataManager.getCriticalEventsRange(10);
+    assertEquals(2, range[0]);
+    assertEquals(1, range[2] - range[1]);
+    assertEquals(1, range[5]);
+  }
+
+  @Test
+  public void testEventsRangeWithByteBudget() {
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    for (int i = 0; i < 5; i++) {
+      Map<String, Object> args = new HashMap<>();
+      args.put(Constants.Params.UUID, i < 4 ? "uuid1" : "uuid2");
+      // Every event has 23 bytes with its uuid.
+      dataManager.insertEvent("{\"id\":" + i + "}", args);
+    }
+
+    long[] range = dataManager.getEventsRange(0, 10, 50);
+    assertArrayEquals(new long[] {2, 1, 2, 46, 1, 1}, range);
+    range = dataManager.getEventsRange(3, 10, 50);
+    assertArrayEquals(new long[] {2, 4, 5, 46, 0, 0}, range);
+    range = dataManager.getEventsRange(0, 4, 1000);
+    assertArrayEquals(new long[] {4, 1, 4, 92, 1, 0}, range);
+    // First event is included even if it does not fit.
+    range = dataManager.getEventsRange(0, 10, 1);
+    assertArrayEquals(new long[] {1, 1, 1, 23, 1, 1}, range);
+
+    dataManager.replaceUuid(1, 2, "uuid3");
+    List<Map<String, Object>> events = dataManager.getEvents(5);
+    assertEquals("uuid3", events.get(0).get(Constants.Params.UUID));
+    assertEquals("uuid3", events.get(1).get(Constants.Params.UUID));
+    assertEquals("uuid1", events.get(2).get(Constants.Params.UUID));
+    assertEquals("uuid2", events.get(4).get(Constants.Params.UUID));
+    assertEquals(0, events.get(0).get("id"));
+    LeanplumEventDataManager.EventReader reader = dataManager.openEvents(1, 3);
+    try {
+      assertTrue(reader.next());
+      assertEquals("{\"uuid\":\"uuid3\",\"id\":0}", reader.getData());
+      assertTrue(reader.next());
+      assertTrue(reader.next());
+      assertEquals("{\"uuid\":\"uuid1\",\"id\":2}", reader.getData());
+    } finally {
+      reader.close();
+    }
+    range = dataManager.getEventsRange(0, 10, 50);
+    assertArrayEquals(new long[] {2, 1, 2, 46, 1, 0}, range);
+  }
+
   public static void setDatabaseToNull(){
     ReflectionHelpers.setStaticField(LeanplumEventDataManager.class, "instance", null);
   }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class PersistentMapTest {
+  /**
+   * Key with a fixed hash code, to put keys into the same collision node.
+   */
+  private static final class CollidingKey {
+    final String name;
+
+    CollidingKey(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public int hashCode() {
+      return 42;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof CollidingKey && ((CollidingKey) other).name.equals(name);
+    }
+  }
+
+  @Test
+  public void testPlus() {
+    PersistentMap<String, Object> empty = PersistentMap.empty();
+    PersistentMap<String, Object> map = empty.plus("a", 1).plus("b", null);
+    assertTrue(empty.isEmpty());
+    assertEquals(2, map.size());
+    assertEquals(1, map.get("a"));
+    assertNull(map.get("b"));
+    assertTrue(map.containsKey("b"));
+    assertFalse(map.containsKey("c"));
+
+    PersistentMap<String, Object> changed = map.plus("a", 2);
+    assertEquals(1, map.get("a"));
+    assertEquals(2, changed.get("a"));
+    assertEquals(2, changed.size());
+  }
+
+  @Test
+  public void testPlusSameValue() {
+    Object value = new Object();
+    PersistentMap<String, Object> map = PersistentMap.<String, Object>empty().plus("a", value);
+    assertSame(map, map.plus("a", value));
+  }
+
+  @Test
+  public void testCopyOf() {
+    Map<String, Object> values = CollectionUtil.newHashMap("a", 1, "b", "text");
+    PersistentMap<String, Object> map = PersistentMap.copyOf(values);
+    assertEquals(values, map);
+    assertEquals(values.hashCode(), map.hashCode());
+    assertSame(map, PersistentMap.copyOf(map));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testImmutable() {
+    PersistentMap.<String, Object>empty().plus("a", 1).put("b", 2);
+  }
+
+  @Test
+  public void testCollisions() {
+    PersistentMap<Object, Object> map = PersistentMap.empty();
+    for (int i = 0; i < 5; i++) {
+      map = map.plus(new CollidingKey("key" + i), i);
+    }
+    map = map.plus("other", "value").plus(new CollidingKey("key2"), "changed");
+    assertEquals(6, map.size());
+    assertEquals(0, map.get(new CollidingKey("key0")));
+    assertEquals("changed", map.get(new CollidingKey("key2")));
+    assertEquals("value", map.get("other"));
+    assertNull(map.get(new CollidingKey("missing")));
+  }
+
+  @Test
+  public void testSameAsHashMap() {
+    Random random = new Random(1);
+    Map<Object, Object> expected = new HashMap<>();
+    PersistentMap<Object, Object> map = PersistentMap.empty();
+    for (int i = 0; i < 20000; i++) {
+      Object key = random.nextInt(5000);
+      if (random.nextInt(10) == 0) {
+        key = "key" + key;
+      }
+      expected.put(key, i);
+      map = map.plus(key, i);
+    }
+    assertEquals(expected.size(), map.size());
+    assertEquals(expected, map);
+    assertEquals(expected.size(), map.entrySet().size());
+    assertEquals(new HashMap<>(map), expected);
+  }
+}
@@ -36,8 +36,11 @@ import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -378,6 +381,242 @@ public class RequestBatchFactoryTest {
     assertEquals(json, expectedJson);
   }
 
+  /**
+   * Tests that streaming batch writes the stored requests and drops irrelevant background starts
+   * the same way as removeIrrelevantBackgroundStartRequests.
+   */
+  @Test
+  public void testStreamingBatch() throws Exception {
+    RequestBatchFactory batchFactory = new RequestBatchFactory();
+
+    RequestBatch batch = batchFactory.createStreamingBatch();
+    assertNotNull(batch);
+    assertTrue(batch.isEmpty());
+    assertEquals("{\"data\":[]}", batch.getJson());
+
+    sendStart(true, "bg1");
+    sendStart(true, "bg2");
+    sendStart(false, "fg1");
+    RequestSender.getInstance().send(
+        new Request("POST", RequestBuilder.ACTION_TRACK, RequestType.DEFAULT, null));
+    sendStart(true, "bg3");
+
+    batch = batchFactory.createStreamingBatch();
+    assertEquals(5, batch.getEventsCount());
+    assertFalse(batch.isEmpty());
+    assertSame(batch, batch.getData());
+
+    List<Map<String, Object>> expected = batchFactory.removeIrrelevantBackgroundStartRequests(
+        batchFactory.getUnsentRequests(1.0));
+    JSONArray data = new JSONObject(batch.getJson()).getJSONArray(Constants.Params.DATA);
+    assertEquals(expected.size(), data.length());
+    assertEquals(3, data.length());
+    assertEquals("fg1", data.getJSONObject(0).getString("id"));
+    assertEquals(RequestBuilder.ACTION_TRACK, data.getJSONObject(1).getString(
+        Constants.Params.ACTION));
+    assertEquals("bg3", data.getJSONObject(2).getString("id"));
+
+    batchFactory.deleteFinishedBatch(batch);
+    assertTrue(batchFactory.createStreamingBatch().isEmpty());
+    LeanplumEventDataManagerTest.setDatabaseToNull();
+  }
+
+  /**
+   * Tests that fields shared by requests are sent once with the batch, and requests of another
+   * user keep their fields.
+   */
+  @Test
+  public void testSharedParams() throws Exception {
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    RequestBatchFactory batchFactory = new RequestBatchFactory();
+    batchFactory.setSharedParamsEnabled(true);
+    Map<String, Object> user1 = createSharedParams("user1");
+    Map<String, Object> user2 = createSharedParams("user2");
+    dataManager.insertEvent("{\"id\":0}", null, user1);
+    dataManager.insertEvent("{\"id\":1}", null, user2);
+    dataManager.insertEvent("{\"id\":2}", null, user1);
+
+    RequestBatch batch = batchFactory.createStreamingBatch();
+    assertEquals(3, batch.getEventsCount());
+    assertEquals(user1, batch.getSharedParams());
+    JSONArray data = new JSONObject(batch.getJson()).getJSONArray(Constants.Params.DATA);
+    assertEquals(3, data.length());
+    assertFalse(data.getJSONObject(0).has(Constants.Params.USER_ID));
+    assertEquals("user2", data.getJSONObject(1).getString(Constants.Params.USER_ID));
+    assertEquals("device", data.getJSONObject(1).getString(Constants.Params.DEVICE_ID));
+    assertFalse(data.getJSONObject(2).has(Constants.Params.USER_ID));
+
+    // Requests read in memory have all their fields.
+    List<Map<String, Object>> requests = batchFactory.getUnsentRequests(1.0);
+    assertEquals("user1", requests.get(0).get(Constants.Params.USER_ID));
+    assertEquals("user2", requests.get(1).get(Constants.Params.USER_ID));
+    assertEquals(2, requests.get(2).get("id"));
+    assertEquals(Constants.LEANPLUM_VERSION, requests.get(2).get(Constants.Params.SDK_VERSION));
+
+    batchFactory.deleteFinishedBatch(batch);
+    assertEquals(0, dataManager.getEventsCount());
+    dataManager.insertEvent("{\"id\":3}", null, user2);
+    batch = batchFactory.createStreamingBatch();
+    assertEquals(user2, batch.getSharedParams());
+    data = new JSONObject(batch.getJson()).getJSONArray(Constants.Params.DATA);
+    assertEquals("{\"id\":3}", data.getJSONObject(0).toString());
+    LeanplumEventDataManagerTest.setDatabaseToNull();
+  }
+
+  /**
+   * Tests that requests of a batch with different users and tokens keep their own fields.
+   */
+  @Test
+  public void testSharedParamsWithMixedUsersAndTokens() throws Exception {
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    RequestBatchFactory batchFactory = new RequestBatchFactory();
+    batchFactory.setSharedParamsEnabled(true);
+    Map<String, Object> user1 = createSharedParams("user1", "token1");
+    Map<String, Object> user1NewToken = createSharedParams("user1", "token2");
+    Map<String, Object> user2 = createSharedParams("user2", "token1");
+    dataManager.insertEvent("{\"id\":0}", null, user1);
+    dataManager.insertEvent("{\"id\":1}", null, user1NewToken);
+    dataManager.insertEvent("{\"id\":2}", null, user2);
+
+    RequestBatch batch = batchFactory.createStreamingBatch();
+    assertEquals(user1, batch.getSharedParams());
+    JSONArray data = new JSONObject(batch.getJson()).getJSONArray(Constants.Params.DATA);
+    assertEquals(3, data.length());
+    assertFalse(data.getJSONObject(0).has(Constants.Params.TOKEN));
+    assertEquals("user1", data.getJSONObject(1).getString(Constants.Params.USER_ID));
+    assertEquals("token2", data.getJSONObject(1).getString(Constants.Params.TOKEN));
+    assertEquals("user2", data.getJSONObject(2).getString(Constants.Params.USER_ID));
+    assertEquals("token1", data.getJSONObject(2).getString(Constants.Params.TOKEN));
+    LeanplumEventDataManagerTest.setDatabaseToNull();
+  }
+
+  /**
+   * Tests that without shared params every request is sent with all its fields.
+   */
+  @Test
+  public void testSharedParamsDisabledByDefault() throws Exception {
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    RequestBatchFactory batchFactory = new RequestBatchFactory();
+    dataManager.insertEvent("{\"id\":0}", null, createSharedParams("user1", "token1"));
+    dataManager.insertEvent("{\"id\":1}", null, createSharedParams("user2", "token2"));
+
+    RequestBatch batch = batchFactory.createStreamingBatch();
+    assertNull(batch.getSharedParams());
+    JSONArray data = new JSONObject(batch.getJson()).getJSONArray(Constants.Params.DATA);
+    assertEquals(2, data.length());
+    for (int i = 0; i < data.length(); i++) {
+      JSONObject request = data.getJSONObject(i);
+      assertEquals(i, request.getInt("id"));
+      assertEquals("user" + (i + 1), request.getString(Constants.Params.USER_ID));
+      assertEquals("token" + (i + 1), request.getString(Constants.Params.TOKEN));
+      assertEquals("device", request.getString(Constants.Params.DEVICE_ID));
+      assertEquals(Constants.LEANPLUM_VERSION, request.getString(Constants.Params.SDK_VERSION));
+    }
+    LeanplumEventDataManagerTest.setDatabaseToNull();
+  }
+
+  private static Map<String, Object> createSharedParams(String userId) {
+    return createSharedParams(userId, null);
+  }
+
+  private static Map<String, Object> createSharedParams(String userId, String token) {
+    Map<String, Object> params = new LinkedHashMap<>();
+    params.put(Constants.Params.DEVICE_ID, "device");
+    params.put(Constants.Params.USER_ID, userId);
+    params.put(Constants.Params.SDK_VERSION, Constants.LEANPLUM_VERSION);
+    params.put(Constants.Params.DEV_MODE, "false");
+    if (token != null) {
+      params.put(Constants.Params.TOKEN, token);
+    }
+    return params;
+  }
+
+  /**
+   * Tests that requests saved while a batch is uploaded are not deleted with the batch, even when
+   * the batch is acknowledged more than once.
+   */
+  @Test
+  public void testDeleteFinishedBatchKeepsRequestsSavedDuringUpload() throws Exception {
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    RequestBatchFactory batchFactory = new RequestBatchFactory();
+    for (int i = 0; i < 5; i++) {
+      dataManager.insertEvent("{\"id\":" + i + "}");
+    }
+
+    RequestBatch batch = batchFactory.createStreamingBatch();
+    assertEquals(5, batch.getEventsCount());
+    assertTrue(batch.hasRowIdRange());
+
+    // Requests saved while the batch is uploaded.
+    for (int i = 5; i < 8; i++) {
+      dataManager.insertEvent("{\"id\":" + i + "}");
+    }
+
+    batchFactory.deleteFinishedBatch(batch);
+    batchFactory.deleteFinishedBatch(batch);
+
+    List<Map<String, Object>> events = dataManager.getEvents(10);
+    assertEquals(3, events.size());
+    assertEquals(3, dataManager.getEventsCount());
+    assertEquals(5, (int) events.get(0).get("id"));
+    assertEquals(7, (int) events.get(2).get("id"));
+    LeanplumEventDataManagerTest.setDatabaseToNull();
+  }
+
+  /**
+   * Tests that every request saved from another thread while batches are created and deleted is
+   * sent exactly once.
+   */
+  @Test
+  public void testConcurrentSaveAndUpload() throws Exception {
+    final int requestsCount = 1000;
+    final LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    LeanplumEventDataManager.setWriteBufferPolicy(10, 60 * 1000);
+    RequestBatchFactory batchFactory = new RequestBatchFactory();
+
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < requestsCount; i++) {
+          dataManager.insertEvent("{\"id\":" + i + "}");
+        }
+      }
+    });
+    writer.start();
+
+    int[] sent = new int[requestsCount];
+    RequestBatch batch;
+    boolean writing;
+    do {
+      writing = writer.isAlive();
+      batch = batchFactory.createStreamingBatch();
+      JSONArray data = new JSONObject(batch.getJson()).getJSONArray(Constants.Params.DATA);
+      assertEquals(batch.getEventsCount(), data.length());
+      for (int i = 0; i < data.length(); i++) {
+        sent[data.getJSONObject(i).getInt("id")]++;
+      }
+      batchFactory.deleteFinishedBatch(batch);
+    } while (writing || !batch.isEmpty());
+    writer.join();
+
+    for (int i = 0; i < requestsCount; i++) {
+      assertEquals("Request " + i, 1, sent[i]);
+    }
+    assertEquals(0, dataManager.getEventsCount());
+    LeanplumEventDataManager.setWriteBufferPolicy(
+        LeanplumEventDataManager.DEFAULT_MAX_BUFFERED_EVENTS,
+        LeanplumEventDataManager.DEFAULT_MAX_BUFFER_DELAY_MILLIS);
+    LeanplumEventDataManagerTest.setDatabaseToNull();
+  }
+
+  private void sendStart(boolean background, String id) {
+    Map<String, Object> params = new HashMap<>();
+    params.put(Constants.Params.BACKGROUND, Boolean.toString(background));
+    params.put("id", id);
+    RequestSender.getInstance().send(
+        new Request("POST", RequestBuilder.ACTION_START, RequestType.DEFAULT, params));
+  }
+
   private List<Map<String, Object>> mockRequests(int requestSize) {
     List<Map<String, Object>> requests = new ArrayList<>();
 
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static com.leanplum.utils.TestConstants.ROBOLECTRIC_CONFIG_SDK_VERSION;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+import android.app.Application;
+import com.leanplum.Leanplum;
+import com.leanplum.__setup.LeanplumTestApp;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Uploads a backlog of saved events to a local HTTP server, one batch at a time, with multiple
+ * batches in flight and compressed, and with a start sent ahead of the backlog. These tests check
+ * only the order and concurrency of uploads, not their timing. Uploads read the events from
+ * SQLite, which the JMH benchmarks cannot use on the JVM.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(
+    sdk = ROBOLECTRIC_CONFIG_SDK_VERSION,
+    application = LeanplumTestApp.class
+)
+public class RequestSenderPipelineTest {
+  private static final int BACKLOG_SIZE = 200;
+  // Events larger than half of the default byte budget, so batches created at once have one event
+  // each.
+  private static final int LARGE_EVENT_BYTES =
+      (int) (UploadByteBudget.DEFAULT_BUDGET_BYTES * 3 / 5);
+  private static final int LARGE_BACKLOG_SIZE = 3;
+  private static final long CONCURRENT_REQUESTS_TIMEOUT_SECONDS = 5;
+  private static final String SUCCESS_RESPONSE = "{\"response\":[{\"success\":true}]}";
+  private static final String START_ACTION_ENCODED = "%22start%22";
+
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private final AtomicInteger requestsReceived = new AtomicInteger();
+  private final AtomicInteger requestsInFlight = new AtomicInteger();
+  private final AtomicInteger maxRequestsInFlight = new AtomicInteger();
+  private final AtomicInteger gzipRequests = new AtomicInteger();
+  private final AtomicLong decodedBodyBytes = new AtomicLong();
+  private final List<Boolean> requestsWithStart = new CopyOnWriteArrayList<>();
+  private volatile CountDownLatch concurrentRequests;
+  private volatile int responseCode = 200;
+
+  private String apiHost;
+  private String apiPath;
+  private boolean apiSSL;
+
+  @Before
+  public void setUp() throws Exception {
+    Application context = RuntimeEnvironment.getApplication();
+    assertNotNull(context);
+    Leanplum.setApplicationContext(context);
+
+    ShadowOperationQueue shadowOperationQueue = new ShadowOperationQueue();
+    Field instance = OperationQueue.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(instance, shadowOperationQueue);
+
+    LeanplumEventDataManagerTest.setDatabaseToNull();
+    RequestUuidHelper.clearCache();
+    LeanplumEventDataManager.setWriteBufferPolicy(BACKLOG_SIZE, 60 * 1000);
+
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        handleRequest(exchange);
+      }
+    });
+    serverExecutor = Executors.newCachedThreadPool();
+    server.setExecutor(serverExecutor);
+    server.start();
+
+    APIConfig config = APIConfig.getInstance();
+    apiHost = config.getApiHost();
+    apiPath = config.getApiPath();
+    apiSSL = config.getApiSSL();
+    config.setAppId("app", "key");
+    config.setApiConfig("127.0.0.1:" + server.getAddress().getPort(), "api", false);
+  }
+
+  @After
+  public void tearDown() {
+    APIConfig.getInstance().setApiConfig(apiHost, apiPath, apiSSL);
+    server.stop(0);
+    serverExecutor.shutdownNow();
+    LeanplumEventDataManager.setWriteBufferPolicy(
+        LeanplumEventDataManager.DEFAULT_MAX_BUFFERED_EVENTS,
+        LeanplumEventDataManager.DEFAULT_MAX_BUFFER_DELAY_MILLIS);
+    LeanplumEventDataManagerTest.setDatabaseToNull();
+    RequestUuidHelper.clearCache();
+  }
+
+  private void handleRequest(HttpExchange exchange) throws IOException {
+    int inFlight = requestsInFlight.incrementAndGet();
+    maxRequestsInFlight.accumulateAndGet(inFlight, Math::max);
+    try {
+      InputStream body = exchange.getRequestBody();
+      if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+        gzipRequests.incrementAndGet();
+        body = new GZIPInputStream(body);
+      }
+      ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = body.read(buffer)) != -1) {
+        decodedBodyBytes.addAndGet(read);
+        bodyBytes.write(buffer, 0, read);
+      }
+      boolean hasStart = bodyBytes.toString("UTF-8").contains(START_ACTION_ENCODED);
+      requestsWithStart.add(hasStart);
+      CountDownLatch latch = concurrentRequests;
+      if (latch != null) {
+        // Responds only when the other requests arrived too, or after the timeout.
+        latch.countDown();
+        latch.await(CONCURRENT_REQUESTS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+      requestsReceived.incrementAndGet();
+
+      byte[] response = SUCCESS_RESPONSE.getBytes("UTF-8");
+      exchange.sendResponseHeaders(responseCode, response.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(response);
+      out.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      requestsInFlight.decrementAndGet();
+      exchange.close();
+    }
+  }
+
+  private void saveBacklog() {
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    for (int i = 0; i < BACKLOG_SIZE; i++) {
+      dataManager.insertEvent("{\"action\":\"track\",\"event\":\"event" + i + "\"}");
+    }
+    dataManager.flush();
+    assertEquals(BACKLOG_SIZE, dataManager.getEventsCount());
+  }
+
+  /**
+   * Saves events that are sent in a batch each.
+   */
+  private void saveLargeBacklog() {
+    StringBuilder padding = new StringBuilder(LARGE_EVENT_BYTES);
+    for (int i = 0; i < LARGE_EVENT_BYTES; i++) {
+      padding.append('x');
+    }
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    for (int i = 0; i < LARGE_BACKLOG_SIZE; i++) {
+      dataManager.insertEvent("{\"action\":\"track\",\"event\":\"" + padding + i + "\"}");
+    }
+    dataManager.flush();
+    assertEquals(LARGE_BACKLOG_SIZE, dataManager.getEventsCount());
+  }
+
+  private void drainBacklog(RequestSender sender) {
+    requestsReceived.set(0);
+    maxRequestsInFlight.set(0);
+    requestsWithStart.clear();
+    sender.sendRequests();
+  }
+
+  @Test
+  public void testSerialUpload() {
+    saveLargeBacklog();
+    RequestSender sender = new RequestSender();
+    drainBacklog(sender);
+    assertEquals(0, LeanplumEventDataManager.sharedInstance().getEventsCount());
+    assertEquals(1, maxRequestsInFlight.get());
+  }
+
+  @Test
+  public void testPipelinedUpload() {
+    saveLargeBacklog();
+    RequestSender sender = new RequestSender();
+    sender.setMaxBatchesInFlight(LARGE_BACKLOG_SIZE);
+    concurrentRequests = new CountDownLatch(LARGE_BACKLOG_SIZE);
+    drainBacklog(sender);
+    assertEquals(0, LeanplumEventDataManager.sharedInstance().getEventsCount());
+    assertEquals(LARGE_BACKLOG_SIZE, requestsReceived.get());
+    assertEquals(LARGE_BACKLOG_SIZE, maxRequestsInFlight.get());
+    assertFalse(sender.isPipeliningSuspended());
+  }
+
+  @Test
+  public void testGzipUpload() {
+    saveBacklog();
+    RequestSender sender = new RequestSender();
+    sender.setGzipThreshold(1024);
+    drainBacklog(sender);
+
+    assertEquals(0, LeanplumEventDataManager.sharedInstance().getEventsCount());
+    assertEquals(requestsReceived.get(), gzipRequests.get());
+    assertEquals(decodedBodyBytes.get(), sender.getUncompressedBytesSent());
+    assertTrue(sender.getBytesSent() * 4 < sender.getUncompressedBytesSent());
+
+    // Small requests are not compressed.
+    LeanplumEventDataManager.sharedInstance().insertEvent("{\"action\":\"heartbeat\"}");
+    long bytesSent = sender.getBytesSent();
+    long uncompressedBytesSent = sender.getUncompressedBytesSent();
+    gzipRequests.set(0);
+    drainBacklog(sender);
+    assertEquals(1, requestsReceived.get());
+    assertEquals(0, gzipRequests.get());
+    assertEquals(sender.getBytesSent() - bytesSent,
+        sender.getUncompressedBytesSent() - uncompressedBytesSent);
+  }
+
+  @Test
+  public void testFallbackToSerialOnServerError() {
+    saveLargeBacklog();
+    RequestSender sender = new RequestSender();
+    sender.setMaxBatchesInFlight(3);
+
+    responseCode = 503;
+    drainBacklog(sender);
+    assertTrue(sender.isPipeliningSuspended());
+    assertEquals(LARGE_BACKLOG_SIZE, LeanplumEventDataManager.sharedInstance().getEventsCount());
+
+    // Skip the backoff before the retry.
+    assertTrue(sender.getRetryScheduler().getAttempts() > 0);
+    sender.getRetryScheduler().onSuccess();
+
+    // Batches are sent one by one until all are delivered.
+    responseCode = 200;
+    drainBacklog(sender);
+    assertEquals(1, maxRequestsInFlight.get());
+    assertFalse(sender.isPipeliningSuspended());
+    assertEquals(0, LeanplumEventDataManager.sharedInstance().getEventsCount());
+  }
+
+  @Test
+  public void testCriticalRequestsAreNotHeldByBackoff() {
+    saveBacklog();
+    RequestSender sender = new RequestSender();
+    responseCode = 503;
+    drainBacklog(sender);
+    assertTrue(sender.getRetryScheduler().getAttempts() > 0);
+
+    // Backlog waits for the retry.
+    responseCode = 200;
+    drainBacklog(sender);
+    assertEquals(0, requestsReceived.get());
+    assertEquals(BACKLOG_SIZE, LeanplumEventDataManager.sharedInstance().getEventsCount());
+
+    // Start is sent despite the backoff and its response resets the backoff.
+    saveStart();
+    drainBacklog(sender);
+    assertTrue(requestsWithStart.get(0));
+    assertEquals(0, sender.getRetryScheduler().getAttempts());
+    assertEquals(0, LeanplumEventDataManager.sharedInstance().getEventsCount());
+  }
+
+  @Test
+  public void testOnlyCriticalRequestsDuringBackoff() {
+    saveStart();
+    RequestSender sender = new RequestSender();
+    responseCode = 503;
+    drainBacklog(sender);
+    assertTrue(sender.getRetryScheduler().getAttempts() > 0);
+
+    // Start without other requests to send ahead of is not held by the backoff either.
+    responseCode = 200;
+    drainBacklog(sender);
+    assertEquals(1, requestsReceived.get());
+    assertTrue(requestsWithStart.get(0));
+    assertEquals(0, sender.getRetryScheduler().getAttempts());
+    assertEquals(0, LeanplumEventDataManager.sharedInstance().getEventsCount());
+  }
+
+  private void saveStart() {
+    Map<String, Object> args = new HashMap<>();
+    args.put(Constants.Params.ACTION, RequestBuilder.ACTION_START);
+    LeanplumEventDataManager.sharedInstance().insertEvent("{\"action\":\"start\"}", args);
+  }
+
+  @Test
+  public void testStartIsSentAheadOfBacklog() {
+    saveBacklog();
+    saveStart();
+    RequestSender sender = new RequestSender();
+    drainBacklog(sender);
+    assertEquals(0, LeanplumEventDataManager.sharedInstance().getEventsCount());
+    // Start is sent in its own request before the backlog.
+    assertEquals(2, requestsWithStart.size());
+    assertTrue(requestsWithStart.get(0));
+    assertFalse(requestsWithStart.get(1));
+  }
+
+  @Test
+  public void testStartIsSentWithBacklogWithoutPriorityLanes() {
+    saveBacklog();
+    saveStart();
+    RequestSender sender = new RequestSender();
+    sender.setPriorityLanesEnabled(false);
+    drainBacklog(sender);
+    assertEquals(0, LeanplumEventDataManager.sharedInstance().getEventsCount());
+    assertEquals(1, requestsWithStart.size());
+    assertTrue(requestsWithStart.get(0));
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static com.leanplum.utils.TestConstants.ROBOLECTRIC_CONFIG_SDK_VERSION;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static org.junit.Assert.assertNotEquals;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.leanplum.Leanplum;
+import com.leanplum.__setup.LeanplumTestApp;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests for {@link RequestUuidHelper} with the number of events and the uuid kept in memory.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(
+    sdk = ROBOLECTRIC_CONFIG_SDK_VERSION,
+    application = LeanplumTestApp.class
+)
+public class RequestUuidHelperTest {
+  private Application context;
+
+  @Before
+  public void setUp() throws Exception {
+    context = RuntimeEnvironment.getApplication();
+    assertNotNull(context);
+    Leanplum.setApplicationContext(context);
+
+    ShadowOperationQueue shadowOperationQueue = new ShadowOperationQueue();
+    Field instance = OperationQueue.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(instance, shadowOperationQueue);
+
+    LeanplumEventDataManagerTest.setDatabaseToNull();
+    RequestUuidHelper.clearCache();
+  }
+
+  @After
+  public void tearDown() {
+    LeanplumEventDataManagerTest.setDatabaseToNull();
+    RequestUuidHelper.clearCache();
+  }
+
+  @Test
+  public void testEventsCountMatchesDatabase() {
+    LeanplumEventDataManager dataManager = LeanplumEventDataManager.sharedInstance();
+    for (int i = 0; i < 5; i++) {
+      dataManager.insertEvent("{\"event\":" + i + "}");
+    }
+    dataManager.flush();
+    assertEquals(5, dataManager.getEventsCount());
+    assertEquals(dataManager.countEventsInDatabase(), dataManager.getEventsCount());
+  }
+
+  @Test
+  public void testAttachUuid() {
+    RequestUuidHelper uuidHelper = new RequestUuidHelper();
+
+    // Without events every request starts a new batch.
+    String first = attachUuid(uuidHelper);
+    assertNotEquals(first, attachUuid(uuidHelper));
+
+    LeanplumEventDataManager.sharedInstance().insertEvent("{\"event\":0}");
+    String uuid = attachUuid(uuidHelper);
+    assertEquals(uuid, preferences().getString(Constants.Defaults.UUID_KEY, null));
+
+    // Uuid is kept in memory, shared prefs are not read again.
+    preferences().edit().putString(Constants.Defaults.UUID_KEY, "changed").commit();
+    assertEquals(uuid, attachUuid(uuidHelper));
+
+    RequestUuidHelper.clearCache();
+    assertEquals("changed", attachUuid(uuidHelper));
+  }
+
+  private String attachUuid(RequestUuidHelper uuidHelper) {
+    Map<String, Object> args = new HashMap<>();
+    uuidHelper.attachUuid(args);
+    return (String) args.get(Constants.Params.UUID);
+  }
+
+  private SharedPreferences preferences() {
+    return context.getSharedPreferences(Constants.Defaults.LEANPLUM, Context.MODE_PRIVATE);
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static com.leanplum.utils.TestConstants.ROBOLECTRIC_CONFIG_SDK_VERSION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.leanplum.Leanplum;
+import com.leanplum.__setup.LeanplumTestApp;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(
+    sdk = ROBOLECTRIC_CONFIG_SDK_VERSION,
+    application = LeanplumTestApp.class
+)
+public class RetrySchedulerTest {
+  private final List<Long> scheduledDelays = new ArrayList<>();
+  private final List<Runnable> pendingOperations = new ArrayList<>();
+  private int retries;
+
+  private final Runnable retry = new Runnable() {
+    @Override
+    public void run() {
+      retries++;
+    }
+  };
+
+  // Jitter is always half of the maximum delay.
+  private final Random random = new Random() {
+    @Override
+    public double nextDouble() {
+      return 0.5;
+    }
+  };
+
+  @Before
+  public void setUp() throws Exception {
+    Leanplum.setApplicationContext(RuntimeEnvironment.getApplication());
+
+    // Records delayed operations without running them.
+    ShadowOperationQueue operationQueue = new ShadowOperationQueue() {
+      @Override
+      public boolean addOperationAfterDelay(Runnable operation, long delayMillis) {
+        scheduledDelays.add(delayMillis);
+        pendingOperations.add(operation);
+        return true;
+      }
+
+      @Override
+      public void removeOperation(Runnable operation) {
+        pendingOperations.remove(operation);
+      }
+    };
+    Field instance = OperationQueue.class.getDeclaredField("instance");
+    instance.setAccessible(true);
+    instance.set(instance, operationQueue);
+  }
+
+  @Test
+  public void testExponentialBackoffWithJitter() {
+    RetryScheduler scheduler = new RetryScheduler(retry, random);
+    assertFalse(scheduler.isWaitingForRetry());
+
+    long expectedTotal = 0;
+    for (int attempt = 1; attempt <= 12; attempt++) {
+      scheduler.onFailure(-1);
+      long maxDelay = Math.min(RetryScheduler.MAX_DELAY_MILLIS,
+          RetryScheduler.BASE_DELAY_MILLIS << (attempt - 1));
+      assertEquals(maxDelay / 2, scheduler.getLastBackoffMillis());
+      expectedTotal += maxDelay / 2;
+    }
+    assertEquals(RetryScheduler.MAX_DELAY_MILLIS / 2, scheduler.getLastBackoffMillis());
+    assertEquals(12, scheduler.getAttempts());
+    assertEquals(12, scheduler.getRetryCount());
+    assertEquals(expectedTotal, scheduler.getTotalBackoffMillis());
+    assertEquals(12, scheduledDelays.size());
+    assertTrue(scheduler.isWaitingForRetry());
+
+    scheduler.onSuccess();
+    assertEquals(0, scheduler.getAttempts());
+    assertFalse(scheduler.isWaitingForRetry());
+    scheduler.onFailure(-1);
+    assertEquals(RetryScheduler.BASE_DELAY_MILLIS / 2, scheduler.getLastBackoffMillis());
+  }
+
+  @Test
+  public void testRetryAfter() {
+    RetryScheduler scheduler = new RetryScheduler(retry, random);
+    scheduler.onFailure(60 * 1000);
+    assertEquals(60 * 1000, scheduler.getLastBackoffMillis());
+
+    // Shorter Retry-After than the jitter is ignored.
+    scheduler.onFailure(1);
+    assertEquals(RetryScheduler.BASE_DELAY_MILLIS, scheduler.getLastBackoffMillis());
+
+    scheduler.onFailure(24 * 60 * 60 * 1000);
+    assertEquals(RetryScheduler.MAX_RETRY_AFTER_MILLIS, scheduler.getLastBackoffMillis());
+  }
+
+  @Test
+  public void testConsecutiveFailuresScheduleOneRetry() {
+    RetryScheduler scheduler = new RetryScheduler(retry, random);
+    scheduler.onFailure(-1);
+    scheduler.onFailure(-1);
+    assertEquals(2, scheduledDelays.size());
+    assertEquals(1, pendingOperations.size());
+
+    pendingOperations.remove(0).run();
+    assertEquals(1, retries);
+    assertFalse(scheduler.isWaitingForRetry());
+  }
+
+  @Test
+  public void testStateIsKeptAcrossRestarts() {
+    RetryScheduler scheduler = new RetryScheduler(retry, random);
+    scheduler.onFailure(-1);
+    scheduler.onFailure(-1);
+    scheduledDelays.clear();
+
+    // Scheduler of the restarted app continues the backoff.
+    RetryScheduler restarted = new RetryScheduler(retry, random);
+    assertEquals(2, restarted.getAttempts());
+    assertTrue(restarted.isWaitingForRetry());
+    assertEquals(1, scheduledDelays.size());
+    assertTrue(scheduledDelays.get(0) <= RetryScheduler.BASE_DELAY_MILLIS);
+    assertTrue(restarted.isWaitingForRetry());
+    assertEquals(1, scheduledDelays.size());
+
+    restarted.onSuccess();
+    assertEquals(0, new RetryScheduler(retry, random).getAttempts());
+    assertEquals(0, retries);
+  }
+}
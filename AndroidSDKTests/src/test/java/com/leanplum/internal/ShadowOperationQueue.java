@@ -1,5 +1,7 @@
 package com.leanplum.internal;
 
+import java.util.List;
+
 public class ShadowOperationQueue extends OperationQueue {
 
     private Runnable lastDelayedOperation;
@@ -19,6 +21,23 @@ public class ShadowOperationQueue extends OperationQueue {
         operation.run();
     }
 
+    @Override
+    public void addCallbackOperation(Runnable operation) {
+        operation.run();
+    }
+
+    @Override
+    public void addCallbackOperations(List<Runnable> operations) {
+        for (Runnable operation : operations) {
+            operation.run();
+        }
+    }
+
+    @Override
+    public void addFileTransferOperation(Runnable operation) {
+        operation.run();
+    }
+
     @Override
     public void addUiOperation(Runnable operation) {
         operation.run();
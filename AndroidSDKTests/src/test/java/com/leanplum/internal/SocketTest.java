@@ -25,6 +25,8 @@ import static com.leanplum.utils.TestConstants.ROBOLECTRIC_CONFIG_SDK_VERSION;
 
 import com.leanplum.Var;
 import com.leanplum.__setup.LeanplumTestApp;
+import java.util.HashMap;
+import java.util.Map;
 import org.json.JSONArray;
 import org.junit.Assert;
 import org.junit.Test;
@@ -69,4 +71,24 @@ public class SocketTest {
     Assert.assertNotNull(val);
     Assert.assertEquals("bar", val.stringValue);
   }
+
+  @Test
+  public void testSendVariablesIfChanged() {
+    VarCache.reset();
+    VarCache.setDevModeValuesFromServer(new HashMap<>(), new HashMap<>(), new HashMap<>());
+    VarCache.registerVariable(Var.define("foo", "baz"));
+
+    // Variables differ from the server copy. The unchanged hash reports the last comparison.
+    Assert.assertTrue(VarCache.sendVariablesIfChanged());
+    Assert.assertTrue(VarCache.sendVariablesIfChanged());
+
+    VarCache.registerVariable(Var.define("bar", "qux"));
+    Assert.assertTrue(VarCache.sendVariablesIfChanged());
+
+    // A new server copy is compared again.
+    Map<String, Object> serverValues = new HashMap<>(VarCache.valuesFromClient);
+    VarCache.setDevModeValuesFromServer(serverValues, new HashMap<>(), new HashMap<>());
+    Assert.assertFalse(VarCache.sendVariablesIfChanged());
+    VarCache.reset();
+  }
 }
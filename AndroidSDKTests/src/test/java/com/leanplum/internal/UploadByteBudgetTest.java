@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import android.net.ConnectivityManager;
+import org.junit.Test;
+
+public class UploadByteBudgetTest {
+  private static final int WIFI = ConnectivityManager.TYPE_WIFI;
+  private static final int MOBILE = ConnectivityManager.TYPE_MOBILE;
+
+  @Test
+  public void testBudgetFollowsThroughput() {
+    UploadByteBudget budget = new UploadByteBudget();
+    long initial = UploadByteBudget.DEFAULT_BUDGET_BYTES;
+    long targetMillis = Constants.NETWORK_TIMEOUT_SECONDS * 1000 / 4;
+    assertEquals(initial, budget.getBudget(WIFI));
+
+    // Small uploads are not used to measure throughput.
+    budget.onUploadSucceeded(WIFI, 1000, 5000);
+    assertEquals(initial, budget.getBudget(WIFI));
+
+    // Slow upload moves the budget half way to the throughput.
+    budget.onUploadSucceeded(WIFI, initial, 4 * targetMillis);
+    assertEquals((initial + initial / 4) / 2, budget.getBudget(WIFI));
+
+    // Fast upload at most doubles the budget.
+    long current = budget.getBudget(WIFI);
+    budget.onUploadSucceeded(WIFI, current, 1);
+    assertEquals(2 * current, budget.getBudget(WIFI));
+
+    // Other networks are not affected.
+    assertEquals(initial, budget.getBudget(MOBILE));
+  }
+
+  @Test
+  public void testTimeoutHalvesBudget() {
+    UploadByteBudget budget = new UploadByteBudget();
+    budget.onUploadTimedOut(MOBILE);
+    assertEquals(UploadByteBudget.DEFAULT_BUDGET_BYTES / 2, budget.getBudget(MOBILE));
+    for (int i = 0; i < 20; i++) {
+      budget.onUploadTimedOut(MOBILE);
+    }
+    assertEquals(UploadByteBudget.MIN_BUDGET_BYTES, budget.getBudget(MOBILE));
+    assertEquals(UploadByteBudget.DEFAULT_BUDGET_BYTES, budget.getBudget(WIFI));
+  }
+}
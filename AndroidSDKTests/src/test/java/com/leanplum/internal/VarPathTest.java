@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023, Leanplum, Inc. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.leanplum.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Map;
+import org.junit.Test;
+
+public class VarPathTest {
+  @Test
+  public void testComponents() {
+    String[] names = {"simple", "group.name", "Accept action.Example", "escaped\\.dot.name",
+        "a.b.c"};
+    for (String name : names) {
+      assertArrayEquals(VarCache.parseNameComponents(name), VarPath.of(name).components());
+      assertArrayEquals(VarCache.parseNameComponents(name), VarCache.getNameComponents(name));
+    }
+    assertArrayEquals(new String[] {"Accept action", "Example"},
+        VarPath.of("Accept action.Example").components());
+  }
+
+  @Test
+  public void testCached() {
+    VarPath path = VarPath.of("group.name");
+    assertSame(path, VarPath.of("group.name"));
+
+    // Components are copied, so callers can't change the cached path.
+    path.components()[0] = "changed";
+    assertEquals("group", path.components()[0]);
+  }
+
+  @Test
+  public void testCacheIsBounded() {
+    VarPath path = VarPath.of("evicted.path");
+    for (int i = 0; i < 2000; i++) {
+      VarPath.of("path" + i);
+    }
+    assertNotSame(path, VarPath.of("evicted.path"));
+  }
+
+  @Test
+  public void testRecentlyUsedPathIsKept() {
+    VarPath path = VarPath.of("recent.path");
+    for (int i = 0; i < 2000; i++) {
+      VarPath.of("path" + i);
+      assertSame(path, VarPath.of("recent.path"));
+    }
+  }
+
+  @Test
+  public void testGet() {
+    Map<String, Object> values = CollectionUtil.newHashMap(
+        "Accept action", CollectionUtil.newHashMap("Example", "value"));
+    assertEquals("value", VarPath.of("Accept action.Example").get(values));
+    assertNull(VarPath.of("Accept action.Missing").get(values));
+    assertNull(VarPath.of("Missing.Example").get(values));
+  }
+}